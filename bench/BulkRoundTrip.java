@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Проверка массовой выгрузки и загрузки: книги и читатели с запятыми, кавычками
+// и переводами строк в названиях и именах выгружаются из одной БД, загружаются
+// в пустую и выгружаются снова — в CSV и JSON Lines выгрузки должны совпасть.
+// Событие IMPORTED должно прийти из потока записи.
+//   java BulkRoundTrip
+// При расхождении печатает его и завершается с кодом 1.
+public class BulkRoundTrip {
+    private static final String[] TITLES = {
+            "Обычное название",
+            "Первая строка\nвторая строка",
+            "Пустая строка\n\nвнутри",
+            "С \"кавычками\", запятой\nи переводом строки",
+            "\"Целиком в кавычках\"",
+            "Кавычка в конце строки\"\nи дальше"
+    };
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        BulkRoundTrip check = new BulkRoundTrip();
+        Path dir = Files.createTempDirectory("library-bulk");
+        try {
+            for (RecordFormat format : RecordFormat.values()) {
+                check.roundTrip(dir, format);
+            }
+        } finally {
+            LibraryBenchmark.deleteRecursively(dir);
+        }
+        if (!check.failures.isEmpty()) {
+            System.out.println("Расхождений: " + check.failures.size());
+            check.failures.forEach(System.out::println);
+            System.exit(1);
+        }
+        System.out.println("Выгрузка и загрузка совпадают: " + TITLES.length + " книг, форматы CSV и JSON Lines");
+    }
+
+    private void roundTrip(Path dir, RecordFormat format) throws Exception {
+        Library source = new Library("jdbc:sqlite:" + dir.resolve("source-" + format + ".db"));
+        Library target = new Library("jdbc:sqlite:" + dir.resolve("target-" + format + ".db"));
+        try {
+            for (int i = 0; i < TITLES.length; i++) {
+                source.addBook(new Book(LibraryBenchmark.isbn(i), TITLES[i], "Автор " + i + "\nсоавтор", 2000 + i));
+                source.registerReader(new Reader("r" + i, TITLES[i]));
+            }
+            for (BulkTable table : new BulkTable[]{BulkTable.BOOKS, BulkTable.READERS}) {
+                CompletableFuture<String> imported = new CompletableFuture<>();
+                LibraryListener listener = event -> {
+                    if (event.getType() == LibraryEvent.Type.IMPORTED) imported.complete(Thread.currentThread().getName());
+                };
+                target.addListener(listener);
+
+                String exported = export(source, table, format);
+                BulkReport report = target.bulkImporter(2).importRecords(table,
+                        new BufferedReader(new StringReader(exported)), format);
+                String where = format + ", " + table.getTableName() + ": ";
+                if (report.getWritten() != TITLES.length) {
+                    failures.add(where + "загружено " + report.getWritten() + " из " + TITLES.length + ", " + report);
+                }
+                String reexported = export(target, table, format);
+                if (!reexported.equals(exported)) {
+                    failures.add(where + "выгрузки не совпадают:\n" + exported + "---\n" + reexported);
+                }
+                try {
+                    String thread = imported.get(5, TimeUnit.SECONDS);
+                    if (!thread.equals("library-writer")) failures.add(where + "IMPORTED пришло из потока " + thread);
+                } catch (TimeoutException e) {
+                    failures.add(where + "нет события IMPORTED");
+                }
+                target.removeListener(listener);
+            }
+        } finally {
+            source.close();
+            target.close();
+        }
+    }
+
+    private static String export(Library library, BulkTable table, RecordFormat format)
+            throws IOException, LibraryException {
+        StringWriter out = new StringWriter();
+        library.bulkExporter().export(table, out, format);
+        return out.toString();
+    }
+}
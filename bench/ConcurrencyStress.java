@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Нагрузочная проверка очереди записи: --threads потоков в течение --seconds секунд
+// выполняют вперемешку чтение, выдачи и возвраты (по одной, без ожидания и стопками),
+// добавление и удаление книг на небольшом наборе книг и читателей, чтобы операции
+// постоянно сталкивались. Проход повторяется без группового коммита и с ним.
+// После прохода по числу успешных операций проверяется, что ни одно изменение
+// не потерялось, у каждой книги флаг available соответствует строке выдачи, а кэш
+// книг и наличие, собранное подписчиком из событий, совпадают с БД.
+// Затем проверяется закрытие под нагрузкой: все операции, принятые до close(),
+// завершаются.
+//   java ConcurrencyStress [--threads=16] [--seconds=5]
+// При нарушении печатает его и завершается с кодом 1.
+public class ConcurrencyStress {
+    private static final int BOOKS = 64;
+    private static final int READERS = 3;
+    private static final int ROUND_MILLIS = 50;
+
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger nextIsbn = new AtomicInteger(BOOKS);
+    private final AtomicLong lent = new AtomicLong();
+    private final AtomicLong returned = new AtomicLong();
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    // Наличие книг, собранное только из событий — как у таблиц окна
+    private final Map<Isbn, Boolean> fromEvents = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        int threads = 16;
+        double seconds = 5;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--seconds=")) seconds = Double.parseDouble(arg.substring(10));
+        }
+        ConcurrencyStress check = new ConcurrencyStress();
+        Path dir = Files.createTempDirectory("library-stress");
+        try {
+            check.run(dir, threads, seconds);
+            check.closeUnderLoad(dir, threads);
+        } finally {
+            deleteRecursively(dir);
+        }
+        if (!check.failures.isEmpty()) {
+            System.out.println("Нарушений: " + check.failures.size());
+            check.failures.stream().limit(20).forEach(System.out::println);
+            System.exit(1);
+        }
+        System.out.println("Нарушений нет: выдач " + check.lent + ", возвратов " + check.returned +
+                ", добавлено книг " + check.added + ", удалено " + check.deleted + ", отказов " + check.rejected);
+    }
+
+    private void run(Path dir, int threads, double seconds) throws Exception {
+        String url = "jdbc:sqlite:" + dir.resolve("stress.db");
+        Library library = open(url);
+        library.addListener(this::apply);
+        try {
+            for (int i = 0; i < BOOKS; i++) {
+                library.addBook(new Book(LibraryBenchmark.isbn(i), "Книга " + i, "Автор " + i % 5, 2000));
+            }
+            for (int i = 0; i < READERS; i++) {
+                library.registerReader(new Reader("R" + i, "Читатель " + i));
+            }
+            // Медленный подписчик растягивает время между фиксацией и обработкой
+            // следующих изменений — так нарушение порядка проявляется чаще
+            library.addListener(event -> {
+                if (ThreadLocalRandom.current().nextInt(8) == 0) LockSupport.parkNanos(200_000);
+            });
+            stress("без группового коммита", url, library, threads, seconds / 2);
+            library.setGroupCommit(16, 1, TimeUnit.MILLISECONDS);
+            stress("с групповым коммитом", url, library, threads, seconds / 2);
+        } finally {
+            library.close();
+        }
+    }
+
+    // Без журнала медленных операций: под нагрузкой медленна почти каждая
+    private static Library open(String url) {
+        DefaultLibraryMetrics metrics = new DefaultLibraryMetrics();
+        metrics.setSlowThresholdMillis(Long.MAX_VALUE / 1_000_000);
+        return new Library(url, 4, 1_000, metrics);
+    }
+
+    // Проход из коротких раундов: после каждого, когда все операции завершены,
+    // кэш и состояние из событий сверяются с БД (расхождение в середине прохода исправила бы следующая
+    // операция с той же книгой); в конце прохода — полная проверка
+    private void stress(String phase, String url, Library library, int threads, double seconds) throws Exception {
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        while (System.nanoTime() < end && failures.size() < 20) {
+            long deadline = Math.min(end, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ROUND_MILLIS));
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    while (System.nanoTime() < deadline && failures.size() < 20) {
+                        step(library);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) worker.join();
+            try (Connection conn = DriverManager.getConnection(url);
+                 Statement stmt = conn.createStatement()) {
+                checkViews(phase, stmt, library);
+            }
+        }
+        check(phase, url, library);
+    }
+
+    // Одна случайная операция; отказ (книга выдана, не найдена...) — ожидаемый исход
+    private void step(Library library) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Isbn isbn = randomIsbn(random);
+        String reader = "R" + random.nextInt(READERS);
+        try {
+            int op = random.nextInt(110);
+            if (op >= 100) {
+                // чтение кладёт книгу в кэш: дальше её обновляют выдачи и возвраты
+                library.findByIsbn(isbn);
+            } else if (op < 30) {
+                library.lendBook(isbn, reader);
+                lent.incrementAndGet();
+            } else if (op < 60) {
+                library.returnBook(isbn, reader);
+                returned.incrementAndGet();
+            } else if (op < 70) {
+                await(library.lendBookAsync(isbn, reader), lent);
+            } else if (op < 80) {
+                await(library.returnBookAsync(isbn, reader), returned);
+            } else if (op < 86) {
+                List<Isbn> stack = List.of(isbn, randomIsbn(random), randomIsbn(random));
+                lent.addAndGet(succeeded(library.lendBooks(reader, stack)));
+            } else if (op < 92) {
+                List<Isbn> stack = List.of(isbn, randomIsbn(random), randomIsbn(random));
+                returned.addAndGet(succeeded(library.returnBooks(reader, stack)));
+            } else if (op < 97) {
+                int index = nextIsbn.getAndIncrement();
+                library.addBook(new Book(LibraryBenchmark.isbn(index), "Новая " + index, "Автор " + index % 5, 2020));
+                added.incrementAndGet();
+            } else {
+                library.deleteBook(isbn);
+                deleted.incrementAndGet();
+            }
+        } catch (LibraryException e) {
+            rejected.incrementAndGet();
+        } catch (RuntimeException e) {
+            failures.add("неожиданная ошибка: " + e);
+        }
+    }
+
+    // Чаще — из начального набора, иначе — из всех когда-либо добавленных (часть уже удалена)
+    private Isbn randomIsbn(ThreadLocalRandom random) {
+        return LibraryBenchmark.isbn(random.nextInt(random.nextInt(4) == 0 ? nextIsbn.get() : BOOKS));
+    }
+
+    private void await(CompletableFuture<Void> future, AtomicLong counter) {
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            counter.incrementAndGet();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LibraryException) {
+                rejected.incrementAndGet();
+            } else {
+                failures.add("неожиданная ошибка: " + e.getCause());
+            }
+        } catch (TimeoutException e) {
+            failures.add("асинхронная операция не завершилась за 30 с");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long succeeded(List<LoanResult> results) {
+        return results.stream().filter(LoanResult::isSuccess).count();
+    }
+
+    // Состояние БД против счётчиков успешных операций. Удалённая книга может
+    // оставить выдачу (удаление выданной книги не запрещено), поэтому удалённые
+    // ISBN больше не добавляются и в проверке флага не участвуют.
+    private void check(String phase, String url, Library library) throws SQLException {
+        long books = BOOKS + added.get() - deleted.get();
+        long loans = lent.get() - returned.get();
+        long history = library.countLoanHistory(HistoryFilter.all());
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement()) {
+            expect(phase, "книг", books, count(stmt, "SELECT COUNT(*) FROM books"));
+            expect(phase, "выдач", loans, count(stmt, "SELECT COUNT(*) FROM loans"));
+            expect(phase, "записей архива", returned.get(), history);
+            expect(phase, "книг, у которых available не совпадает с выдачей", 0, count(stmt,
+                    "SELECT COUNT(*) FROM books b WHERE b.available = EXISTS (SELECT 1 FROM loans l WHERE l.book_isbn = b.isbn)"));
+            expect(phase, "книг с несколькими выдачами", 0, count(stmt,
+                    "SELECT COUNT(*) FROM (SELECT book_isbn FROM loans GROUP BY book_isbn HAVING COUNT(*) > 1)"));
+        }
+        System.out.println(phase + ": выдач " + lent + ", возвратов " + returned + ", книг " + books);
+    }
+
+    private void apply(LibraryEvent event) {
+        switch (event.getType()) {
+            case BOOK_ADDED -> fromEvents.put(event.getIsbn(), event.getBook().isAvailable());
+            case BOOK_REMOVED -> fromEvents.remove(event.getIsbn());
+            case BOOK_LENT -> fromEvents.replace(event.getIsbn(), false);
+            case BOOK_RETURNED -> fromEvents.replace(event.getIsbn(), true);
+            default -> { }
+        }
+    }
+
+    // Кэш книг (findByIsbn) и состояние, собранное из событий, должны совпадать
+    // с БД: изменения одной книги из разных потоков не должны прийти в обратном порядке
+    private void checkViews(String phase, Statement stmt, Library library) throws SQLException {
+        Map<Isbn, Boolean> stored = new HashMap<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT isbn, available FROM books")) {
+            while (rs.next()) stored.put(Isbn.of(rs.getLong(1)), rs.getBoolean(2));
+        }
+        long stale = 0;
+        for (int i = 0; i < nextIsbn.get(); i++) {
+            Isbn isbn = LibraryBenchmark.isbn(i);
+            Book book = library.findByIsbn(isbn);
+            Boolean available = stored.get(isbn);
+            if (book == null ? available != null : !Boolean.valueOf(book.isAvailable()).equals(available)) stale++;
+        }
+        expect(phase, "книг, у которых кэш расходится с БД", 0, stale);
+        long diverged = stored.entrySet().stream().filter(e -> !e.getValue().equals(fromEvents.get(e.getKey()))).count();
+        expect(phase, "книг, у которых состояние из событий расходится с БД", 0,
+                diverged + fromEvents.size() - stored.size());
+    }
+
+    private void expect(String phase, String what, long expected, long actual) {
+        if (expected != actual) failures.add(phase + ": " + what + " " + actual + ", ожидалось " + expected);
+    }
+
+    private static long count(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Закрытие, пока потоки ставят операции без ожидания: каждая принятая операция
+    // должна завершиться — успехом или ошибкой «Очередь записи закрыта»
+    private void closeUnderLoad(Path dir, int threads) throws Exception {
+        Library library = open("jdbc:sqlite:" + dir.resolve("close.db"));
+        for (int i = 0; i < BOOKS; i++) {
+            library.addBook(new Book(LibraryBenchmark.isbn(i), "Книга " + i, "Автор", 2000));
+        }
+        library.registerReader(new Reader("R0", "Читатель"));
+        List<CompletableFuture<Void>> futures = Collections.synchronizedList(new ArrayList<>());
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 2000; i++) {
+                    Isbn isbn = LibraryBenchmark.isbn(random.nextInt(BOOKS));
+                    futures.add(random.nextBoolean() ? library.lendBookAsync(isbn, "R0") : library.returnBookAsync(isbn, "R0"));
+                }
+            });
+            workers[t].start();
+        }
+        Thread.sleep(20);
+        library.close();
+        for (Thread worker : workers) worker.join();
+        long pending = 0;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.get(15, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                // отказ или закрытая очередь
+            } catch (TimeoutException e) {
+                pending++;
+            }
+        }
+        expect("закрытие под нагрузкой", "незавершённых операций", 0, pending);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Collections.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
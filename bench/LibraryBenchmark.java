@@ -0,0 +1,700 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+// Бенчмарк операций Library на синтетическом каталоге во временном файле SQLite.
+// Для каждого размера каталога и числа потоков измеряет пропускную способность
+// и задержки (p50/p99/max), проверяет отсутствие двойной выдачи под нагрузкой
+// и пишет результаты в JSON для сравнения прогонов.
+//   java LibraryBenchmark [--sizes=10000,100000,1000000] [--threads=1,8] [--seconds=3] [--out=bench-results.json]
+//                         [--metrics=none] (без сбора метрик — для оценки их накладных расходов)
+//                         [--group-commit=off,64:0,64:2,256:5] [--writers=64]
+// Для записи дополнительно считаются фиксации в секунду; прогон --group-commit
+// сравнивает режимы группового коммита (размер группы:задержка в мс) на выдаче
+// и возврате из --writers потоков, memoryEngine — то же на MemoryStorageEngine
+// (состояние в памяти, журнал операций) с таким же каталогом.
+public class LibraryBenchmark {
+    private static final String[] WORDS = {
+            "война", "мир", "тайна", "сад", "море", "город", "ночь", "дорога", "история", "звезда",
+            "остров", "время", "дом", "река", "сердце", "тень", "север", "письмо", "огонь", "лес"
+    };
+    private static final String[] SURNAMES = {
+            "Иванов", "Петров", "Смирнов", "Кузнецов", "Попов", "Соколов", "Лебедев", "Козлов",
+            "Новиков", "Морозов", "Волков", "Алексеев", "Орлов", "Зайцев", "Павлов", "Семёнов"
+    };
+
+    // Операция бенчмарка; выполняется многократно из одного или нескольких потоков
+    interface Operation {
+        void run(Context context) throws Exception;
+    }
+
+    // Данные, доступные операции: библиотека (или другое хранилище), размеры каталога
+    // и номер потока
+    static class Context {
+        final Library library;
+        final StorageEngine engine;
+        final int books;
+        final int readers;
+        final int thread;
+        final int threads;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        Context(Library library, StorageEngine engine, int books, int readers, int thread, int threads) {
+            this.library = library;
+            this.engine = engine;
+            this.books = books;
+            this.readers = readers;
+            this.thread = thread;
+            this.threads = threads;
+        }
+
+        Isbn randomIsbn() {
+            return isbn(random.nextInt(books));
+        }
+
+        String randomReader() {
+            return "R" + random.nextInt(readers);
+        }
+
+        String randomQuery() {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            return random.nextBoolean() ? word.substring(0, 3) : word + " " + SURNAMES[random.nextInt(SURNAMES.length)];
+        }
+
+        // Книга, которую выдаёт и возвращает только этот поток (не из заранее выданных)
+        Isbn ownIsbn() {
+            int index;
+            do {
+                index = random.nextInt(books / threads) * threads + thread;
+            } while (index % 10 == 0 || index >= books);
+            return isbn(index);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int[] sizes = parseInts(options.getOrDefault("sizes", "10000,100000"));
+        int defaultThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int[] threadCounts = parseInts(options.getOrDefault("threads", "1," + defaultThreads));
+        double seconds = Double.parseDouble(options.getOrDefault("seconds", "3"));
+        Path out = Paths.get(options.getOrDefault("out", "bench-results.json"));
+        boolean collectMetrics = !"none".equals(options.get("metrics"));
+        String[] groupCommits = options.getOrDefault("group-commit", "off,64:0,64:2,256:5").split(",");
+        int writers = Integer.parseInt(options.getOrDefault("writers", "64"));
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        List<Map<String, Object>> checks = new ArrayList<>();
+        for (int size : sizes) {
+            Path dir = Files.createTempDirectory("library-bench");
+            try {
+                String url = "jdbc:sqlite:" + dir.resolve("bench.db");
+                int readers = Math.max(10, size / 10);
+                results.add(seed(url, size, readers));
+
+                Map<String, Operation> operations = operations(size);
+                DefaultLibraryMetrics metrics = new DefaultLibraryMetrics();
+                metrics.setSlowThresholdMillis(Long.MAX_VALUE / 1_000_000);
+                Library library = new Library(url, Math.max(2, defaultThreads), 10_000,
+                        collectMetrics ? metrics : LibraryMetrics.NONE);
+                try {
+                    for (Map.Entry<String, Operation> op : operations.entrySet()) {
+                        for (int threads : threadCounts) {
+                            metrics.reset();
+                            Map<String, Object> result = measure(op.getKey(), op.getValue(), library, size, readers, threads, seconds);
+                            if (collectMetrics) result.put("statementsPerCall", statementsPerCall(metrics, (int) result.get("ops")));
+                            results.add(result);
+                            System.out.println(format(result));
+                        }
+                    }
+                    for (String groupCommit : groupCommits) {
+                        Map<String, Object> result = measureGroupCommit(groupCommit.trim(), library, size, readers, writers, seconds);
+                        results.add(result);
+                        System.out.println(format(result));
+                    }
+                    Map<String, Object> memoryResult = measureMemoryEngine(dir.resolve("memory-engine"), size, readers, writers, seconds);
+                    results.add(memoryResult);
+                    System.out.println(format(memoryResult));
+                    checks.add(doubleLendCheck(library, size, defaultThreads * 8));
+                    System.out.println(checks.get(checks.size() - 1));
+                    checks.add(retainedHeapCheck(library, size));
+                    System.out.println(checks.get(checks.size() - 1));
+                    checks.add(mappedCatalogCheck(library, size, dir.resolve("catalog.snapshot")));
+                    System.out.println(checks.get(checks.size() - 1));
+                    checks.add(circulationStatsCheck(url, library, size, readers));
+                    System.out.println(checks.get(checks.size() - 1));
+                } finally {
+                    library.close();
+                }
+            } finally {
+                deleteRecursively(dir);
+            }
+        }
+        writeJson(out, results, checks);
+        System.out.println("Результаты записаны в " + out.toAbsolutePath());
+    }
+
+    // Выдача и возврат своей книги случайному читателю (Library или другое хранилище)
+    static final Operation LEND_AND_RETURN = c -> {
+        Isbn isbn = c.ownIsbn();
+        String reader = c.randomReader();
+        c.engine.lendBook(isbn, reader);
+        c.engine.returnBook(isbn, reader);
+    };
+
+    // Набор операций; полные выборки всех читателей и книг — только для небольших каталогов
+    private static Map<String, Operation> operations(int size) {
+        Map<String, Operation> ops = operations();
+        if (size > 100_000) {
+            ops.remove("getReaders");
+            ops.remove("getBooks");
+        }
+        return ops;
+    }
+
+    // Все операции Library по имени (их же измеряют бенчмарки JMH через BenchmarkCatalog)
+    static Map<String, Operation> operations() {
+        Map<String, Operation> ops = new LinkedHashMap<>();
+        ops.put("findByIsbn", c -> c.library.findByIsbn(c.randomIsbn()));
+        ops.put("searchBooks", c -> c.library.searchBooks(c.randomQuery(), 0, 50));
+        ops.put("countBooks", c -> c.library.countBooks(c.randomQuery()));
+        ops.put("getBooksAfter", c -> c.library.getBooksAfter(c.randomIsbn(), 200));
+        ops.put("getReaderLoanRowsAfter", c -> c.library.getReaderLoanRowsAfter(null, 200));
+        ops.put("findOverdue", c -> c.library.findOverdue(LocalDate.now(), 200));
+        ops.put("streamBooks(available)", c -> c.library.streamBooks(BookFilter.all().available(true)).count());
+        ops.put("lendBook+returnBook", LEND_AND_RETURN);
+        ops.put("lendBooks(20)+returnBooks(20)", c -> {
+            List<Isbn> stack = new ArrayList<>();
+            while (stack.size() < 20) {
+                Isbn isbn = c.ownIsbn();
+                if (!stack.contains(isbn)) stack.add(isbn);
+            }
+            String reader = c.randomReader();
+            c.library.lendBooks(reader, stack);
+            c.library.returnBooks(reader, stack);
+        });
+        ops.put("findLoanHistory(reader)", c -> c.library.findLoanHistory(HistoryFilter.all().reader(c.randomReader()), null, 50));
+        ops.put("getReaders", c -> c.library.getReaders());
+        ops.put("getBooks", c -> c.library.getBooks());
+        return ops;
+    }
+
+    // Заполнить БД: книги и читатели — массовой загрузкой, каждая десятая книга выдана
+    static Map<String, Object> seed(String url, int books, int readers) throws Exception {
+        Path csv = Files.createTempFile("library-bench-books", ".csv");
+        Random random = new Random(42);
+        try (BufferedWriter w = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            w.write("isbn,title,author,year\n");
+            for (int i = 0; i < books; i++) {
+                String title = capitalize(WORDS[random.nextInt(WORDS.length)]) + " и " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+                String author = SURNAMES[random.nextInt(SURNAMES.length)] + " " + (char) ('А' + random.nextInt(28)) + ".";
+                w.write(isbn(i) + "," + title + "," + author + "," + (1800 + random.nextInt(225)) + "\n");
+            }
+        }
+
+        Library library = new Library(url);
+        BulkReport booksReport;
+        try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            booksReport = library.bulkImporter(BulkImporter.DEFAULT_COMMIT_SIZE).importRecords(BulkTable.BOOKS, in, RecordFormat.CSV);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < readers; i++) {
+                sb.append("{\"id\":\"R").append(i).append("\",\"name\":\"Читатель ").append(i).append("\"}\n");
+            }
+            library.bulkImporter(BulkImporter.DEFAULT_COMMIT_SIZE).importRecords(BulkTable.READERS,
+                    new BufferedReader(new java.io.StringReader(sb.toString())), RecordFormat.JSON_LINES);
+        } finally {
+            library.close();
+            Files.deleteIfExists(csv);
+        }
+
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.execute("INSERT INTO loans (book_isbn, reader_id, issue_date, due_date) " +
+                    "SELECT isbn, 'R' || (isbn / 10 % " + readers + "), " +
+                    "date('now', '-' || (isbn / 10 % 40) || ' days'), date('now', '-' || (isbn / 10 % 40) || ' days', '+14 days') " +
+                    "FROM books WHERE isbn / 10 % 10 = 0");
+            stmt.execute("UPDATE books SET available = FALSE WHERE isbn IN (SELECT book_isbn FROM loans)");
+            conn.commit();
+        }
+
+        System.out.println("Каталог " + books + ": " + booksReport);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("operation", "bulkImport");
+        result.put("catalogSize", books);
+        result.put("threads", 1);
+        result.put("ops", booksReport.getRows());
+        result.put("opsPerSec", Math.round(booksReport.getRowsPerSecond()));
+        return result;
+    }
+
+    private static Map<String, Object> measure(String name, Operation operation, Library library,
+                                               int books, int readers, int threads, double seconds) throws Exception {
+        return measure(name, operation, library, library, library::getCommitCount, library::getWriteCount,
+                books, readers, threads, seconds);
+    }
+
+    private static Map<String, Object> measure(String name, Operation operation, Library library, StorageEngine engine,
+                                               LongSupplier commitCount, LongSupplier writeCount,
+                                               int books, int readers, int threads, double seconds) throws Exception {
+        long warmupUntil = System.nanoTime() + (long) (seconds * 0.3e9);
+        long[][] latencies = new long[threads][];
+        int[] counts = new int[threads];
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] measureBounds = new long[2];
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                Context context = new Context(library, engine, books, readers, thread, threads);
+                long[] samples = new long[1024];
+                int count = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < warmupUntil) {
+                        runQuietly(operation, context, errors);
+                    }
+                    long deadline = measureBounds[1];
+                    while (System.nanoTime() < deadline) {
+                        long t0 = System.nanoTime();
+                        runQuietly(operation, context, errors);
+                        if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                        samples[count++] = System.nanoTime() - t0;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latencies[thread] = samples;
+                counts[thread] = count;
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        measureBounds[0] = warmupUntil;
+        measureBounds[1] = warmupUntil + (long) (seconds * 1e9);
+        start.countDown();
+        // Счётчики записи снимаются на границах измерения, без прогрева
+        long sleep = warmupUntil - System.nanoTime();
+        if (sleep > 0) Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+        long commitsBefore = commitCount.getAsLong();
+        long writesBefore = writeCount.getAsLong();
+        for (Thread worker : workers) worker.join();
+        long commits = commitCount.getAsLong() - commitsBefore;
+        long writes = writeCount.getAsLong() - writesBefore;
+
+        int total = 0;
+        for (int count : counts) total += count;
+        long[] all = new long[total];
+        int pos = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, all, pos, counts[t]);
+            pos += counts[t];
+        }
+        Arrays.sort(all);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("operation", name);
+        result.put("catalogSize", books);
+        result.put("threads", threads);
+        result.put("ops", total);
+        result.put("errors", errors.get());
+        result.put("opsPerSec", Math.round(total / seconds));
+        result.put("p50Micros", percentile(all, 0.50));
+        result.put("p99Micros", percentile(all, 0.99));
+        result.put("maxMicros", total == 0 ? 0 : all[total - 1] / 1000);
+        if (writes > 0) {
+            result.put("writesPerSec", Math.round(writes / seconds));
+            result.put("commitsPerSec", Math.round(commits / seconds));
+        }
+        return result;
+    }
+
+    // Выдача и возврат в режиме группового коммита "размер:задержка_мс" ("off" — без него)
+    private static Map<String, Object> measureGroupCommit(String mode, Library library, int books, int readers,
+                                                          int threads, double seconds) throws Exception {
+        int maxBatch = 1;
+        long maxDelayMillis = 0;
+        if (!mode.equals("off")) {
+            String[] parts = mode.split(":");
+            maxBatch = Integer.parseInt(parts[0]);
+            maxDelayMillis = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
+        }
+        library.setGroupCommit(maxBatch, maxDelayMillis, TimeUnit.MILLISECONDS);
+        try {
+            Map<String, Object> result = measure("groupCommit " + mode, LEND_AND_RETURN, library, books, readers, threads, seconds);
+            result.put("maxBatch", maxBatch);
+            result.put("maxDelayMillis", maxDelayMillis);
+            return result;
+        } finally {
+            library.setGroupCommit(1, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Выдача и возврат на MemoryStorageEngine из threads потоков: каталог и читатели те же,
+    // что в SQLite, фиксация — групповой fsync журнала операций
+    private static Map<String, Object> measureMemoryEngine(Path dir, int books, int readers,
+                                                           int threads, double seconds) throws Exception {
+        MemoryStorageEngine engine = new MemoryStorageEngine(dir);
+        try {
+            seedEngine(engine, books, readers, threads);
+            return measure("memoryEngine lendBook+returnBook", LEND_AND_RETURN,
+                    null, engine, engine::getCommitCount, engine::getWriteCount, books, readers, threads, seconds);
+        } finally {
+            engine.close();
+        }
+    }
+
+    // Заполнить хранилище из нескольких потоков, чтобы записи журнала шли группами
+    static void seedEngine(StorageEngine engine, int books, int readers, int threads) throws Exception {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int i = first; i < books; i += threads) {
+                        engine.addBook(new Book(isbn(i), "Книга " + i, SURNAMES[i % SURNAMES.length], 1800 + i % 225));
+                    }
+                    for (int i = first; i < readers; i += threads) {
+                        engine.registerReader(new Reader("R" + i, "Читатель " + i));
+                    }
+                } catch (LibraryException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "bench-seed-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+    }
+
+    // Запросов SQL на один вызов операции бенчмарка (с учётом прогрева)
+    private static double statementsPerCall(DefaultLibraryMetrics metrics, int measuredOps) {
+        long statements = 0;
+        long calls = Long.MAX_VALUE;
+        for (OperationStats stats : metrics.getAllStats().values()) {
+            if (stats.getCalls() == 0) continue;
+            statements += stats.getStatements();
+            calls = Math.min(calls, stats.getCalls());
+        }
+        if (measuredOps == 0 || calls == Long.MAX_VALUE || calls == 0) return 0;
+        return Math.round(10.0 * statements / calls) / 10.0;
+    }
+
+    private static void runQuietly(Operation operation, Context context, AtomicInteger errors) {
+        try {
+            operation.run(context);
+        } catch (Exception e) {
+            errors.incrementAndGet();
+        }
+    }
+
+    // Сотни одновременных выдач одного экземпляра: успешной должна быть ровно одна
+    private static Map<String, Object> doubleLendCheck(Library library, int books, int callers) throws Exception {
+        Isbn isbn = isbn(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[callers];
+        for (int i = 0; i < callers; i++) {
+            String reader = "R" + i % 10;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    library.lendBook(isbn, reader);
+                    succeeded.incrementAndGet();
+                } catch (LibraryException e) {
+                    // книга уже выдана другим потоком
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+
+        long loans = library.getReaderLoanRowsAfter(null, Integer.MAX_VALUE).stream()
+                .filter(row -> row.getLoan() != null && row.getLoan().getBook().getIsbn().equals(isbn))
+                .count();
+        Map<String, Object> check = new LinkedHashMap<>();
+        check.put("check", "concurrentLendSameIsbn");
+        check.put("catalogSize", books);
+        check.put("callers", callers);
+        check.put("succeeded", succeeded.get());
+        check.put("loanRows", loans);
+        check.put("passed", succeeded.get() == 1 && loans == 1);
+        return check;
+    }
+
+    // Наибольший объём занятой кучи (после сборки мусора) во время полного обхода
+    // каталога потоком и, для сравнения, при загрузке его целиком через getBooks
+    // и в компактный снимок
+    private static Map<String, Object> retainedHeapCheck(Library library, int books) {
+        long baseline = usedHeapAfterGc();
+        long[] peak = {0};
+        int[] seen = {0};
+        int sampleEvery = Math.max(1, books / 10);
+        try (var stream = library.streamBooks()) {
+            stream.forEach(book -> {
+                if (++seen[0] % sampleEvery == 0) peak[0] = Math.max(peak[0], usedHeapAfterGc() - baseline);
+            });
+        }
+        Map<String, Object> check = new LinkedHashMap<>();
+        check.put("check", "retainedHeapDuringCatalogWalk");
+        check.put("catalogSize", books);
+        check.put("streamBooksBytes", Math.max(0, peak[0]));
+        CompactCatalog compact = library.compactCatalog();
+        long compactBytes = Math.max(1, usedHeapAfterGc() - baseline);
+        check.put("compactCatalogBytes", compactBytes);
+        check.put("compactCatalogSize", compact.size());
+        compact = null;
+        if (books <= 1_000_000) {
+            Map<Isbn, Book> all = library.getBooks();
+            long mapBytes = Math.max(0, usedHeapAfterGc() - baseline);
+            check.put("getBooksBytes", mapBytes);
+            check.put("getBooksSize", all.size());
+            check.put("compactRatio", Math.round(10.0 * mapBytes / compactBytes) / 10.0);
+        }
+        return check;
+    }
+
+    // Снимок каталога в файле: время публикации и отображения, размер файла, занятая
+    // куча после открытия и скорость поиска по ISBN в отображении
+    private static Map<String, Object> mappedCatalogCheck(Library library, int books, Path file) throws IOException {
+        Map<String, Object> check = new LinkedHashMap<>();
+        check.put("check", "mappedCatalog");
+        check.put("catalogSize", books);
+        long t0 = System.nanoTime();
+        check.put("published", library.publishCatalog(file));
+        check.put("publishMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+        check.put("fileBytes", Files.size(file));
+
+        long baseline = usedHeapAfterGc();
+        t0 = System.nanoTime();
+        MappedCatalog catalog = MappedCatalog.open(file);
+        check.put("openMicros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+        check.put("heapBytes", Math.max(0, usedHeapAfterGc() - baseline));
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int lookups = 1_000_000;
+        int found = 0;
+        t0 = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            if (catalog.indexOf(isbn(random.nextInt(books))) >= 0) found++;
+        }
+        long elapsed = System.nanoTime() - t0;
+        check.put("lookupsPerSec", Math.round(lookups * 1e9 / elapsed));
+        check.put("passed", found == lookups && catalog.size() == books);
+        return check;
+    }
+
+    // Отчёты по выдачам: архив за два года (по пять записей на книгу, популярность
+    // книг неравномерна), время загрузки проекции, отчётов за всё время и за месяц,
+    // дочитывания после сотни выдач и возвратов; число выдач и выдачи самой
+    // популярной книги сверяются с БД
+    private static Map<String, Object> circulationStatsCheck(String url, Library library, int books, int readers) throws Exception {
+        LocalDate today = LocalDate.now();
+        for (int month = 0; month < 24; month++) {
+            library.getLoanHistory().ensurePartition(today.minusMonths(month));
+        }
+        int records = books * 5;
+        Random random = new Random(42);
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            long firstId = 1;
+            try (ResultSet rs = stmt.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'loans'")) {
+                if (rs.next()) firstId = rs.getLong(1) + 1;
+            }
+            Map<YearMonth, PreparedStatement> inserts = new LinkedHashMap<>();
+            for (int i = 0; i < records; i++) {
+                LocalDate issued = today.minusDays(16 + random.nextInt(700));
+                LocalDate returned = issued.plusDays(1 + random.nextInt(random.nextInt(5) == 0 ? 40 : 14));
+                if (returned.isAfter(today)) returned = today;
+                YearMonth month = YearMonth.from(returned);
+                PreparedStatement pstmt = inserts.get(month);
+                if (pstmt == null) {
+                    pstmt = conn.prepareStatement("INSERT INTO " + LoanHistory.tableName(month) +
+                            " (return_date, loan_id, book_isbn, reader_id, issue_date, due_date) VALUES (?, ?, ?, ?, ?, ?)");
+                    inserts.put(month, pstmt);
+                }
+                // Куб равномерного числа: малая часть каталога собирает большую часть выдач
+                double r = random.nextDouble();
+                pstmt.setString(1, returned.toString());
+                pstmt.setLong(2, firstId + i);
+                pstmt.setLong(3, isbn((int) (books * r * r * r)).value());
+                pstmt.setString(4, "R" + random.nextInt(readers));
+                pstmt.setString(5, issued.toString());
+                pstmt.setString(6, issued.plusDays(14).toString());
+                pstmt.addBatch();
+                if (i % 10_000 == 9_999) pstmt.executeBatch();
+            }
+            for (PreparedStatement pstmt : inserts.values()) {
+                pstmt.executeBatch();
+                pstmt.close();
+            }
+            stmt.execute("UPDATE sqlite_sequence SET seq = " + (firstId + records - 1) + " WHERE name = 'loans'");
+            conn.commit();
+        }
+
+        Map<String, Object> check = new LinkedHashMap<>();
+        check.put("check", "circulationStats");
+        check.put("catalogSize", books);
+        check.put("historyRecords", records);
+        try (CirculationStats stats = new CirculationStats(library)) {
+            long t0 = System.nanoTime();
+            int loaded = stats.size();
+            check.put("loadMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+            t0 = System.nanoTime();
+            List<BookRank> topBooks = stats.topBooks(null, null, 10);
+            check.put("topBooksAllTimeMicros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+            t0 = System.nanoTime();
+            stats.topBooks(today.minusMonths(1), today, 10);
+            check.put("topBooksMonthMicros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+            t0 = System.nanoTime();
+            stats.topAuthors(today.minusYears(1), today, 10);
+            check.put("topAuthorsYearMicros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+            t0 = System.nanoTime();
+            stats.overdueByAuthor(null, null, 100, 10);
+            check.put("overdueByAuthorMicros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+
+            for (int i = 0; i < 100; i++) {
+                Isbn isbn = isbn(books - 1 - i * 10 - 1);
+                library.lendBook(isbn, "R" + i);
+                library.returnBook(isbn, "R" + i);
+            }
+            t0 = System.nanoTime();
+            int refreshed = stats.size();
+            check.put("deltaRefreshMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+
+            long expected = library.countLoanHistory(HistoryFilter.all());
+            try (Connection conn = DriverManager.getConnection(url);
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM loans")) {
+                rs.next();
+                expected += rs.getLong(1);
+            }
+            Isbn top = topBooks.get(0).getIsbn();
+            long topLoans = library.countLoanHistory(HistoryFilter.all().book(top)) +
+                    (library.findByIsbn(top).isAvailable() ? 0 : 1);
+            check.put("loans", refreshed);
+            check.put("passed", refreshed == expected && refreshed == loaded + 100 && topBooks.get(0).getLoans() == topLoans);
+        }
+        return check;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 2; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000;
+    }
+
+    // Корректный ISBN-13 с префиксом 978 и контрольной цифрой
+    static Isbn isbn(int index) {
+        long body = 978_000_000_000L + index;
+        int sum = 0;
+        long rest = body;
+        for (int i = 11; i >= 0; i--) {
+            sum += (int) (rest % 10) * (i % 2 == 0 ? 1 : 3);
+            rest /= 10;
+        }
+        return Isbn.of(body * 10 + (10 - sum % 10) % 10);
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static String format(Map<String, Object> r) {
+        String line = String.format("%-24s каталог %-8s потоков %-3s %10s оп/с  p50 %6s мкс  p99 %7s мкс  ошибок %s",
+                r.get("operation"), r.get("catalogSize"), r.get("threads"), r.get("opsPerSec"),
+                r.get("p50Micros"), r.get("p99Micros"), r.get("errors"));
+        if (r.containsKey("commitsPerSec")) {
+            line += String.format("  записей/с %s  фиксаций/с %s", r.get("writesPerSec"), r.get("commitsPerSec"));
+        }
+        return line;
+    }
+
+    private static void writeJson(Path out, List<Map<String, Object>> results, List<Map<String, Object>> checks) throws IOException {
+        try (Writer w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\n  \"timestamp\": ");
+            RecordFormat.appendJsonString(sb, Instant.now().toString());
+            sb.append(",\n  \"java\": ");
+            RecordFormat.appendJsonString(sb, System.getProperty("java.version"));
+            sb.append(",\n  \"cpus\": ").append(Runtime.getRuntime().availableProcessors());
+            sb.append(",\n  \"results\": [\n");
+            appendObjects(sb, results);
+            sb.append("  ],\n  \"checks\": [\n");
+            appendObjects(sb, checks);
+            sb.append("  ]\n}\n");
+            w.write(sb.toString());
+        }
+    }
+
+    private static void appendObjects(StringBuilder sb, List<Map<String, Object>> objects) {
+        for (int i = 0; i < objects.size(); i++) {
+            Map<String, Object> object = objects.get(i);
+            String[] keys = object.keySet().toArray(new String[0]);
+            sb.append("    ").append(RecordFormat.JSON_LINES.format(keys, object.values().toArray()));
+            sb.append(i + 1 < objects.size() ? ",\n" : "\n");
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Неизвестный аргумент: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    // временные файлы удалит система
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+// Проверка планов запросов: выполняет все операции Library на временной БД,
+// затем для каждого выполненного SQL запускает EXPLAIN QUERY PLAN и падает
+// (код выхода 1), если какой-нибудь запрос читает таблицу полным просмотром.
+// Полный просмотр разрешён только ведущей таблице запроса без WHERE — такие
+// запросы по смыслу обходят всю таблицу (выгрузка, подсчёт, полный список).
+//   java QueryPlanCheck
+public class QueryPlanCheck {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("library-plan-check");
+        Path db = dir.resolve("check.db");
+        String url = "jdbc:sqlite:" + db;
+
+        Library library = new Library(url, 2, 0, new DefaultLibraryMetrics(), true);
+        List<String> failures = new ArrayList<>();
+        int checked = 0;
+        try {
+            exercise(library);
+            try (Connection conn = DriverManager.getConnection(url)) {
+                for (String sql : new TreeSet<>(library.issuedSql())) {
+                    List<String> plan = explain(conn, sql);
+                    checked++;
+                    String problem = findFullScan(sql, plan);
+                    if (problem != null) {
+                        failures.add(sql + "\n    " + problem + "\n    план: " + plan);
+                    }
+                }
+            }
+        } finally {
+            library.close();
+            for (String suffix : new String[]{"", "-wal", "-shm"}) {
+                Files.deleteIfExists(dir.resolve("check.db" + suffix));
+            }
+            Files.deleteIfExists(dir);
+        }
+
+        System.out.println("Проверено запросов: " + checked);
+        for (String failure : failures) {
+            System.out.println("ПОЛНЫЙ ПРОСМОТР: " + failure);
+        }
+        if (!failures.isEmpty()) System.exit(1);
+    }
+
+    // Вызвать все операции Library хотя бы по разу, включая ветки с ошибками
+    private static void exercise(Library library) throws LibraryException, IOException {
+        Isbn first = Isbn.parse("978-0-00-000001-9");
+        Isbn third = Isbn.parse("978-0-00-000003-3");
+        Isbn missing = Isbn.parse("978-0-00-000004-0");
+        library.addBook(new Book(first, "Первая книга", "Автор Один", 2001));
+        library.addBook(new Book(Isbn.parse("978-0-00-000002-6"), "Вторая книга", "Автор Два", 2002));
+        library.registerReader(new Reader("r1", "Читатель Один"));
+        library.registerReader(new Reader("r2", "Читатель Два"));
+
+        library.lendBook(first, "r1");
+        expectFailure(() -> library.lendBook(first, "r2"));
+        expectFailure(() -> library.lendBook(missing, "r1"));
+        expectFailure(() -> library.returnBook(first, "r2"));
+        Isbn second = Isbn.parse("978-0-00-000002-6");
+        library.lendBooks("r2", List.of(second, first, missing, second));
+        library.returnBooks("r2", List.of(second, first, missing));
+        expectFailure(() -> library.lendBooks("нет-такого", List.of(second)));
+
+        library.findByIsbn(first);
+        library.getBooks();
+        library.getReaders();
+        try (Stream<Book> books = library.streamBooks(BookFilter.all().matching("книга").available(true).publishedBetween(2000, 2010))) {
+            books.findFirst();
+        }
+        library.streamBooks(BookFilter.all().after(first)).count();
+        library.searchBooks("книга");
+        library.searchBooks("", 0, 10);
+        library.countBooks("");
+        library.countBooks("перв");
+        library.getBooksAfter(first, 10);
+        library.countReaderLoanRows();
+        List<ReaderLoanRow> rows = library.getReaderLoanRowsAfter(null, 10);
+        library.getReaderLoanRowsAfter(rows.get(0), 10);
+        library.getReaderLoanRows(1, 10);
+        List<ReaderLoanRow> overdue = library.findOverdue(LocalDate.now().plusDays(30), 10);
+        library.findOverdue(LocalDate.now().plusDays(30), overdue.get(0), 10);
+
+        library.bulkImporter(10).importRecords(BulkTable.BOOKS,
+                new BufferedReader(new StringReader("isbn,title,author,year\n978-0-00-000003-3,Третья,Автор,2003\n")),
+                RecordFormat.CSV);
+        library.bulkImporter(10).importRecords(BulkTable.READERS,
+                new BufferedReader(new StringReader("{\"id\":\"r3\",\"name\":\"Третий\"}\n")),
+                RecordFormat.JSON_LINES);
+        for (BulkTable table : BulkTable.values()) {
+            library.bulkExporter().export(table, new StringWriter(), RecordFormat.CSV);
+        }
+
+        library.returnBook(first, "r1");
+        LocalDate today = LocalDate.now();
+        List<LoanRecord> history = library.findLoanHistory(HistoryFilter.all(), null, 10);
+        library.findLoanHistory(HistoryFilter.all(), history.get(0), 10);
+        library.findLoanHistory(HistoryFilter.all().reader("r1").returnedBetween(today.minusDays(7), today), null, 10);
+        library.findLoanHistory(HistoryFilter.all().book(first).returnedBetween(today, null), null, 10);
+        library.countLoanHistory(HistoryFilter.all().reader("r2"));
+        library.getLoanHistory().flush();
+        library.findLoanHistory(HistoryFilter.all().reader("r1"), null, 10);
+        try (CirculationStats stats = new CirculationStats(library)) {
+            stats.topBooks(null, null, 10);
+            stats.topAuthors(today.minusDays(30), today, 10);
+            library.lendBook(first, "r1");
+            stats.overdueByAuthor(null, null, 1, 10);
+        }
+        library.deleteBook(third);
+        library.deleteReader("r3");
+    }
+
+    private interface Operation {
+        void run() throws LibraryException;
+    }
+
+    private static void expectFailure(Operation operation) {
+        try {
+            operation.run();
+            throw new IllegalStateException("ожидалась ошибка операции");
+        } catch (LibraryException e) {
+            // ожидаемо
+        }
+    }
+
+    private static List<String> explain(Connection conn, String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    // Описание недопустимого просмотра или null, если план в порядке
+    static String findFullScan(String sql, List<String> plan) {
+        boolean hasWhere = sql.toUpperCase(Locale.ROOT).contains(" WHERE ");
+        boolean drivingScanAllowed = !hasWhere;
+        for (String step : plan) {
+            if (!step.startsWith("SCAN ")) continue;
+            if (step.startsWith("SCAN CONSTANT ROW") || step.contains("VIRTUAL TABLE INDEX")) continue;
+            if (drivingScanAllowed) {
+                drivingScanAllowed = false;
+                continue;
+            }
+            return step;
+        }
+        return null;
+    }
+}
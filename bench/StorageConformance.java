@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+// Проверка, что реализации StorageEngine ведут себя одинаково. Один сценарий —
+// заданные случаи (удалённые книга и читатель при живой выдаче, повторы ISBN
+// в стопке) и случайные операции на небольшом наборе книг и читателей — выполняется
+// на Library (временный файл SQLite) и на MemoryStorageEngine (временный каталог).
+// После каждой операции сравниваются результат, текст ошибки и события, время от
+// времени — всё видимое состояние. Затем проверяется восстановление
+// MemoryStorageEngine: после закрытия, после сбоя (без снимка), с оборванной
+// последней записью журнала и со снимками каждые несколько записей; испорченная
+// запись в середине журнала должна прерывать открытие, а сбой записи журнала —
+// откатывать изменения, которых не будет после перезапуска.
+//   java StorageConformance [--ops=5000] [--seed=1]
+// При расхождении печатает его и завершается с кодом 1.
+public class StorageConformance {
+    private static final int BOOKS = 24;
+    private static final int READERS = 6;
+
+    private final Random random;
+    private final List<String> failures = new ArrayList<>();
+    private final List<String> sqlEvents = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> memoryEvents = Collections.synchronizedList(new ArrayList<>());
+
+    // Одна операция сценария над хранилищем; результат — строка для сравнения
+    interface Step {
+        String run(StorageEngine engine) throws LibraryException;
+    }
+
+    private StorageConformance(long seed) {
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int ops = 5000;
+        long seed = 1;
+        for (String arg : args) {
+            if (arg.startsWith("--ops=")) ops = Integer.parseInt(arg.substring(6));
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(arg.substring(7));
+        }
+        StorageConformance check = new StorageConformance(seed);
+        Path dir = Files.createTempDirectory("library-conformance");
+        try {
+            check.run(dir, ops);
+            check.corruption(dir.resolve("corrupted"));
+            check.logFailure(dir.resolve("failed"));
+        } finally {
+            deleteRecursively(dir);
+        }
+        if (!check.failures.isEmpty()) {
+            System.out.println("Расхождений: " + check.failures.size());
+            check.failures.stream().limit(20).forEach(System.out::println);
+            System.exit(1);
+        }
+        System.out.println("Реализации совпадают: " + ops + " случайных операций, seed " + seed);
+    }
+
+    private void run(Path dir, int ops) throws Exception {
+        Library library = new Library("jdbc:sqlite:" + dir.resolve("conformance.db"));
+        Path logDir = dir.resolve("memory");
+        MemoryStorageEngine memory = open(logDir, MemoryStorageEngine.DEFAULT_SNAPSHOT_EVERY);
+        library.addListener(event -> sqlEvents.add(event.toString()));
+        try {
+            scripted(library, memory);
+            for (int i = 0; i < ops; i++) {
+                compare(library, memory, randomStep());
+                if (failures.size() > 20) return;
+                if (i % 200 == 199) compareState("после операции " + (i + 1), library, memory);
+            }
+            compareState("после сценария", library, memory);
+
+            // Закрытие пишет снимок; открытие читает его
+            memory.close();
+            memory = open(logDir, MemoryStorageEngine.DEFAULT_SNAPSHOT_EVERY);
+            compareState("после повторного открытия", library, memory);
+
+            // Сбой: прежний экземпляр просто брошен (не закрыт и не пишет снимок),
+            // состояние восстанавливается из снимка и журнала
+            for (int i = 0; i < 300; i++) {
+                compare(library, memory, randomStep());
+            }
+            memory = open(logDir, MemoryStorageEngine.DEFAULT_SNAPSHOT_EVERY);
+            compareState("после сбоя", library, memory);
+
+            // Оборванная запись в конце журнала отбрасывается
+            for (int i = 0; i < 50; i++) {
+                compare(library, memory, randomStep());
+            }
+            Files.write(lastSegment(logDir), new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 5, 6}, StandardOpenOption.APPEND);
+            memory = open(logDir, MemoryStorageEngine.DEFAULT_SNAPSHOT_EVERY);
+            compareState("после оборванной записи", library, memory);
+            memory.close();
+
+            // Частые снимки: старые сегменты журнала удаляются, состояние то же
+            memory = open(logDir, 25);
+            for (int i = 0; i < 500; i++) {
+                compare(library, memory, randomStep());
+            }
+            memory.checkpoint();
+            compareState("после снимков", library, memory);
+            int segments = countSegments(logDir);
+            if (segments > 2) failures.add("после снимков осталось сегментов журнала: " + segments);
+            memory.close();
+            memory = open(logDir, MemoryStorageEngine.DEFAULT_SNAPSHOT_EVERY);
+            compareState("после снимков и повторного открытия", library, memory);
+        } finally {
+            memory.close();
+            library.close();
+        }
+    }
+
+    // Неверная CRC у последней записи — оборванный хвост, запись отбрасывается;
+    // у записи, за которой есть другие, — повреждение, открытие должно упасть
+    private void corruption(Path dir) throws Exception {
+        MemoryStorageEngine memory = new MemoryStorageEngine(dir);
+        for (int i = 0; i < 20; i++) {
+            memory.addBook(new Book(LibraryBenchmark.isbn(i), "Книга " + i, "Автор", 2000));
+        }
+        // Экземпляр брошен без закрытия: снимка нет, все записи в журнале
+        Path segment = lastSegment(dir);
+        byte[] intact = Files.readAllBytes(segment);
+        byte[] damaged = intact.clone();
+        damaged[8 + 5] ^= 1; // данные первой записи
+        Files.write(segment, damaged);
+        try {
+            new MemoryStorageEngine(dir);
+            failures.add("журнал с испорченной записью в середине открылся");
+        } catch (IOException e) {
+            // ожидаемо
+        }
+        damaged = intact.clone();
+        damaged[damaged.length - 1] ^= 1;
+        Files.write(segment, damaged);
+        MemoryStorageEngine reopened = new MemoryStorageEngine(dir);
+        int books = reopened.getBooks().size();
+        if (books != 19) failures.add("после испорченной последней записи книг " + books + " вместо 19");
+        reopened.close();
+    }
+
+    // Сбой записи журнала под нагрузкой: следующий сегмент не открыть (на его месте
+    // каталог), и checkpoint роняет журнал; потоки работают до первой ошибки.
+    // Успешные операции должны остаться, неудачные — не оставить следа, а состояние
+    // в памяти — совпасть с прочитанным заново с диска. Попытки повторяются, пока
+    // хоть одна операция не упадёт уже применённой (на ожидании записи, а не на ней самой).
+    private void logFailure(Path root) throws Exception {
+        for (int round = 0; round < 20; round++) {
+            if (logFailureRound(root.resolve("round" + round))) return;
+        }
+    }
+
+    private boolean logFailureRound(Path dir) throws Exception {
+        MemoryStorageEngine memory = new MemoryStorageEngine(dir);
+        List<LibraryEvent> events = Collections.synchronizedList(new ArrayList<>());
+        memory.addListener(events::add);
+        String segment = lastSegment(dir).getFileName().toString();
+        Path blocker = dir.resolve(String.format("oplog-%08d.log", Long.parseLong(segment.substring(6, segment.length() - 4)) + 1));
+        Files.createDirectory(blocker);
+        List<Isbn> added = Collections.synchronizedList(new ArrayList<>());
+        List<Isbn> failed = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean rolledBack = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            String readerId = "F" + t;
+            int base = 1000 + t * 100_000;
+            Thread thread = new Thread(() -> {
+                Isbn isbn = null;
+                try {
+                    memory.registerReader(new Reader(readerId, "Читатель " + readerId));
+                    for (int i = 0; ; i++) {
+                        isbn = LibraryBenchmark.isbn(base + i);
+                        memory.addBook(new Book(isbn, "Книга", "Автор", 2000));
+                        added.add(isbn);
+                        isbn = null;
+                        memory.lendBook(added.get(added.size() - 1), readerId);
+                        if (i % 2 == 0) memory.returnBook(added.get(added.size() - 1), readerId);
+                    }
+                } catch (LibraryException e) {
+                    if (isbn != null) failed.add(isbn);
+                    if (e.getMessage().contains("Ошибка записи журнала")) rolledBack.set(true);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(50);
+        try {
+            memory.checkpoint();
+        } catch (IOException e) {
+            // снимок не записан, если в нём есть изменения после начала сегмента
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Isbn isbn : added) {
+            if (memory.findByIsbn(isbn) == null) failures.add("после сбоя журнала пропала записанная книга " + isbn);
+        }
+        for (Isbn isbn : failed) {
+            if (memory.findByIsbn(isbn) != null) failures.add("после сбоя журнала осталась незаписанная книга " + isbn);
+        }
+        long bookEvents = events.stream().filter(event -> event.getType() == LibraryEvent.Type.BOOK_ADDED).count();
+        if (bookEvents != added.size()) {
+            failures.add("после сбоя журнала событий добавления " + bookEvents + ", добавлено книг " + added.size());
+        }
+        Files.delete(blocker);
+        Map<String, String> inMemory = state(memory);
+        MemoryStorageEngine reopened = new MemoryStorageEngine(dir);
+        Map<String, String> onDisk = state(reopened);
+        for (Map.Entry<String, String> part : inMemory.entrySet()) {
+            if (!part.getValue().equals(onDisk.get(part.getKey()))) {
+                failures.add("после сбоя журнала, " + part.getKey() + ":\n  в памяти: " + part.getValue()
+                        + "\n  после перезапуска: " + onDisk.get(part.getKey()));
+            }
+        }
+        reopened.close();
+        return rolledBack.get();
+    }
+
+    private MemoryStorageEngine open(Path dir, long snapshotEvery) throws IOException {
+        MemoryStorageEngine memory = new MemoryStorageEngine(dir, snapshotEvery);
+        memory.addListener(event -> memoryEvents.add(event.toString()));
+        return memory;
+    }
+
+    // Заданные случаи, которые случайный сценарий может не задеть
+    private void scripted(Library library, MemoryStorageEngine memory) {
+        Isbn a = LibraryBenchmark.isbn(900);
+        Isbn b = LibraryBenchmark.isbn(901);
+        Isbn c = LibraryBenchmark.isbn(902);
+        List<Step> steps = new ArrayList<>();
+        steps.add(e -> addBook(e, a));
+        steps.add(e -> addBook(e, a));
+        steps.add(e -> addBook(e, b));
+        steps.add(e -> addBook(e, c));
+        steps.add(e -> register(e, "X1"));
+        steps.add(e -> register(e, "X1"));
+        steps.add(e -> register(e, "X2"));
+        steps.add(e -> batch(e.lendBooks("X1", List.of())));
+        steps.add(e -> batch(e.lendBooks("нет такого", List.of(a))));
+        steps.add(e -> batch(e.lendBooks("X1", List.of(a, a, LibraryBenchmark.isbn(999), b))));
+        steps.add(e -> batch(e.returnBooks("X2", List.of(a, c))));
+        steps.add(e -> batch(e.returnBooks("X1", List.of(b, b, a))));
+        steps.add(e -> lend(e, c, "X2"));
+        steps.add(e -> lend(e, c, "X1"));
+        steps.add(e -> giveBack(e, c, "X1"));
+        // Выдача удалённой книги остаётся: книгу можно добавить снова и выдать другому
+        steps.add(e -> lend(e, a, "X1"));
+        steps.add(e -> deleteBook(e, a));
+        steps.add(e -> deleteBook(e, a));
+        steps.add(e -> addBook(e, a));
+        steps.add(e -> lend(e, a, "X2"));
+        steps.add(e -> giveBack(e, a, "X1"));
+        steps.add(e -> giveBack(e, a, "X2"));
+        // Выдача удалённого читателя снова видна, когда он зарегистрирован заново
+        steps.add(e -> lend(e, b, "X2"));
+        steps.add(e -> deleteReader(e, "X2"));
+        steps.add(e -> deleteReader(e, "X2"));
+        steps.add(e -> giveBack(e, b, "X2"));
+        steps.add(e -> register(e, "X2"));
+        steps.add(e -> giveBack(e, b, "X2"));
+        steps.add(e -> {
+            e.addBook(new Book(LibraryBenchmark.isbn(903), null, "Автор", 2000));
+            return "ok";
+        });
+        for (Step step : steps) {
+            compare(library, memory, step);
+            compareState("заданный случай", library, memory);
+        }
+    }
+
+    private Step randomStep() {
+        Isbn isbn = LibraryBenchmark.isbn(random.nextInt(BOOKS));
+        String reader = "R" + random.nextInt(READERS);
+        int kind = random.nextInt(100);
+        if (kind < 15) return e -> addBook(e, isbn);
+        if (kind < 20) return e -> deleteBook(e, isbn);
+        if (kind < 28) return e -> register(e, reader);
+        if (kind < 31) return e -> deleteReader(e, reader);
+        if (kind < 55) return e -> lend(e, isbn, reader);
+        if (kind < 80) return e -> giveBack(e, isbn, reader);
+        List<Isbn> stack = new ArrayList<>();
+        int size = 1 + random.nextInt(6);
+        for (int i = 0; i < size; i++) {
+            stack.add(LibraryBenchmark.isbn(random.nextInt(BOOKS)));
+        }
+        if (kind < 90) return e -> batch(e.lendBooks(reader, stack));
+        return e -> batch(e.returnBooks(reader, stack));
+    }
+
+    private static String addBook(StorageEngine engine, Isbn isbn) throws LibraryException {
+        engine.addBook(new Book(isbn, "Книга " + isbn, "Автор " + isbn.value() % 7, 1900 + (int) (isbn.value() % 120)));
+        return "ok";
+    }
+
+    private static String deleteBook(StorageEngine engine, Isbn isbn) throws LibraryException {
+        engine.deleteBook(isbn);
+        return "ok";
+    }
+
+    private static String register(StorageEngine engine, String id) throws LibraryException {
+        engine.registerReader(new Reader(id, "Читатель " + id));
+        return "ok";
+    }
+
+    private static String deleteReader(StorageEngine engine, String id) throws LibraryException {
+        engine.deleteReader(id);
+        return "ok";
+    }
+
+    private static String lend(StorageEngine engine, Isbn isbn, String readerId) throws LibraryException {
+        engine.lendBook(isbn, readerId);
+        return "ok";
+    }
+
+    private static String giveBack(StorageEngine engine, Isbn isbn, String readerId) throws LibraryException {
+        engine.returnBook(isbn, readerId);
+        return "ok";
+    }
+
+    private static String batch(List<LoanResult> results) {
+        return results.stream().map(r -> r.getIsbn() + "=" + (r.isSuccess() ? "ok" : r.getError()))
+                .collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    // Выполнить шаг на обоих хранилищах и сравнить результат и события
+    private void compare(StorageEngine sql, StorageEngine memory, Step step) {
+        sqlEvents.clear();
+        memoryEvents.clear();
+        String expected = outcome(sql, step);
+        String actual = outcome(memory, step);
+        String difference = null;
+        if (!expected.equals(actual)) {
+            difference = "результат: SQLite " + expected + ", память " + actual;
+        } else if (!sqlEvents.equals(memoryEvents)) {
+            difference = "события при " + expected + ": SQLite " + sqlEvents + ", память " + memoryEvents;
+        }
+        if (difference != null) failures.add(difference);
+    }
+
+    // Текст ошибки вида "Ошибка ...: <подробности>" сравнивается до двоеточия:
+    // подробности у SQLite — текст драйвера
+    private static String outcome(StorageEngine engine, Step step) {
+        try {
+            return step.run(engine);
+        } catch (LibraryException e) {
+            String message = e.getMessage();
+            int colon = message.indexOf(": ");
+            return "ошибка " + (message.startsWith("Ошибка ") && colon > 0 ? message.substring(0, colon) : message);
+        }
+    }
+
+    private void compareState(String when, StorageEngine sql, StorageEngine memory) {
+        Map<String, String> expected = state(sql);
+        Map<String, String> actual = state(memory);
+        for (Map.Entry<String, String> part : expected.entrySet()) {
+            String other = actual.get(part.getKey());
+            if (!part.getValue().equals(other)) {
+                failures.add(when + ", " + part.getKey() + ":\n  SQLite: " + part.getValue() + "\n  память: " + other);
+            }
+        }
+    }
+
+    // Всё, что хранилище показывает через StorageEngine, в виде строк
+    private static Map<String, String> state(StorageEngine engine) {
+        Map<String, String> state = new TreeMap<>();
+        List<Book> books = engine.getBooksAfter(null, -1);
+        state.put("книги", books.stream().map(StorageConformance::describe).collect(Collectors.joining("; ")));
+
+        List<Book> paged = new ArrayList<>();
+        Isbn after = null;
+        List<Book> page;
+        while (!(page = engine.getBooksAfter(after, 5)).isEmpty()) {
+            paged.addAll(page);
+            after = page.get(page.size() - 1).getIsbn();
+        }
+        state.put("книги по страницам", paged.stream().map(StorageConformance::describe).collect(Collectors.joining("; ")));
+        state.put("getBooks", new TreeMap<>(engine.getBooks()).values().stream()
+                .map(StorageConformance::describe).collect(Collectors.joining("; ")));
+        state.put("число книг", String.valueOf(engine.countBooks()));
+        state.put("книги со смещения", engine.getBooks(3, 4).stream()
+                .map(StorageConformance::describe).collect(Collectors.joining("; ")));
+        state.put("книги со смещения до конца", engine.getBooks(5, -1).stream()
+                .map(StorageConformance::describe).collect(Collectors.joining("; ")));
+        for (Book book : books) {
+            Book found = engine.findByIsbn(book.getIsbn());
+            if (found == null || !describe(found).equals(describe(book))) {
+                state.put("findByIsbn " + book.getIsbn(), String.valueOf(found));
+            }
+        }
+        state.put("findByIsbn (нет книги)", String.valueOf(engine.findByIsbn(LibraryBenchmark.isbn(5000))));
+
+        state.put("читатели", new TreeMap<>(engine.getReaders()).values().stream()
+                .map(r -> r.getId() + " " + r.getName() + " " + r.getLoans().stream()
+                        .map(StorageConformance::describe).collect(Collectors.joining(",", "[", "]")))
+                .collect(Collectors.joining("; ")));
+        state.put("число строк читателей", String.valueOf(engine.countReaderLoanRows()));
+        state.put("строки читателей", describeRows(engine.getReaderLoanRows(0, -1)));
+        state.put("строки читателей со смещения", describeRows(engine.getReaderLoanRows(3, 4)));
+
+        List<ReaderLoanRow> rows = new ArrayList<>();
+        List<ReaderLoanRow> rowPage;
+        ReaderLoanRow afterRow = null;
+        while (!(rowPage = engine.getReaderLoanRowsAfter(afterRow, 4)).isEmpty()) {
+            rows.addAll(rowPage);
+            afterRow = rowPage.get(rowPage.size() - 1);
+        }
+        state.put("строки читателей по страницам", describeRows(rows));
+
+        LocalDate later = LocalDate.now().plusDays(15);
+        List<ReaderLoanRow> overdue = new ArrayList<>();
+        ReaderLoanRow afterOverdue = null;
+        while (!(rowPage = engine.findOverdue(later, afterOverdue, 3)).isEmpty()) {
+            overdue.addAll(rowPage);
+            afterOverdue = rowPage.get(rowPage.size() - 1);
+        }
+        state.put("просрочки", describeRows(overdue));
+        state.put("просрочки сегодня", describeRows(engine.findOverdue(LocalDate.now(), null, 10)));
+        return state;
+    }
+
+    private static String describe(Book book) {
+        return book.getIsbn() + "|" + book.getTitle() + "|" + book.getAuthor() + "|" + book.getYear() + "|" + book.isAvailable();
+    }
+
+    private static String describe(Loan loan) {
+        return describe(loan.getBook()) + "|" + loan.getIssueDate() + "|" + loan.getDueDate();
+    }
+
+    private static String describeRows(List<ReaderLoanRow> rows) {
+        return rows.stream().map(r -> r.getReaderId() + " " + r.getReaderName() + " #" + r.getLoanId() + " "
+                + (r.getLoan() == null ? "-" : describe(r.getLoan()))).collect(Collectors.joining("; "));
+    }
+
+    private static Path lastSegment(Path dir) throws IOException {
+        TreeMap<String, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "oplog-*.log")) {
+            for (Path file : files) segments.put(file.getFileName().toString(), file);
+        }
+        return segments.lastEntry().getValue();
+    }
+
+    private static int countSegments(Path dir) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "oplog-*.log")) {
+            for (Path ignored : files) count++;
+        }
+        return count;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
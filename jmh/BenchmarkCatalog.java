@@ -0,0 +1,77 @@
+import benchmarks.Catalog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Каталог LibraryBenchmark для бенчмарков JMH (jmh/benchmarks): то же заполнение
+// и те же операции. Бенчмарки лежат в пакете benchmarks (JMH не принимает пакет
+// по умолчанию), откуда классы приложения не видны, поэтому они создают этот
+// класс по имени и вызывают операции через интерфейс Catalog.
+public class BenchmarkCatalog implements Catalog {
+    private final Path dir;
+    private final Library library;
+    private final StorageEngine engine;
+    private final int books;
+    private final int readers;
+    private final Map<String, LibraryBenchmark.Operation> operations;
+
+    private BenchmarkCatalog(Path dir, Library library, StorageEngine engine, int books, int readers,
+                             Map<String, LibraryBenchmark.Operation> operations) {
+        this.dir = dir;
+        this.library = library;
+        this.engine = engine;
+        this.books = books;
+        this.readers = readers;
+        this.operations = operations;
+    }
+
+    // engine — "library" (SQLite) или "memory" (MemoryStorageEngine, доступна только
+    // выдача и возврат); groupCommit — "размер:задержка_мс" или "off"
+    public static Catalog open(String engine, int books, String groupCommit) throws Exception {
+        Path dir = Files.createTempDirectory("library-jmh");
+        int readers = Math.max(10, books / 10);
+        try {
+            if (engine.equals("memory")) {
+                MemoryStorageEngine memory = new MemoryStorageEngine(dir.resolve("memory-engine"));
+                LibraryBenchmark.seedEngine(memory, books, readers, Math.max(4, Runtime.getRuntime().availableProcessors()));
+                return new BenchmarkCatalog(dir, null, memory, books, readers,
+                        Map.of("lendBook+returnBook", LibraryBenchmark.LEND_AND_RETURN));
+            }
+            String url = "jdbc:sqlite:" + dir.resolve("bench.db");
+            LibraryBenchmark.seed(url, books, readers);
+            DefaultLibraryMetrics metrics = new DefaultLibraryMetrics();
+            metrics.setSlowThresholdMillis(Long.MAX_VALUE / 1_000_000);
+            Library library = new Library(url, Math.max(2, Runtime.getRuntime().availableProcessors()), 10_000, metrics);
+            if (!groupCommit.equals("off")) {
+                String[] parts = groupCommit.split(":");
+                library.setGroupCommit(Integer.parseInt(parts[0]), parts.length > 1 ? Long.parseLong(parts[1]) : 0,
+                        TimeUnit.MILLISECONDS);
+            }
+            return new BenchmarkCatalog(dir, library, library, books, readers, LibraryBenchmark.operations());
+        } catch (Exception e) {
+            LibraryBenchmark.deleteRecursively(dir);
+            throw e;
+        }
+    }
+
+    @Override
+    public Operation operation(String name, int thread, int threads) {
+        LibraryBenchmark.Operation operation = operations.get(name);
+        if (operation == null) throw new IllegalArgumentException("Операция " + name + " для этого хранилища не измеряется");
+        LibraryBenchmark.Context context = new LibraryBenchmark.Context(library, engine, books, readers, thread, threads);
+        return () -> operation.run(context);
+    }
+
+    @Override
+    public void close() {
+        engine.close();
+        try {
+            LibraryBenchmark.deleteRecursively(dir);
+        } catch (IOException e) {
+            System.out.println("Не удалось удалить " + dir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+
+// Синтетический каталог, на котором работают бенчмарки. Классы приложения лежат
+// в пакете по умолчанию, а его не видно из именованного пакета (JMH требует пакет
+// у бенчмарков), поэтому реализация — BenchmarkCatalog в пакете по умолчанию —
+// создаётся по имени, а операции вызываются через этот интерфейс.
+public interface Catalog extends AutoCloseable {
+    // Операция LibraryBenchmark с этим именем для потока thread из threads
+    Operation operation(String name, int thread, int threads);
+
+    @Override
+    void close();
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    // engine — "library" или "memory"; groupCommit — "размер:задержка_мс" или "off"
+    static Catalog open(String engine, int books, String groupCommit) throws Exception {
+        try {
+            return (Catalog) Class.forName("BenchmarkCatalog")
+                    .getMethod("open", String.class, int.class, String.class)
+                    .invoke(null, engine, books, groupCommit);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+// Выдача и возврат из 64 потоков, как --group-commit и memoryEngine в LibraryBenchmark:
+// library — Library в режимах группового коммита ("размер:задержка_мс", off — без него),
+// memoryEngine — MemoryStorageEngine с групповым fsync журнала операций
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(64)
+public class GroupCommit {
+    @State(Scope.Benchmark)
+    public static class LibraryStore {
+        @Param({"10000", "100000"})
+        public int catalogSize;
+
+        @Param({"off", "64:0", "64:2", "256:5"})
+        public String groupCommit;
+
+        Catalog catalog;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            catalog = Catalog.open("library", catalogSize, groupCommit);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            catalog.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MemoryStore {
+        @Param({"10000", "100000"})
+        public int catalogSize;
+
+        Catalog catalog;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            catalog = Catalog.open("memory", catalogSize, "off");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            catalog.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LibraryWriter {
+        Catalog.Operation lendAndReturn;
+
+        @Setup(Level.Trial)
+        public void bind(LibraryStore store, ThreadParams params) {
+            lendAndReturn = store.catalog.operation("lendBook+returnBook", params.getThreadIndex(), params.getThreadCount());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MemoryWriter {
+        Catalog.Operation lendAndReturn;
+
+        @Setup(Level.Trial)
+        public void bind(MemoryStore store, ThreadParams params) {
+            lendAndReturn = store.catalog.operation("lendBook+returnBook", params.getThreadIndex(), params.getThreadCount());
+        }
+    }
+
+    @Benchmark
+    public void library(LibraryWriter writer) throws Exception {
+        writer.lendAndReturn.run();
+    }
+
+    @Benchmark
+    public void memoryEngine(MemoryWriter writer) throws Exception {
+        writer.lendAndReturn.run();
+    }
+}
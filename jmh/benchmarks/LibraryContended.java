@@ -0,0 +1,9 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+// Операции Library из восьми потоков на одной Library: чтение делит пул соединений,
+// запись — один поток записи
+@Threads(8)
+public class LibraryContended extends LibraryOperations {
+}
@@ -0,0 +1,144 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+// Операции Library из LibraryBenchmark на синтетическом каталоге во временном файле
+// SQLite (каждая десятая книга выдана): пропускная способность и распределение
+// задержек (SampleTime — p50/p99/max). Число потоков задают подклассы:
+// LibrarySingleThread — один, LibraryContended — восемь на одной Library.
+// getReaders и getBooks читают весь каталог; на миллионе книг они очень медленные.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public abstract class LibraryOperations {
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"10000", "100000"})
+        public int catalogSize;
+
+        Catalog catalog;
+
+        @Setup(Level.Trial)
+        public void open() throws Exception {
+            catalog = Catalog.open("library", catalogSize, "off");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            catalog.close();
+        }
+    }
+
+    // Операции одного потока: выдаёт он только свои книги, случайные числа — свои
+    @State(Scope.Thread)
+    public static class Caller {
+        Catalog.Operation findByIsbn;
+        Catalog.Operation searchBooks;
+        Catalog.Operation countBooks;
+        Catalog.Operation getBooksAfter;
+        Catalog.Operation getReaderLoanRowsAfter;
+        Catalog.Operation findOverdue;
+        Catalog.Operation streamAvailableBooks;
+        Catalog.Operation lendAndReturn;
+        Catalog.Operation lendAndReturnStack;
+        Catalog.Operation findLoanHistory;
+        Catalog.Operation getReaders;
+        Catalog.Operation getBooks;
+
+        @Setup(Level.Trial)
+        public void bind(Store store, ThreadParams params) {
+            int thread = params.getThreadIndex();
+            int threads = params.getThreadCount();
+            Catalog catalog = store.catalog;
+            findByIsbn = catalog.operation("findByIsbn", thread, threads);
+            searchBooks = catalog.operation("searchBooks", thread, threads);
+            countBooks = catalog.operation("countBooks", thread, threads);
+            getBooksAfter = catalog.operation("getBooksAfter", thread, threads);
+            getReaderLoanRowsAfter = catalog.operation("getReaderLoanRowsAfter", thread, threads);
+            findOverdue = catalog.operation("findOverdue", thread, threads);
+            streamAvailableBooks = catalog.operation("streamBooks(available)", thread, threads);
+            lendAndReturn = catalog.operation("lendBook+returnBook", thread, threads);
+            lendAndReturnStack = catalog.operation("lendBooks(20)+returnBooks(20)", thread, threads);
+            findLoanHistory = catalog.operation("findLoanHistory(reader)", thread, threads);
+            getReaders = catalog.operation("getReaders", thread, threads);
+            getBooks = catalog.operation("getBooks", thread, threads);
+        }
+    }
+
+    @Benchmark
+    public void findByIsbn(Caller caller) throws Exception {
+        caller.findByIsbn.run();
+    }
+
+    @Benchmark
+    public void searchBooks(Caller caller) throws Exception {
+        caller.searchBooks.run();
+    }
+
+    @Benchmark
+    public void countBooks(Caller caller) throws Exception {
+        caller.countBooks.run();
+    }
+
+    @Benchmark
+    public void getBooksAfter(Caller caller) throws Exception {
+        caller.getBooksAfter.run();
+    }
+
+    @Benchmark
+    public void getReaderLoanRowsAfter(Caller caller) throws Exception {
+        caller.getReaderLoanRowsAfter.run();
+    }
+
+    @Benchmark
+    public void findOverdue(Caller caller) throws Exception {
+        caller.findOverdue.run();
+    }
+
+    @Benchmark
+    public void streamAvailableBooks(Caller caller) throws Exception {
+        caller.streamAvailableBooks.run();
+    }
+
+    @Benchmark
+    public void lendAndReturn(Caller caller) throws Exception {
+        caller.lendAndReturn.run();
+    }
+
+    @Benchmark
+    public void lendAndReturnStack(Caller caller) throws Exception {
+        caller.lendAndReturnStack.run();
+    }
+
+    @Benchmark
+    public void findLoanHistory(Caller caller) throws Exception {
+        caller.findLoanHistory.run();
+    }
+
+    @Benchmark
+    public void getReaders(Caller caller) throws Exception {
+        caller.getReaders.run();
+    }
+
+    @Benchmark
+    public void getBooks(Caller caller) throws Exception {
+        caller.getBooks.run();
+    }
+}
@@ -0,0 +1,8 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+// Операции Library из одного потока
+@Threads(1)
+public class LibrarySingleThread extends LibraryOperations {
+}
@@ -0,0 +1,22 @@
+// Строка отчёта по автору: число выдач его книг и сколько из них просрочено
+public class AuthorStats {
+    private final String author;
+    private final int loans;
+    private final int overdue;
+
+    public AuthorStats(String author, int loans, int overdue) {
+        this.author = author;
+        this.loans = loans;
+        this.overdue = overdue;
+    }
+
+    public String getAuthor() { return author; }
+    public int getLoans() { return loans; }
+    public int getOverdue() { return overdue; }
+    public double getOverdueRate() { return loans == 0 ? 0 : (double) overdue / loans; }
+
+    @Override
+    public String toString() {
+        return String.format("%s - выдач: %d, просрочено: %d (%.1f%%)", author, loans, overdue, getOverdueRate() * 100);
+    }
+}
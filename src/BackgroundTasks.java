@@ -0,0 +1,115 @@
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Выполнение обращений к Library в фоновых потоках, чтобы не блокировать
+// поток обработки событий Swing (EDT). Результат и ошибка передаются обратно
+// в EDT. Задача с тем же ключом отменяет предыдущую, ещё не завершённую:
+// не начавшаяся задача не выполняется, а выполняющийся запрос к БД прерывается
+// (QueryCancel), чтобы устаревшие поиски не занимали соединения для чтения.
+// Результат отменённой задачи не показывается. Методы вызываются только из EDT.
+public class BackgroundTasks {
+    // Фоновая работа; может бросить LibraryException
+    public interface Task<T> {
+        T call() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final JProgressBar progressBar;
+    private final JLabel statusLabel;
+    private final Map<String, CompletableFuture<?>> latest = new HashMap<>();
+    private int active;
+
+    public BackgroundTasks(int threads, JProgressBar progressBar, JLabel statusLabel) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "library-background-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.progressBar = progressBar;
+        this.statusLabel = statusLabel;
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(false);
+    }
+
+    // key == null — задачу нельзя вытеснить; description == null — не показывать в строке состояния
+    public <T> void run(String key, String description, Task<T> task,
+                        Consumer<T> onSuccess, Consumer<Exception> onError) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        QueryCancel queries = new QueryCancel();
+        // cancel() у future вызывает это действие сразу, в потоке отменяющего
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) queries.cancel();
+        });
+        executor.execute(() -> {
+            if (future.isDone()) return; // отменена, пока ждала потока
+            QueryCancel previous = QueryCancel.attach(queries);
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                QueryCancel.attach(previous);
+            }
+        });
+
+        if (key != null) {
+            CompletableFuture<?> previous = latest.put(key, future);
+            if (previous != null) previous.cancel(false);
+        }
+        started(description);
+
+        future.whenCompleteAsync((result, error) -> {
+            finished();
+            if (key != null && latest.get(key) == future) latest.remove(key);
+            if (future.isCancelled()) return;
+            if (error == null) {
+                onSuccess.accept(result);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof CancellationException) return;
+            if (cause instanceof Exception) {
+                onError.accept((Exception) cause);
+            } else {
+                onError.accept(new RuntimeException(cause));
+            }
+        }, SwingUtilities::invokeLater);
+    }
+
+    // Отменить незавершённую задачу с ключом: её запрос к БД прерывается, результат не доставляется
+    public void cancel(String key) {
+        CompletableFuture<?> previous = latest.remove(key);
+        if (previous != null) previous.cancel(false);
+    }
+
+    public boolean isBusy() { return active > 0; }
+
+    private void started(String description) {
+        active++;
+        if (description != null) statusLabel.setText(description);
+        progressBar.setVisible(true);
+    }
+
+    private void finished() {
+        active--;
+        if (active == 0) {
+            statusLabel.setText("Готово");
+            progressBar.setVisible(false);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
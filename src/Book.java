@@ -1,26 +1,31 @@
 public class Book {
-    private final String isbn;
+    private final Isbn isbn;
     private final String title;
     private final String author;
     private final int year;
-    private boolean available;
+    private final boolean available;
 
-    public Book(String isbn, String title, String author, int year) {
+    public Book(Isbn isbn, String title, String author, int year) {
+        this(isbn, title, author, year, true);
+    }
+
+    public Book(Isbn isbn, String title, String author, int year, boolean available) {
         this.isbn = isbn;
         this.title = title;
         this.author = author;
         this.year = year;
-        this.available = true;
+        this.available = available;
     }
 
-    public String getIsbn() { return isbn; }
+    public Isbn getIsbn() { return isbn; }
     public String getTitle() { return title; }
     public String getAuthor() { return author; }
     public int getYear() { return year; }
     public boolean isAvailable() { return available; }
 
-    public void setAvailable(boolean available) {
-        this.available = available;
+    // Книга неизменяема: смена статуса даёт новый объект
+    public Book withAvailable(boolean available) {
+        return available == this.available ? this : new Book(isbn, title, author, year, available);
     }
 
     @Override
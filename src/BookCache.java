@@ -0,0 +1,94 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Ограниченный кэш книг по ISBN с вытеснением давно не использовавшихся (LRU).
+// Хранит неизменяемые объекты Book, поэтому их можно отдавать без копирования.
+// Каждое изменение увеличивает версию: значение, прочитанное из БД до изменения,
+// не попадёт в кэш поверх более свежего. Изменения после фиксации (put,
+// updateAvailable, invalidate) Library вносит в потоке записи — в порядке фиксации.
+public class BookCache {
+    private final int capacity;
+    private final Map<Isbn, Book> books;
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BookCache(int capacity) {
+        this.capacity = capacity;
+        this.books = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Isbn, Book> eldest) {
+                if (size() <= BookCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    public synchronized Book get(Isbn isbn) {
+        Book book = books.get(isbn);
+        if (book == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return book;
+    }
+
+    // Версия, которую нужно запомнить перед чтением из БД
+    public synchronized long version() {
+        return version;
+    }
+
+    // Положить прочитанную из БД книгу, если с момента чтения ничего не менялось
+    public synchronized void putIfCurrent(Book book, long readVersion) {
+        if (capacity > 0 && readVersion == version) {
+            books.put(book.getIsbn(), book);
+        }
+    }
+
+    // Записать новое состояние книги после фиксации изменения
+    public synchronized void put(Book book) {
+        version++;
+        if (capacity > 0) {
+            books.put(book.getIsbn(), book);
+        }
+    }
+
+    // Обновить статус, если книга уже в кэше
+    public synchronized void updateAvailable(Isbn isbn, boolean available) {
+        version++;
+        Book book = books.get(isbn);
+        if (book != null) {
+            books.put(isbn, book.withAvailable(available));
+        }
+    }
+
+    public synchronized void invalidate(Isbn isbn) {
+        version++;
+        books.remove(isbn);
+    }
+
+    public synchronized void clear() {
+        version++;
+        books.clear();
+    }
+
+    public synchronized int size() { return books.size(); }
+    public int getCapacity() { return capacity; }
+    public synchronized long getHitCount() { return hits; }
+    public synchronized long getMissCount() { return misses; }
+    public synchronized long getEvictionCount() { return evictions; }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("кэш книг: %d/%d, попаданий %d, промахов %d, вытеснено %d",
+                books.size(), capacity, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,80 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Условие отбора книг для потокового обхода каталога. Все условия переводятся
+// в WHERE запроса, поэтому отбор выполняет SQLite, а не вызывающий код.
+// Неизменяемый: каждый метод возвращает новый фильтр.
+public class BookFilter {
+    private static final BookFilter ALL = new BookFilter(SearchQuery.parse(""), null, null, null, null);
+
+    private final SearchQuery query;
+    private final Isbn afterIsbn;
+    private final Boolean available;
+    private final Integer yearFrom;
+    private final Integer yearTo;
+
+    private BookFilter(SearchQuery query, Isbn afterIsbn, Boolean available, Integer yearFrom, Integer yearTo) {
+        this.query = query;
+        this.afterIsbn = afterIsbn;
+        this.available = available;
+        this.yearFrom = yearFrom;
+        this.yearTo = yearTo;
+    }
+
+    // Все книги каталога
+    public static BookFilter all() {
+        return ALL;
+    }
+
+    // Книги, подходящие под поисковый запрос (как в searchBooks)
+    public BookFilter matching(String query) {
+        return new BookFilter(SearchQuery.parse(query), afterIsbn, available, yearFrom, yearTo);
+    }
+
+    // Книги с ISBN больше заданного (продолжение обхода)
+    public BookFilter after(Isbn isbn) {
+        return new BookFilter(query, isbn, available, yearFrom, yearTo);
+    }
+
+    // Только книги в библиотеке (true) или только выданные (false)
+    public BookFilter available(boolean available) {
+        return new BookFilter(query, afterIsbn, available, yearFrom, yearTo);
+    }
+
+    // Год издания в пределах [from, to]
+    public BookFilter publishedBetween(int from, int to) {
+        return new BookFilter(query, afterIsbn, available, from, to);
+    }
+
+    // Условие WHERE; обход всегда идёт по индексу ISBN от afterIsbn
+    String whereClause() {
+        StringBuilder sb = new StringBuilder("WHERE b.isbn > ?");
+        if (!query.isEmpty()) sb.append(" AND b.rowid IN (SELECT rowid FROM books_fts WHERE books_fts MATCH ?)");
+        if (available != null) sb.append(" AND b.available = ?");
+        if (yearFrom != null) sb.append(" AND b.year BETWEEN ? AND ?");
+        return sb.toString();
+    }
+
+    void bind(PreparedStatement pstmt) throws SQLException {
+        int index = 1;
+        pstmt.setLong(index++, afterIsbn == null ? 0 : afterIsbn.value());
+        if (!query.isEmpty()) pstmt.setString(index++, query.toMatchExpression());
+        if (available != null) pstmt.setBoolean(index++, available);
+        if (yearFrom != null) {
+            pstmt.setInt(index++, yearFrom);
+            pstmt.setInt(index, yearTo);
+        }
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        if (!query.isEmpty()) parts.add("запрос " + query.getTokens());
+        if (afterIsbn != null) parts.add("после " + afterIsbn);
+        if (available != null) parts.add(available ? "в библиотеке" : "выданы");
+        if (yearFrom != null) parts.add(yearFrom + "–" + yearTo);
+        return parts.isEmpty() ? "все книги" : String.join(", ", parts);
+    }
+}
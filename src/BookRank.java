@@ -0,0 +1,21 @@
+// Строка отчёта о самых выдаваемых книгах: book == null — книга удалена из каталога
+public class BookRank {
+    private final Isbn isbn;
+    private final Book book;
+    private final int loans;
+
+    public BookRank(Isbn isbn, Book book, int loans) {
+        this.isbn = isbn;
+        this.book = book;
+        this.loans = loans;
+    }
+
+    public Isbn getIsbn() { return isbn; }
+    public Book getBook() { return book; }
+    public int getLoans() { return loans; }
+
+    @Override
+    public String toString() {
+        return (book == null ? isbn + " (удалена)" : book.getTitle() + " (" + isbn + ")") + " - " + loans;
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Каталог книг постранично: весь каталог в порядке ISBN или результаты поиска по рангу.
+// Небольшие результаты поиска загружаются целиком и запоминаются: повторный запрос
+// показывается из памяти, а уточнённый сразу показывается отфильтрованным в памяти
+// и заменяется результатом БД, когда тот придёт (порядок по рангу у него свой).
+public class BookTableModel extends PagedTableModel<Book> {
+    private static final String[] COLUMNS = {"ISBN", "Название", "Автор", "Год", "Статус"};
+    private static final int FULL_RESULT_LIMIT = 2000;
+    private static final int RECENT_QUERIES = 32;
+    private static final Comparator<Book> BY_ISBN = Comparator.comparing(Book::getIsbn);
+
+    // Хранилище берётся при каждой загрузке (в фоновом потоке): пока оно открывается,
+    // загрузка ждёт его открытия. Поиск по тексту есть только у Library.
+    private final Supplier<StorageEngine> storage;
+    private final SearchResultCache recentResults = new SearchResultCache(RECENT_QUERIES);
+    private volatile String query = "";
+
+    public BookTableModel(Supplier<StorageEngine> storage, BackgroundTasks tasks) {
+        super(COLUMNS, tasks);
+        this.storage = storage;
+    }
+
+    // Показать результаты поиска (пустой запрос — весь каталог).
+    // Запрос меняется только вместе с поколением данных модели, поэтому
+    // результат, пришедший для прежнего запроса, будет отброшен.
+    public void setQuery(String query) {
+        if (!showRecentResults(query)) {
+            this.query = normalize(query);
+            super.refresh();
+        }
+    }
+
+    // Показать результат из недавних запросов. true — он известен целиком и запрос
+    // к БД не нужен; false — запрос нужен, но, если запрос уточняет недавний, его книги
+    // уже показаны в порядке прежнего запроса до прихода ранжированного результата
+    public boolean showRecentResults(String query) {
+        String normalized = normalize(query);
+        SearchQuery searchQuery = SearchQuery.parse(normalized);
+        if (searchQuery.isEmpty()) return false;
+        List<Book> known = recentResults.find(searchQuery);
+        if (known != null) {
+            this.query = normalized;
+            showRows(known);
+            return true;
+        }
+        List<Book> narrowed = recentResults.narrow(searchQuery);
+        if (narrowed != null) {
+            this.query = normalized;
+            showProvisionalRows(narrowed);
+        }
+        return false;
+    }
+
+    private static String normalize(String query) {
+        return query == null ? "" : query.trim();
+    }
+
+    public String getQuery() { return query; }
+
+    // Показан ли уже окончательный результат запроса (не предварительный и не снимок)
+    public boolean isShowing(String query) {
+        return normalize(query).equals(this.query) && !isProvisional();
+    }
+
+    // Показать каталог из снимка прошлого запуска, пока БД ещё открывается
+    public void showSnapshot(CatalogSnapshot snapshot) {
+        query = "";
+        showSavedPages(snapshot.getRowCount(), snapshot.getPages());
+    }
+
+    // Загруженные страницы каталога для следующего запуска; null, если показан поиск
+    // или каталог ещё не загружен
+    public CatalogSnapshot snapshot() {
+        if (!query.isEmpty()) return null;
+        Map<Integer, List<Book>> pages = residentPages();
+        return pages.isEmpty() ? null : new CatalogSnapshot(getRowCount(), pages);
+    }
+
+    // Данные изменились: сохранённые результаты больше не верны
+    @Override
+    public void refresh() {
+        recentResults.clear();
+        super.refresh();
+    }
+
+    // Применить изменение к показанным строкам и сохранённым результатам без
+    // перечитывания каталога. Место новой книги в результатах поиска зависит
+    // от ранга, поэтому такой поиск перечитывается, если книга ему подходит.
+    public void apply(LibraryEvent event) {
+        Isbn isbn = event.getIsbn();
+        switch (event.getType()) {
+            case BOOK_LENT:
+            case BOOK_RETURNED:
+                boolean available = event.getType() == LibraryEvent.Type.BOOK_RETURNED;
+                recentResults.updateAvailable(isbn, available);
+                updateRows(book -> book.getIsbn().equals(isbn), book -> book.withAvailable(available));
+                break;
+            case BOOK_ADDED:
+                recentResults.added(event.getBook());
+                if (query.isEmpty()) {
+                    insertRow(event.getBook(), BY_ISBN);
+                } else if (SearchQuery.parse(query).matches(event.getBook())) {
+                    super.refresh();
+                }
+                break;
+            case BOOK_REMOVED:
+                recentResults.remove(isbn);
+                if (query.isEmpty() || isFullyLoaded()) {
+                    removeRow(new Book(isbn, null, null, 0), BY_ISBN);
+                } else {
+                    super.refresh();
+                }
+                break;
+            case IMPORTED:
+                if (event.getTable() == BulkTable.BOOKS) refresh();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    protected String refreshDescription() {
+        return query.isEmpty() ? "Загрузка каталога…" : "Поиск: " + query + "…";
+    }
+
+    @Override
+    protected int loadCount() {
+        return query.isEmpty() ? storage.get().countBooks() : search().countBooks(query);
+    }
+
+    @Override
+    protected List<Book> loadAll(int count) {
+        if (query.isEmpty() || count > FULL_RESULT_LIMIT) return null;
+        return search().searchBooks(query, 0, count);
+    }
+
+    @Override
+    protected void allRowsLoaded(List<Book> rows) {
+        recentResults.put(SearchQuery.parse(query), rows);
+    }
+
+    @Override
+    protected List<Book> loadPageAfter(Book after, int limit) {
+        if (!query.isEmpty() || after == null) {
+            return loadPageAt(0, limit);
+        }
+        return storage.get().getBooksAfter(after.getIsbn(), limit);
+    }
+
+    // Результаты поиска упорядочены по рангу, поэтому листаются по смещению
+    @Override
+    protected List<Book> loadPageAt(int offset, int limit) {
+        if (query.isEmpty()) return storage.get().getBooks(offset, limit);
+        return search().searchBooks(query, offset, limit);
+    }
+
+    private Library search() {
+        StorageEngine engine = storage.get();
+        if (!(engine instanceof Library)) throw new IllegalStateException("Поиск по тексту в этом хранилище недоступен");
+        return (Library) engine;
+    }
+
+    @Override
+    protected Object valueAt(Book book, int column) {
+        switch (column) {
+            case 0: return book.getIsbn();
+            case 1: return book.getTitle();
+            case 2: return book.getAuthor();
+            case 3: return book.getYear();
+            default: return book.isAvailable() ? "Доступна" : "Выдана";
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Потоковая выгрузка таблиц в CSV или JSON Lines: строки пишутся по мере
+// чтения курсора и не накапливаются в памяти.
+public class BulkExporter {
+    private static final int FETCH_SIZE = 1000;
+
+    private final ConnectionPool pool;
+
+    BulkExporter(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public BulkReport export(BulkTable table, Writer out, RecordFormat format) throws IOException, LibraryException {
+        long start = System.nanoTime();
+        BulkReport report = new BulkReport(table);
+        String[] columns = table.getExportColumns();
+
+        String header = format.header(columns);
+        if (header != null) {
+            out.write(header);
+            out.write('\n');
+        }
+
+        try (PooledConnection c = pool.reader()) {
+            PreparedStatement pstmt = c.prepare(table.selectSql());
+            pstmt.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Object[] values = new Object[columns.length];
+                while (rs.next()) {
+                    for (int i = 0; i < columns.length; i++) {
+                        values[i] = rs.getObject(i + 1);
+                    }
+                    if (table == BulkTable.BOOKS) {
+                        values[4] = rs.getBoolean("available");
+                    }
+                    out.write(format.format(columns, values));
+                    out.write('\n');
+                    report.addRows(1);
+                    report.addWritten(1);
+                }
+            }
+        } catch (SQLException e) {
+            throw new LibraryException("Ошибка выгрузки " + table.getTableName() + ": " + e.getMessage());
+        }
+        out.flush();
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Потоковая загрузка книг и читателей из CSV или JSON Lines.
+// Записи читаются по одной и вставляются пакетами (addBatch/executeBatch),
+// каждый пакет — одна транзакция в очереди записи. После загрузки, если что-то
+// записано, подписчикам публикуется одно событие IMPORTED — как и остальные
+// события, из потока записи, после фиксации последнего пакета.
+public class BulkImporter {
+    public static final int DEFAULT_COMMIT_SIZE = 5000;
+
+    private final WriteQueue writes;
+    private final int commitSize;
+    private final Consumer<LibraryEvent> events;
+
+    BulkImporter(WriteQueue writes, int commitSize, Consumer<LibraryEvent> events) {
+        if (commitSize <= 0) throw new IllegalArgumentException("Размер пакета должен быть положительным");
+        this.writes = writes;
+        this.commitSize = commitSize;
+        this.events = events;
+    }
+
+    public BulkReport importRecords(BulkTable table, BufferedReader in, RecordFormat format)
+            throws IOException, LibraryException {
+        if (!table.isImportable()) {
+            throw new LibraryException("Загрузка в таблицу " + table.getTableName() + " не поддерживается");
+        }
+        BulkReport report = new BulkReport(table);
+        try {
+            return importRecords(table, in, format, report);
+        } finally {
+            // Уже зафиксированные пакеты остаются и при ошибке посередине файла.
+            // Пустая операция встаёт в очередь за последним пакетом, событие
+            // публикуется после её фиксации
+            if (report.getWritten() > 0) {
+                writes.executeAsync("Ошибка массовой загрузки: ", c -> null,
+                        v -> events.accept(LibraryEvent.imported(table)));
+            }
+        }
+    }
+
+    private BulkReport importRecords(BulkTable table, BufferedReader in, RecordFormat format, BulkReport report)
+            throws IOException, LibraryException {
+        long start = System.nanoTime();
+        String[] columns = table.getImportColumns();
+
+        List<String> header = null;
+        if (format.hasHeader()) {
+            String line = in.readLine();
+            if (line == null) return finish(report, start);
+            header = RecordFormat.splitCsv(line);
+        }
+
+        List<Object[]> batch = new ArrayList<>(commitSize);
+        long lineNumber = format.hasHeader() ? 1 : 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            long recordLine = lineNumber;
+            // Значение в кавычках может содержать переводы строк (так их пишет выгрузка):
+            // запись дочитывается до закрывающей кавычки, переводы строк в ней — '\n'
+            boolean open = format.quoteOpenAfter(line, false);
+            if (open) {
+                StringBuilder record = new StringBuilder(line);
+                String next;
+                while (open && (next = in.readLine()) != null) {
+                    lineNumber++;
+                    record.append('\n').append(next);
+                    open = format.quoteOpenAfter(next, true);
+                }
+                line = record.toString();
+            }
+            if (line.isBlank()) continue;
+            report.addRows(1);
+            try {
+                batch.add(toRow(table, columns, format.parse(line, header)));
+            } catch (IllegalArgumentException e) {
+                report.addError(recordLine, e.getMessage());
+                continue;
+            }
+            if (batch.size() == commitSize) {
+                flush(table, columns, batch, report);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            flush(table, columns, batch, report);
+        }
+        return finish(report, start);
+    }
+
+    private BulkReport finish(BulkReport report, long start) {
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    private void flush(BulkTable table, String[] columns, List<Object[]> batch, BulkReport report)
+            throws LibraryException {
+        int[] counts = writes.transaction("Ошибка массовой загрузки: ", c -> {
+            PreparedStatement pstmt = c.prepare(table.insertSql());
+            for (Object[] row : batch) {
+                for (int i = 0; i < columns.length; i++) {
+                    pstmt.setObject(i + 1, row[i]);
+                }
+                pstmt.addBatch();
+            }
+            return pstmt.executeBatch();
+        });
+        report.addCommit();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                report.addDuplicate(String.valueOf(batch.get(i)[0]));
+            } else {
+                report.addWritten(1);
+            }
+        }
+    }
+
+    // Проверить запись и привести значения к типам колонок
+    private static Object[] toRow(BulkTable table, String[] columns, Map<String, String> record) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String value = record.get(columns[i]);
+            if (value == null || value.isBlank()) {
+                throw new IllegalArgumentException("не заполнено поле " + columns[i]);
+            }
+            value = value.trim();
+            if (table == BulkTable.BOOKS && columns[i].equals("isbn")) {
+                row[i] = Isbn.parse(value).value();
+            } else if (table == BulkTable.BOOKS && columns[i].equals("year")) {
+                try {
+                    row[i] = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("год должен быть числом: " + value);
+                }
+            } else {
+                row[i] = value;
+            }
+        }
+        return row;
+    }
+}
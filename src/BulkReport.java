@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Итог массовой загрузки или выгрузки: счётчики строк, пропущенные дубликаты,
+// ошибочные строки и скорость. Списки хранят только первые MAX_SAMPLES элементов.
+public class BulkReport {
+    private static final int MAX_SAMPLES = 1000;
+
+    private final BulkTable table;
+    private long rows;
+    private long written;
+    private long duplicateCount;
+    private long errorCount;
+    private long commits;
+    private final List<String> duplicates = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private long elapsedNanos;
+
+    BulkReport(BulkTable table) {
+        this.table = table;
+    }
+
+    void addRows(long count) { rows += count; }
+    void addWritten(long count) { written += count; }
+    void addCommit() { commits++; }
+    void setElapsedNanos(long elapsedNanos) { this.elapsedNanos = elapsedNanos; }
+
+    void addDuplicate(String key) {
+        duplicateCount++;
+        if (duplicates.size() < MAX_SAMPLES) duplicates.add(key);
+    }
+
+    void addError(long lineNumber, String message) {
+        errorCount++;
+        if (errors.size() < MAX_SAMPLES) errors.add("строка " + lineNumber + ": " + message);
+    }
+
+    public BulkTable getTable() { return table; }
+    public long getRows() { return rows; }
+    public long getWritten() { return written; }
+    public long getDuplicateCount() { return duplicateCount; }
+    public long getErrorCount() { return errorCount; }
+    public long getCommits() { return commits; }
+    public List<String> getDuplicates() { return Collections.unmodifiableList(duplicates); }
+    public List<String> getErrors() { return Collections.unmodifiableList(errors); }
+    public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: строк %d, записано %d, дубликатов %d, ошибок %d, фиксаций %d, %d мс (%.0f строк/с)",
+                table.getTableName(), rows, written, duplicateCount, errorCount, commits,
+                getElapsedMillis(), getRowsPerSecond());
+    }
+}
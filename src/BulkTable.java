@@ -0,0 +1,47 @@
+// Таблицы, доступные для массовой загрузки и выгрузки
+public enum BulkTable {
+    BOOKS("books", "isbn",
+            new String[]{"isbn", "title", "author", "year", "available"},
+            new String[]{"isbn", "title", "author", "year"}),
+    READERS("readers", "id",
+            new String[]{"id", "name"},
+            new String[]{"id", "name"}),
+    LOANS("loans", "id",
+            new String[]{"id", "book_isbn", "reader_id", "issue_date", "due_date"},
+            null);
+
+    private final String tableName;
+    private final String orderBy;
+    private final String[] exportColumns;
+    private final String[] importColumns;
+
+    BulkTable(String tableName, String orderBy, String[] exportColumns, String[] importColumns) {
+        this.tableName = tableName;
+        this.orderBy = orderBy;
+        this.exportColumns = exportColumns;
+        this.importColumns = importColumns;
+    }
+
+    public String getTableName() { return tableName; }
+    public String[] getExportColumns() { return exportColumns.clone(); }
+    public String[] getImportColumns() { return importColumns == null ? null : importColumns.clone(); }
+    public boolean isImportable() { return importColumns != null; }
+
+    // Первая колонка — ключ, по которому определяются дубликаты
+    public String getKeyColumn() { return importColumns[0]; }
+
+    String selectSql() {
+        return "SELECT " + String.join(", ", exportColumns) + " FROM " + tableName + " ORDER BY " + orderBy;
+    }
+
+    // Дубликаты ключа пропускаются, а не прерывают загрузку
+    String insertSql() {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < importColumns.length; i++) {
+            if (i > 0) placeholders.append(", ");
+            placeholders.append('?');
+        }
+        return "INSERT OR IGNORE INTO " + tableName + " (" + String.join(", ", importColumns) + ") " +
+                "VALUES (" + placeholders + ")";
+    }
+}
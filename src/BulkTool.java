@@ -0,0 +1,66 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Массовая загрузка и выгрузка из командной строки:
+//   java BulkTool import books|readers <файл.csv|файл.jsonl> [размер пакета]
+//   java BulkTool export books|readers|loans <файл.csv|файл.jsonl>
+//   java BulkTool publish <файл снимка>  (снимок каталога для MappedCatalog)
+public class BulkTool {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("publish")) {
+            publish(Paths.get(args[1]));
+            return;
+        }
+        if (args.length < 3) {
+            System.out.println("Использование: BulkTool import|export <таблица> <файл> [размер пакета] или BulkTool publish <файл>");
+            System.exit(2);
+        }
+        BulkTable table = BulkTable.valueOf(args[1].toUpperCase());
+        Path file = Paths.get(args[2]);
+        RecordFormat format = RecordFormat.forFileName(file.getFileName().toString());
+
+        Library library = new Library();
+        try {
+            BulkReport report;
+            if (args[0].equals("import")) {
+                int commitSize = args.length > 3 ? Integer.parseInt(args[3]) : BulkImporter.DEFAULT_COMMIT_SIZE;
+                try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    report = library.bulkImporter(commitSize).importRecords(table, in, format);
+                }
+            } else {
+                try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    report = library.bulkExporter().export(table, out, format);
+                }
+            }
+            System.out.println(report);
+            for (String error : report.getErrors()) {
+                System.out.println("  " + error);
+            }
+            if (report.getDuplicateCount() > 0) {
+                System.out.println("  дубликаты: " + report.getDuplicates());
+            }
+        } catch (LibraryException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            library.close();
+        }
+    }
+
+    private static void publish(Path file) throws IOException {
+        Library library = new Library();
+        try {
+            long start = System.nanoTime();
+            int books = library.publishCatalog(file);
+            System.out.println("Снимок каталога " + file + ": книг " + books + ", "
+                    + (System.nanoTime() - start) / 1_000_000 + " мс");
+        } finally {
+            library.close();
+        }
+    }
+}
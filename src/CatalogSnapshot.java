@@ -0,0 +1,114 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Страницы каталога, сохранённые при закрытии окна, чтобы при следующем запуске
+// первый экран показывался сразу, ещё до открытия БД. Снимок служит только для
+// показа: после открытия БД каталог перечитывается.
+// Формат (DataOutputStream): метка "LCS2", число книг в каталоге, число страниц,
+// затем для каждой страницы её номер, число книг и сами книги
+// (ISBN числом, название, автор, год, признак «в библиотеке»). Строки — длина
+// в байтах и байты UTF-8: writeUTF (в "LCS1") не записывает строки длиннее 64 КБ,
+// а такие названия в каталоге допустимы.
+public class CatalogSnapshot {
+    private static final int MAGIC = 0x4C435332;
+
+    private final int rowCount;
+    private final Map<Integer, List<Book>> pages;
+
+    public CatalogSnapshot(int rowCount, Map<Integer, List<Book>> pages) {
+        this.rowCount = rowCount;
+        this.pages = Collections.unmodifiableMap(new TreeMap<>(pages));
+    }
+
+    public int getRowCount() { return rowCount; }
+
+    // Номер страницы -> книги страницы
+    public Map<Integer, List<Book>> getPages() { return pages; }
+
+    public boolean isEmpty() { return pages.isEmpty(); }
+
+    // Прочитать снимок; null, если его нет или файл не читается
+    public static CatalogSnapshot load(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                System.out.println("Снимок каталога " + file + " в неизвестном формате");
+                return null;
+            }
+            long fileSize = Files.size(file);
+            int rowCount = in.readInt();
+            int pageCount = in.readInt();
+            Map<Integer, List<Book>> pages = new TreeMap<>();
+            for (int p = 0; p < pageCount; p++) {
+                int index = in.readInt();
+                int size = in.readInt();
+                List<Book> page = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    Isbn isbn = Isbn.of(in.readLong());
+                    String title = readString(in, fileSize);
+                    String author = readString(in, fileSize);
+                    int year = in.readInt();
+                    page.add(new Book(isbn, title, author, year, in.readBoolean()));
+                }
+                pages.put(index, page);
+            }
+            return new CatalogSnapshot(rowCount, pages);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Ошибка чтения снимка каталога: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Записать снимок во временный файл и заменить им прежний одним переименованием
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(rowCount);
+            out.writeInt(pages.size());
+            for (Map.Entry<Integer, List<Book>> entry : pages.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Book book : entry.getValue()) {
+                    out.writeLong(book.getIsbn().value());
+                    writeString(out, book.getTitle());
+                    writeString(out, book.getAuthor());
+                    out.writeInt(book.getYear());
+                    out.writeBoolean(book.isAvailable());
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Длина больше файла — файл испорчен (а не повод выделять под строку гигабайты)
+    private static String readString(DataInputStream in, long fileSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > fileSize) {
+            throw new IOException("неверная длина строки: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,471 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntToLongFunction;
+import java.util.stream.IntStream;
+
+// Отчёты по выдачам: самые выдаваемые книги и авторы за период, доля просрочек по
+// авторам. Считаются не запросами к БД, а по проекции в памяти — столбцам примитивов:
+//   книги:  ISBN (long[]) и номер автора в словаре (int[]);
+//   выдачи: номер книги, день выдачи, срок и день возврата (int[], дни от эпохи;
+//           у книги на руках день возврата OPEN) в порядке дня выдачи.
+// Выдачи периода находятся двоичным поиском по дню выдачи и обходятся по частям
+// параллельно (общий ForkJoinPool), у каждой части свои счётчики; первые K берутся
+// кучей на K элементов. Счётчики за всё время (выдачи по книгам и авторам, возвраты
+// с опозданием) ведутся при дочитывании, поэтому отчёт без периода выдачи не обходит.
+//
+// Проекция загружается при первом отчёте. Дальше события библиотеки только отмечают,
+// что данные изменились, а следующий отчёт дочитывает изменения одним снимком БД:
+// выдачи с номером больше последнего прочитанного и записи архива, возвращённые
+// со дня предыдущего дочитывания (Library.scanCirculation). Автор берётся из
+// текущего каталога: удаление и добавление книги переносят её выдачи между
+// авторами, массовая загрузка книг перезагружает проекцию. Изменения, сделанные
+// другими процессами, подхватывает refresh().
+public class CirculationStats implements AutoCloseable {
+    // День возврата выдачи, которая ещё на руках
+    static final int OPEN = Integer.MAX_VALUE;
+    private static final int NO_AUTHOR = -1;
+    // Меньше строк на часть обход не делится: накладные расходы больше выигрыша
+    private static final int MIN_CHUNK_ROWS = 1 << 16;
+
+    // Получатель строк Library.scanCirculation; author == null — книга удалена
+    interface Rows {
+        void loan(long loanId, long isbn, String author, int issueDay, int dueDay, int returnDay);
+    }
+
+    private final Library library;
+    private final Clock clock;
+    private final LibraryListener listener = this::libraryChanged;
+    private final ConcurrentLinkedQueue<LibraryEvent> catalogChanges = new ConcurrentLinkedQueue<>();
+    private volatile boolean changed = true;
+    private boolean loaded;
+    private long lastLoanId;
+    private LocalDate returnedFrom;
+
+    // Книги: номер строки по ISBN, автор, выдачи за всё время
+    private IsbnMap bookRows = new IsbnMap();
+    private int bookCount;
+    private long[] bookIsbn = new long[1024];
+    private int[] bookAuthor = new int[1024];
+    private int[] bookLoans = new int[1024];
+
+    // Авторы: словарь, выдачи и возвраты с опозданием за всё время
+    private final Map<String, Integer> authorIds = new HashMap<>();
+    private final List<String> authors = new ArrayList<>();
+    private int[] authorLoans = new int[64];
+    private int[] authorLate = new int[64];
+
+    // Выдачи; первые sortedCount упорядочены по дню выдачи, остальные дописаны позже
+    private int loanCount;
+    private int sortedCount;
+    private int[] loanBook = new int[1024];
+    private int[] issueDay = new int[1024];
+    private int[] dueDay = new int[1024];
+    private int[] returnDay = new int[1024];
+    // Номер выдачи на руках -> строка (ключ IsbnMap — любое ненулевое long)
+    private IsbnMap openLoans = new IsbnMap();
+
+    public CirculationStats(Library library) {
+        this(library, Clock.systemDefaultZone());
+    }
+
+    public CirculationStats(Library library, Clock clock) {
+        this.library = library;
+        this.clock = clock;
+        library.addListener(listener);
+    }
+
+    private void libraryChanged(LibraryEvent event) {
+        switch (event.getType()) {
+            case BOOK_ADDED, BOOK_REMOVED -> catalogChanges.add(event);
+            case IMPORTED -> {
+                if (event.getTable() == BulkTable.BOOKS) catalogChanges.add(event);
+            }
+            default -> { }
+        }
+        changed = true;
+    }
+
+    // Дочитать изменения из БД сейчас (первый вызов загружает всё)
+    public synchronized void refresh() {
+        changed = false;
+        // События публикуются после фиксации: снимок ниже их уже учитывает
+        LibraryEvent event;
+        while ((event = catalogChanges.poll()) != null) {
+            if (!loaded) continue;
+            if (event.getType() == LibraryEvent.Type.IMPORTED) {
+                clear();
+                continue;
+            }
+            int row = bookRows.get(event.getIsbn().value());
+            if (row >= 0) setAuthor(row, event.getBook() == null ? NO_AUTHOR : author(event.getBook().getAuthor()));
+        }
+        long afterLoanId = lastLoanId;
+        // С запасом в день: дата возврата вычисляется до фиксации и может отстать
+        LocalDate nextFrom = LocalDate.now(clock).minusDays(1);
+        long[] maxLoanId = {lastLoanId};
+        try {
+            library.scanCirculation(afterLoanId, loaded ? returnedFrom : null,
+                    (loanId, isbn, author, issue, due, returned) -> {
+                        apply(afterLoanId, loanId, isbn, author, issue, due, returned);
+                        maxLoanId[0] = Math.max(maxLoanId[0], loanId);
+                    });
+        } catch (LibraryException e) {
+            // Часть строк могла примениться: следующий отчёт загрузит всё заново
+            System.out.println(e.getMessage());
+            clear();
+            changed = true;
+            return;
+        }
+        lastLoanId = maxLoanId[0];
+        returnedFrom = nextFrom;
+        loaded = true;
+        if (loanCount - sortedCount > Math.max(1024, loanCount / 16)) sortLoans();
+    }
+
+    private void update() {
+        if (changed) refresh();
+    }
+
+    // Выдача, прочитанная при дочитывании: новая — дописывается, возврат выдачи на
+    // руках — закрывает её строку, уже учтённая — пропускается
+    private void apply(long afterLoanId, long loanId, long isbn, String author, int issue, int due, int returned) {
+        if (returned != OPEN) {
+            int row = openLoans.remove(loanId);
+            if (row >= 0) {
+                returnDay[row] = returned;
+                int authorId = bookAuthor[loanBook[row]];
+                if (returned > due && authorId != NO_AUTHOR) authorLate[authorId]++;
+                return;
+            }
+            if (loanId <= afterLoanId) return;
+        }
+        int row = append(book(isbn, author), issue, due, returned);
+        if (returned == OPEN) openLoans.put(loanId, row);
+    }
+
+    private int book(long isbn, String author) {
+        int row = bookRows.get(isbn);
+        if (row >= 0) return row;
+        if (bookCount == bookIsbn.length) {
+            int capacity = bookCount * 2;
+            bookIsbn = Arrays.copyOf(bookIsbn, capacity);
+            bookAuthor = Arrays.copyOf(bookAuthor, capacity);
+            bookLoans = Arrays.copyOf(bookLoans, capacity);
+        }
+        row = bookCount++;
+        bookIsbn[row] = isbn;
+        bookAuthor[row] = author == null ? NO_AUTHOR : author(author);
+        bookRows.put(isbn, row);
+        return row;
+    }
+
+    private int author(String name) {
+        Integer id = authorIds.get(name);
+        if (id != null) return id;
+        id = authors.size();
+        authors.add(name);
+        authorIds.put(name, id);
+        if (id == authorLoans.length) {
+            authorLoans = Arrays.copyOf(authorLoans, id * 2);
+            authorLate = Arrays.copyOf(authorLate, id * 2);
+        }
+        return id;
+    }
+
+    // Перенести выдачи книги к другому автору (книга удалена или добавлена заново)
+    private void setAuthor(int book, int authorId) {
+        int previous = bookAuthor[book];
+        if (previous == authorId) return;
+        bookAuthor[book] = authorId;
+        for (int row = 0; row < loanCount; row++) {
+            if (loanBook[row] != book) continue;
+            boolean late = returnDay[row] != OPEN && returnDay[row] > dueDay[row];
+            if (previous != NO_AUTHOR) {
+                authorLoans[previous]--;
+                if (late) authorLate[previous]--;
+            }
+            if (authorId != NO_AUTHOR) {
+                authorLoans[authorId]++;
+                if (late) authorLate[authorId]++;
+            }
+        }
+    }
+
+    private int append(int book, int issue, int due, int returned) {
+        if (loanCount == loanBook.length) {
+            int capacity = loanCount * 2;
+            loanBook = Arrays.copyOf(loanBook, capacity);
+            issueDay = Arrays.copyOf(issueDay, capacity);
+            dueDay = Arrays.copyOf(dueDay, capacity);
+            returnDay = Arrays.copyOf(returnDay, capacity);
+        }
+        int row = loanCount++;
+        loanBook[row] = book;
+        issueDay[row] = issue;
+        dueDay[row] = due;
+        returnDay[row] = returned;
+        // Дописанная по порядку дня выдачи строка продолжает упорядоченную часть
+        if (sortedCount == row && (row == 0 || issueDay[row - 1] <= issue)) sortedCount++;
+
+        bookLoans[book]++;
+        int authorId = bookAuthor[book];
+        if (authorId != NO_AUTHOR) {
+            authorLoans[authorId]++;
+            if (returned != OPEN && returned > due) authorLate[authorId]++;
+        }
+        return row;
+    }
+
+    // Упорядочить выдачи по дню выдачи (параллельная сортировка ключей «день, строка»)
+    private void sortLoans() {
+        long[] keys = new long[loanCount];
+        Arrays.setAll(keys, row -> (long) issueDay[row] << 32 | row);
+        Arrays.parallelSort(keys);
+        int[] order = new int[loanCount];
+        int[] newRow = new int[loanCount];
+        for (int i = 0; i < loanCount; i++) {
+            order[i] = (int) keys[i];
+            newRow[order[i]] = i;
+        }
+        loanBook = permute(loanBook, order);
+        issueDay = permute(issueDay, order);
+        dueDay = permute(dueDay, order);
+        returnDay = permute(returnDay, order);
+        openLoans.replaceAll(row -> newRow[row]);
+        sortedCount = loanCount;
+    }
+
+    private static int[] permute(int[] column, int[] order) {
+        int[] result = new int[Math.max(1024, order.length)];
+        IntStream.range(0, order.length).parallel().forEach(i -> result[i] = column[order[i]]);
+        return result;
+    }
+
+    private void clear() {
+        loaded = false;
+        lastLoanId = 0;
+        returnedFrom = null;
+        bookRows = new IsbnMap();
+        bookCount = 0;
+        loanCount = 0;
+        sortedCount = 0;
+        authorIds.clear();
+        authors.clear();
+        bookLoans = new int[bookLoans.length];
+        authorLoans = new int[authorLoans.length];
+        authorLate = new int[authorLate.length];
+        openLoans = new IsbnMap();
+    }
+
+    // Число выдач в проекции (на руках и в архиве)
+    public synchronized int size() {
+        update();
+        return loanCount;
+    }
+
+    // Самые выдаваемые книги: выдачи с днём выдачи в [from, to] (null — без границы),
+    // не больше limit, по убыванию числа выдач
+    public synchronized List<BookRank> topBooks(LocalDate from, LocalDate to, int limit) {
+        update();
+        int[] loans = from == null && to == null ? bookLoans
+                : count(from, to, bookCount, (totals, row) -> totals[loanBook[row]]++);
+        List<BookRank> result = new ArrayList<>();
+        for (int book : top(bookCount, row -> loans[row], limit)) {
+            Isbn isbn = Isbn.of(bookIsbn[book]);
+            result.add(new BookRank(isbn, library.findByIsbn(isbn), loans[book]));
+        }
+        return result;
+    }
+
+    // Самые выдаваемые авторы за период (по всем их книгам)
+    public synchronized List<AuthorStats> topAuthors(LocalDate from, LocalDate to, int limit) {
+        update();
+        int[] totals = authorTotals(from, to);
+        List<AuthorStats> result = new ArrayList<>();
+        for (int author : top(authors.size(), row -> totals[row * 2], limit)) {
+            result.add(new AuthorStats(authors.get(author), totals[author * 2], totals[author * 2 + 1]));
+        }
+        return result;
+    }
+
+    // Доля просроченных выдач по авторам за период: возвращены позже срока или на
+    // руках после срока. Авторы с числом выдач не меньше minLoans, не больше limit,
+    // по убыванию доли
+    public synchronized List<AuthorStats> overdueByAuthor(LocalDate from, LocalDate to, int minLoans, int limit) {
+        update();
+        int[] totals = authorTotals(from, to);
+        List<AuthorStats> result = new ArrayList<>();
+        for (int author = 0; author < authors.size(); author++) {
+            if (totals[author * 2] > 0 && totals[author * 2] >= minLoans) {
+                result.add(new AuthorStats(authors.get(author), totals[author * 2], totals[author * 2 + 1]));
+            }
+        }
+        result.sort(Comparator.comparingDouble(AuthorStats::getOverdueRate).reversed()
+                .thenComparing(Comparator.comparingInt(AuthorStats::getLoans).reversed()));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    // Выдачи и просрочки по авторам: [2 * автор] — выдачи, [2 * автор + 1] — просрочки.
+    // Без периода — из счётчиков и выдач на руках, без обхода архива.
+    private int[] authorTotals(LocalDate from, LocalDate to) {
+        int asOf = (int) LocalDate.now(clock).toEpochDay();
+        int width = authors.size() * 2;
+        if (from == null && to == null) {
+            int[] totals = new int[width];
+            for (int author = 0; author < authors.size(); author++) {
+                totals[author * 2] = authorLoans[author];
+                totals[author * 2 + 1] = authorLate[author];
+            }
+            openLoans.forEachValue(row -> {
+                int author = bookAuthor[loanBook[row]];
+                if (author != NO_AUTHOR && dueDay[row] < asOf) totals[author * 2 + 1]++;
+            });
+            return totals;
+        }
+        return count(from, to, width, (totals, row) -> {
+            int author = bookAuthor[loanBook[row]];
+            if (author == NO_AUTHOR) return;
+            totals[author * 2]++;
+            int returned = returnDay[row];
+            if (returned == OPEN ? dueDay[row] < asOf : returned > dueDay[row]) totals[author * 2 + 1]++;
+        });
+    }
+
+    private interface RowCounter {
+        void count(int[] totals, int row);
+    }
+
+    // Обойти выдачи с днём выдачи в [from, to]: упорядоченную часть — от границы,
+    // найденной двоичным поиском, дописанные позже — целиком. Обход делится на части
+    // по числу потоков общего пула; счётчики частей складываются.
+    private int[] count(LocalDate from, LocalDate to, int width, RowCounter counter) {
+        int fromDay = from == null ? Integer.MIN_VALUE : (int) from.toEpochDay();
+        int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+        int lo = firstIssuedOnOrAfter(fromDay);
+        int hi = toDay == Integer.MAX_VALUE ? sortedCount : firstIssuedOnOrAfter(toDay + 1);
+        int sorted = Math.max(0, hi - lo);
+        int rows = sorted + loanCount - sortedCount;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), rows / MIN_CHUNK_ROWS));
+        return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            int[] totals = new int[width];
+            int end = (int) ((long) rows * (chunk + 1) / chunks);
+            for (int i = (int) ((long) rows * chunk / chunks); i < end; i++) {
+                int row = i < sorted ? lo + i : sortedCount + i - sorted;
+                int day = issueDay[row];
+                if (day >= fromDay && day <= toDay) counter.count(totals, row);
+            }
+            return totals;
+        }).reduce((a, b) -> {
+            for (int i = 0; i < a.length; i++) a[i] += b[i];
+            return a;
+        }).orElseGet(() -> new int[width]);
+    }
+
+    // Первая строка упорядоченной части с днём выдачи не раньше day
+    private int firstIssuedOnOrAfter(int day) {
+        int low = 0;
+        int high = sortedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (issueDay[mid] < day) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // Номера limit строк с наибольшим положительным значением, по убыванию (при
+    // равенстве — меньший номер раньше). Каждая часть строк отбирает свои limit
+    // в куче, затем кучи сливаются.
+    private static int[] top(int size, IntToLongFunction value, int limit) {
+        if (limit <= 0) return new int[0];
+        return IntStream.range(0, size).parallel()
+                .collect(() -> new TopK(limit), (heap, row) -> heap.offer(row, value.applyAsLong(row)), TopK::addAll)
+                .sorted();
+    }
+
+    // Куча на k элементов с наименьшим из отобранных в корне
+    private static class TopK {
+        final int[] rows;
+        final long[] values;
+        int size;
+
+        TopK(int k) {
+            rows = new int[k];
+            values = new long[k];
+        }
+
+        void offer(int row, long value) {
+            if (value <= 0) return;
+            if (size < rows.length) {
+                rows[size] = row;
+                values[size] = value;
+                siftUp(size++);
+            } else if (before(row, value, rows[0], values[0])) {
+                rows[0] = row;
+                values[0] = value;
+                siftDown(0);
+            }
+        }
+
+        void addAll(TopK other) {
+            for (int i = 0; i < other.size; i++) offer(other.rows[i], other.values[i]);
+        }
+
+        int[] sorted() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> before(rows[a], values[a], rows[b], values[b]) ? -1 : 1);
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) result[i] = rows[order[i]];
+            return result;
+        }
+
+        // Строка a идёт в отчёте раньше строки b
+        private static boolean before(int a, long valueA, int b, long valueB) {
+            return valueA > valueB || valueA == valueB && a < b;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!before(rows[parent], values[parent], rows[i], values[i])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && before(rows[child], values[child], rows[child + 1], values[child + 1])) child++;
+                if (!before(rows[i], values[i], rows[child], values[child])) break;
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    // Отписаться от событий библиотеки
+    @Override
+    public void close() {
+        library.removeListener(listener);
+    }
+}
@@ -0,0 +1,151 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Компактный снимок каталога в памяти для очень больших каталогов. Вместо объекта
+// Book с четырьмя строками на книгу — параллельные массивы примитивов:
+//   ISBN хранится своим 13-значным числом в long[],
+//   авторы закодированы словарём, названия лежат в одном массиве байт UTF-8,
+//   годы — в short[], признак «в библиотеке» — в BitSet.
+// Объекты Book создаются только по запросу (book, findByIsbn).
+public class CompactCatalog {
+    private int size;
+    private long[] isbnKeys;
+    private int[] authorIds;
+    private short[] years;
+    private int[] titleOffsets;
+    private byte[] titleBytes;
+    private int titleLength;
+    private final BitSet available = new BitSet();
+    private String[] authors = new String[16];
+    private int authorCount;
+
+    // Номер книги по ISBN
+    private IsbnMap index;
+
+    private CompactCatalog(int capacity) {
+        isbnKeys = new long[capacity];
+        authorIds = new int[capacity];
+        years = new short[capacity];
+        titleOffsets = new int[capacity + 1];
+        titleBytes = new byte[capacity * 32];
+    }
+
+    // Построить снимок из потока книг (например, Library.streamBooks()); поток закрывается
+    public static CompactCatalog from(Stream<Book> books) {
+        CompactCatalog catalog = new CompactCatalog(1024);
+        Map<String, Integer> authorDictionary = new HashMap<>();
+        try (books) {
+            books.forEach(book -> catalog.add(book, authorDictionary));
+        }
+        catalog.trim();
+        catalog.buildIndex();
+        return catalog;
+    }
+
+    private void add(Book book, Map<String, Integer> authorDictionary) {
+        if (size == isbnKeys.length) {
+            int capacity = size * 2;
+            isbnKeys = Arrays.copyOf(isbnKeys, capacity);
+            authorIds = Arrays.copyOf(authorIds, capacity);
+            years = Arrays.copyOf(years, capacity);
+            titleOffsets = Arrays.copyOf(titleOffsets, capacity + 1);
+        }
+        int row = size++;
+
+        isbnKeys[row] = book.getIsbn().value();
+
+        Integer authorId = authorDictionary.get(book.getAuthor());
+        if (authorId == null) {
+            if (authorCount == authors.length) authors = Arrays.copyOf(authors, authorCount * 2);
+            authorId = authorCount;
+            authors[authorCount++] = book.getAuthor();
+            authorDictionary.put(book.getAuthor(), authorId);
+        }
+        authorIds[row] = authorId;
+
+        byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+        if (titleLength + title.length > titleBytes.length) {
+            titleBytes = Arrays.copyOf(titleBytes, Math.max(titleBytes.length * 2, titleLength + title.length));
+        }
+        System.arraycopy(title, 0, titleBytes, titleLength, title.length);
+        titleLength += title.length;
+        titleOffsets[row + 1] = titleLength;
+
+        years[row] = (short) book.getYear();
+        available.set(row, book.isAvailable());
+    }
+
+    private void trim() {
+        isbnKeys = Arrays.copyOf(isbnKeys, size);
+        authorIds = Arrays.copyOf(authorIds, size);
+        years = Arrays.copyOf(years, size);
+        titleOffsets = Arrays.copyOf(titleOffsets, size + 1);
+        titleBytes = Arrays.copyOf(titleBytes, titleLength);
+        authors = Arrays.copyOf(authors, authorCount);
+    }
+
+    private void buildIndex() {
+        index = new IsbnMap(size);
+        for (int row = 0; row < size; row++) {
+            index.put(isbnKeys[row], row);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Номер книги с данным ISBN или -1
+    public int indexOf(Isbn isbn) {
+        return index.get(isbn.value());
+    }
+
+    public Book findByIsbn(Isbn isbn) {
+        int row = indexOf(isbn);
+        return row < 0 ? null : book(row);
+    }
+
+    // Объект Book для книги с номером row (создаётся при каждом вызове)
+    public Book book(int row) {
+        return new Book(isbn(row), title(row), author(row), year(row), isAvailable(row));
+    }
+
+    public Isbn isbn(int row) {
+        return Isbn.of(isbnKeys[row]);
+    }
+
+    // ISBN как число, без создания объекта
+    public long isbnValue(int row) {
+        return isbnKeys[row];
+    }
+
+    public String title(int row) {
+        return new String(titleBytes, titleOffsets[row], titleOffsets[row + 1] - titleOffsets[row], StandardCharsets.UTF_8);
+    }
+
+    // Строка автора из словаря: у всех книг одного автора это один объект
+    public String author(int row) {
+        return authors[authorIds[row]];
+    }
+
+    public int year(int row) {
+        return years[row];
+    }
+
+    public boolean isAvailable(int row) {
+        return available.get(row);
+    }
+
+    // Отразить выдачу или возврат в снимке
+    public void setAvailable(int row, boolean value) {
+        available.set(row, value);
+    }
+
+    public int authorCount() {
+        return authorCount;
+    }
+}
@@ -0,0 +1,97 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Пул соединений SQLite: одно пишущее соединение и несколько только для чтения.
+// База переводится в режим WAL, поэтому чтение не ждёт завершения записи.
+public class ConnectionPool {
+    private static final int STATEMENT_CACHE_SIZE = 64;
+    private static final int BUSY_TIMEOUT_MS = 5000;
+
+    private final PooledConnection writer;
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final BlockingQueue<PooledConnection> readers;
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+    private final Set<String> issuedSql; // null — тексты SQL не собираются
+
+    public ConnectionPool(String url, int readerCount) throws SQLException {
+        this(url, readerCount, false);
+    }
+
+    // recordSql — собирать тексты SQL, подготовленные через пул (для проверки планов
+    // запросов). В обычной работе выключено: множество росло бы с каждым новым текстом.
+    ConnectionPool(String url, int readerCount, boolean recordSql) throws SQLException {
+        issuedSql = recordSql ? ConcurrentHashMap.newKeySet() : null;
+        Connection writerConn = DriverManager.getConnection(url);
+        try (Statement stmt = writerConn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode = WAL");
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+        }
+        writer = new PooledConnection(this, writerConn, STATEMENT_CACHE_SIZE, true);
+
+        readers = new ArrayBlockingQueue<>(readerCount);
+        try {
+            for (int i = 0; i < readerCount; i++) {
+                Connection readerConn = DriverManager.getConnection(url);
+                try (Statement stmt = readerConn.createStatement()) {
+                    stmt.execute("PRAGMA query_only = ON");
+                    stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+                }
+                PooledConnection reader = new PooledConnection(this, readerConn, STATEMENT_CACHE_SIZE, false);
+                allReaders.add(reader);
+                readers.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Пишущее соединение выдаётся одному потоку за раз (повторный вход разрешён)
+    public PooledConnection writer() {
+        writerLock.lock();
+        return writer;
+    }
+
+    // Соединение только для чтения; ждёт, если все заняты
+    public PooledConnection reader() throws SQLException {
+        try {
+            return readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано");
+        }
+    }
+
+    // Собранные тексты SQL (пусто, если пул их не собирает)
+    Set<String> getIssuedSql() {
+        return issuedSql == null ? Set.of() : Set.copyOf(issuedSql);
+    }
+
+    void recordSql(String sql) {
+        if (issuedSql != null) issuedSql.add(sql);
+    }
+
+    void release(PooledConnection conn) {
+        if (conn.isWriter()) {
+            writerLock.unlock();
+        } else {
+            readers.offer(conn);
+        }
+    }
+
+    public void close() {
+        for (PooledConnection reader : allReaders) {
+            reader.closePhysical();
+        }
+        writer.closePhysical();
+    }
+}
@@ -0,0 +1,131 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Метрики по умолчанию: статистика по каждой операции и журнал медленных операций
+// (операция, параметры, время и тексты запросов). После registerMBeans всё это
+// видно в JConsole/VisualVM в домене "library".
+public class DefaultLibraryMetrics implements LibraryMetrics, DefaultLibraryMetricsMBean {
+    private static final long DEFAULT_SLOW_THRESHOLD_MS = 200;
+    private static final int RECENT_SLOW_OPERATIONS = 50;
+
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final Deque<String> recentSlow = new ArrayDeque<>();
+    private volatile long slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_THRESHOLD_MS);
+    private volatile String jmxName;
+
+    @Override
+    public void record(OperationTrace trace) {
+        OperationStats stats = operations.get(trace.getOperation());
+        if (stats == null) stats = operations.computeIfAbsent(trace.getOperation(), this::newStats);
+        stats.record(trace);
+        if (trace.getElapsedNanos() >= slowThresholdNanos) logSlow(trace);
+    }
+
+    // Статистика операции (null, если она ещё не вызывалась)
+    public OperationStats getStats(String operation) {
+        return operations.get(operation);
+    }
+
+    // Статистика всех вызывавшихся операций по имени
+    public Map<String, OperationStats> getAllStats() {
+        return new TreeMap<>(operations);
+    }
+
+    @Override
+    public long getSlowThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    @Override
+    public void setSlowThresholdMillis(long millis) {
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public String[] getOperationNames() {
+        return getAllStats().keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getRecentSlowOperations() {
+        synchronized (recentSlow) {
+            return recentSlow.toArray(new String[0]);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (OperationStats stats : operations.values()) stats.reset();
+        synchronized (recentSlow) {
+            recentSlow.clear();
+        }
+    }
+
+    // Зарегистрировать MBean метрик и операций под именем library:name=<name>
+    public void registerMBeans(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName("library:type=Metrics,name=" + ObjectName.quote(name)));
+            jmxName = name;
+            for (OperationStats stats : operations.values()) register(stats);
+        } catch (JMException e) {
+            System.out.println("Ошибка регистрации метрик в JMX: " + e.getMessage());
+        }
+    }
+
+    public void unregisterMBeans() {
+        String name = jmxName;
+        if (name == null) return;
+        jmxName = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        List<ObjectName> names = new ArrayList<>();
+        try {
+            names.add(new ObjectName("library:type=Metrics,name=" + ObjectName.quote(name)));
+            for (String operation : operations.keySet()) names.add(operationName(name, operation));
+            for (ObjectName objectName : names) {
+                if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Ошибка отмены регистрации метрик в JMX: " + e.getMessage());
+        }
+    }
+
+    private OperationStats newStats(String operation) {
+        OperationStats stats = new OperationStats(operation);
+        if (jmxName != null) register(stats);
+        return stats;
+    }
+
+    private void register(OperationStats stats) {
+        try {
+            ObjectName objectName = operationName(jmxName, stats.getOperation());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) server.registerMBean(stats, objectName);
+        } catch (JMException e) {
+            System.out.println("Ошибка регистрации метрик в JMX: " + e.getMessage());
+        }
+    }
+
+    private static ObjectName operationName(String name, String operation) throws JMException {
+        return new ObjectName("library:type=Operation,name=" + ObjectName.quote(name) + ",operation=" + operation);
+    }
+
+    private void logSlow(OperationTrace trace) {
+        String entry = "Медленная операция: " + trace;
+        System.out.println(entry);
+        synchronized (recentSlow) {
+            if (recentSlow.size() == RECENT_SLOW_OPERATIONS) recentSlow.removeFirst();
+            recentSlow.addLast(entry);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+// Общие настройки и журнал медленных операций, доступные через JMX
+public interface DefaultLibraryMetricsMBean {
+    long getSlowThresholdMillis();
+
+    void setSlowThresholdMillis(long millis);
+
+    String[] getOperationNames();
+
+    String[] getRecentSlowOperations();
+
+    void reset();
+}
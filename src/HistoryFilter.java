@@ -0,0 +1,81 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Условие отбора записей архива выдач: читатель, книга и диапазон дат возврата.
+// Диапазон дат ещё и ограничивает, таблицы каких месяцев читаются.
+// Неизменяемый: каждый метод возвращает новый фильтр.
+public class HistoryFilter {
+    private static final HistoryFilter ALL = new HistoryFilter(null, null, null, null);
+
+    private final String readerId;
+    private final Isbn isbn;
+    private final LocalDate returnedFrom;
+    private final LocalDate returnedTo;
+
+    private HistoryFilter(String readerId, Isbn isbn, LocalDate returnedFrom, LocalDate returnedTo) {
+        this.readerId = readerId;
+        this.isbn = isbn;
+        this.returnedFrom = returnedFrom;
+        this.returnedTo = returnedTo;
+    }
+
+    // Весь архив
+    public static HistoryFilter all() {
+        return ALL;
+    }
+
+    // Выдачи одного читателя
+    public HistoryFilter reader(String readerId) {
+        return new HistoryFilter(readerId, isbn, returnedFrom, returnedTo);
+    }
+
+    // Выдачи одной книги
+    public HistoryFilter book(Isbn isbn) {
+        return new HistoryFilter(readerId, isbn, returnedFrom, returnedTo);
+    }
+
+    // Книга возвращена в пределах [from, to]; null — без ограничения с этой стороны
+    public HistoryFilter returnedBetween(LocalDate from, LocalDate to) {
+        return new HistoryFilter(readerId, isbn, from, to);
+    }
+
+    LocalDate getReturnedFrom() { return returnedFrom; }
+    LocalDate getReturnedTo() { return returnedTo; }
+
+    // Условие WHERE для таблицы одного месяца; первым идёт ключ продолжения
+    // (return_date, loan_id), с которого читается страница
+    String whereClause() {
+        StringBuilder sb = new StringBuilder("WHERE (return_date, loan_id) > (?, ?)");
+        if (readerId != null) sb.append(" AND reader_id = ?");
+        if (isbn != null) sb.append(" AND book_isbn = ?");
+        if (returnedFrom != null) sb.append(" AND return_date >= ?");
+        if (returnedTo != null) sb.append(" AND return_date <= ?");
+        return sb.toString();
+    }
+
+    // Параметры условия начиная с index; after == null — с начала.
+    // Возвращает номер следующего параметра.
+    int bind(PreparedStatement pstmt, LoanRecord after, int index) throws SQLException {
+        pstmt.setString(index++, after == null ? "" : after.getReturnDate().toString());
+        pstmt.setLong(index++, after == null ? 0 : after.getLoanId());
+        if (readerId != null) pstmt.setString(index++, readerId);
+        if (isbn != null) pstmt.setLong(index++, isbn.value());
+        if (returnedFrom != null) pstmt.setString(index++, returnedFrom.toString());
+        if (returnedTo != null) pstmt.setString(index++, returnedTo.toString());
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        if (readerId != null) parts.add("читатель " + readerId);
+        if (isbn != null) parts.add("книга " + isbn);
+        if (returnedFrom != null || returnedTo != null) {
+            parts.add("возврат " + (returnedFrom == null ? "…" : returnedFrom) + "–" + (returnedTo == null ? "…" : returnedTo));
+        }
+        return parts.isEmpty() ? "весь архив" : String.join(", ", parts);
+    }
+}
@@ -0,0 +1,104 @@
+// ISBN как значение: разбирается и проверяется один раз, хранится как 13-значное
+// число (ISBN-10 переводится в ISBN-13 с префиксом 978). Дефисы и пробелы при
+// разборе игнорируются, поэтому "978-5-17-095634-0" и "9785170956340" — одна книга.
+public final class Isbn implements Comparable<Isbn> {
+    private static final long MIN_VALUE = 1_000_000_000_000L;
+    private static final long MAX_VALUE = 9_999_999_999_999L;
+
+    private final long value;
+
+    private Isbn(long value) {
+        this.value = value;
+    }
+
+    // Строгий разбор: 10 или 13 цифр (в ISBN-10 последней может быть X) и верная контрольная цифра
+    public static Isbn parse(String text) {
+        Isbn isbn = parse(text, true);
+        if (isbn == null) throw new IllegalArgumentException("некорректный ISBN: " + text);
+        return isbn;
+    }
+
+    // Разбор без проверки контрольной цифры — для поиска книг, внесённых до проверки ISBN.
+    // null, если текст не похож на ISBN
+    public static Isbn parseLenient(String text) {
+        return parse(text, false);
+    }
+
+    // ISBN из значения ключа в БД
+    public static Isbn of(long value) {
+        if (value < MIN_VALUE || value > MAX_VALUE) {
+            throw new IllegalArgumentException("некорректный ISBN: " + value);
+        }
+        return new Isbn(value);
+    }
+
+    public static boolean isValid(String text) {
+        return text != null && parse(text, true) != null;
+    }
+
+    private static Isbn parse(String text, boolean checkDigit) {
+        if (text == null) return null;
+        char[] digits = new char[13];
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '-' || c == ' ') continue;
+            boolean lastOfTen = count == 9 && (c == 'X' || c == 'x');
+            if (count == 13 || !(c >= '0' && c <= '9' || lastOfTen)) return null;
+            digits[count++] = lastOfTen ? 'X' : c;
+        }
+        if (count == 10) {
+            if (checkDigit && checkDigit10(digits) != digits[9]) return null;
+            System.arraycopy(digits, 0, digits, 3, 9);
+            digits[0] = '9';
+            digits[1] = '7';
+            digits[2] = '8';
+            digits[12] = checkDigit13(digits);
+        } else if (count == 13) {
+            if (digits[9] == 'X') return null; // X — только последняя цифра ISBN-10
+            if (checkDigit && checkDigit13(digits) != digits[12]) return null;
+        } else {
+            return null;
+        }
+        long value = 0;
+        for (int i = 0; i < 13; i++) value = value * 10 + (digits[i] - '0');
+        return value < MIN_VALUE ? null : new Isbn(value);
+    }
+
+    private static char checkDigit10(char[] digits) {
+        int sum = 0;
+        for (int i = 0; i < 9; i++) sum += (digits[i] - '0') * (10 - i);
+        int check = (11 - sum % 11) % 11;
+        return check == 10 ? 'X' : (char) ('0' + check);
+    }
+
+    private static char checkDigit13(char[] digits) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) sum += (digits[i] - '0') * (i % 2 == 0 ? 1 : 3);
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+
+    public long value() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(Isbn other) {
+        return Long.compare(value, other.value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Isbn && ((Isbn) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
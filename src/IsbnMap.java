@@ -0,0 +1,116 @@
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+// Хеш-таблица с открытой адресацией: ISBN (long) -> неотрицательное int
+// (например, номер строки). Ключи и значения хранятся в массивах примитивов,
+// без объектов на запись. Не потокобезопасна.
+public class IsbnMap {
+    private static final long EMPTY = 0; // значение ISBN-13 не бывает нулём
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public IsbnMap() {
+        this(16);
+    }
+
+    public IsbnMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 4 / 3)) * 2;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Значение по ключу или -1
+    public int get(long isbn) {
+        int mask = keys.length - 1;
+        for (int slot = slotOf(isbn, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == isbn) return values[slot];
+        }
+        return -1;
+    }
+
+    public boolean containsKey(long isbn) {
+        return get(isbn) >= 0;
+    }
+
+    public void put(long isbn, int value) {
+        if (isbn == EMPTY) throw new IllegalArgumentException("ISBN не может быть нулём");
+        if (value < 0) throw new IllegalArgumentException("значение должно быть неотрицательным");
+        if ((size + 1) * 4 > keys.length * 3) resize(keys.length * 2);
+        int mask = keys.length - 1;
+        int slot = slotOf(isbn, mask);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == isbn) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = isbn;
+        values[slot] = value;
+        size++;
+    }
+
+    // Удаление со сдвигом следующих записей цепочки (без «надгробий»)
+    public int remove(long isbn) {
+        int mask = keys.length - 1;
+        int slot = slotOf(isbn, mask);
+        while (keys[slot] != isbn) {
+            if (keys[slot] == EMPTY) return -1;
+            slot = (slot + 1) & mask;
+        }
+        int removed = values[slot];
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slotOf(keys[next], mask);
+            // запись можно перенести в дыру, если её «родная» ячейка не между дырой и ней
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        size--;
+        return removed;
+    }
+
+    // Передать все значения (порядок не определён)
+    public void forEachValue(IntConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) action.accept(values[i]);
+        }
+    }
+
+    // Заменить каждое значение (например, номера строк после перестановки)
+    public void replaceAll(IntUnaryOperator function) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) values[i] = function.applyAsInt(values[i]);
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int slotOf(long isbn, int mask) {
+        return (int) ((isbn * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    @Override
+    public String toString() {
+        return "IsbnMap[" + size + " из " + keys.length + "]";
+    }
+}
@@ -1,305 +1,983 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
-public class Library {
-    private Connection conn;
+public class Library implements StorageEngine {
+    private static final String DEFAULT_URL = "jdbc:sqlite:library.db";
+    private static final int DEFAULT_BOOK_CACHE_SIZE = 10_000;
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private ConnectionPool pool;
+    private WriteQueue writes;
+    private LoanHistory history;
+    private final BookCache bookCache;
+    private final LibraryMetrics metrics;
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
 
     public Library() {
-        try {
-            conn = DriverManager.getConnection("jdbc:sqlite:library.db");
-            createTables();
-        } catch (SQLException e) {
-            System.out.println("Ошибка подключения к БД: " + e.getMessage());
-        }
+        this(DEFAULT_URL);
     }
 
-    private void createTables() throws SQLException {
-        String sqlBooks = "CREATE TABLE IF NOT EXISTS books (" +
-                "isbn TEXT PRIMARY KEY, " +
-                "title TEXT NOT NULL, " +
-                "author TEXT NOT NULL, " +
-                "year INTEGER NOT NULL, " +
-                "available BOOLEAN NOT NULL DEFAULT TRUE" +
-                ");";
+    public Library(String url) {
+        this(url, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
 
-        String sqlReaders = "CREATE TABLE IF NOT EXISTS readers (" +
-                "id TEXT PRIMARY KEY, " +
-                "name TEXT NOT NULL" +
-                ");";
+    public Library(String url, int readerConnections) {
+        this(url, readerConnections, DEFAULT_BOOK_CACHE_SIZE);
+    }
+
+    public Library(String url, int readerConnections, int bookCacheSize) {
+        this(url, readerConnections, bookCacheSize, new DefaultLibraryMetrics());
+    }
 
-        String sqlLoans = "CREATE TABLE IF NOT EXISTS loans (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "book_isbn TEXT NOT NULL, " +
-                "reader_id TEXT NOT NULL, " +
-                "issue_date TEXT NOT NULL, " +
-                "due_date TEXT NOT NULL, " +
-                "FOREIGN KEY (book_isbn) REFERENCES books(isbn), " +
-                "FOREIGN KEY (reader_id) REFERENCES readers(id)" +
-                ");";
+    public Library(LibraryMetrics metrics) {
+        this(DEFAULT_URL, Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_BOOK_CACHE_SIZE, metrics);
+    }
 
-        try (Statement stmt = conn.createStatement()) {
-            stmt.execute(sqlBooks);
-            stmt.execute(sqlReaders);
-            stmt.execute(sqlLoans);
+    public Library(String url, int readerConnections, int bookCacheSize, LibraryMetrics metrics) {
+        this(url, readerConnections, bookCacheSize, metrics, false);
+    }
+
+    // recordSql — собирать тексты выполненных SQL (см. issuedSql()).
+    // Если БД не открылась или схему не удалось обновить, бросает IllegalStateException:
+    // наполовину открытая Library не отдаётся.
+    Library(String url, int readerConnections, int bookCacheSize, LibraryMetrics metrics, boolean recordSql) {
+        this.metrics = metrics;
+        bookCache = new BookCache(bookCacheSize);
+        try {
+            pool = new ConnectionPool(url, readerConnections, recordSql);
+            try (PooledConnection c = pool.writer()) {
+                SchemaMigrations.migrate(c.connection());
+            }
+            writes = new WriteQueue(pool);
+            history = new LoanHistory(pool, writes);
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException("Ошибка подключения к БД: " + e.getMessage(), e);
         }
     }
 
     // Добавить книгу
     public void addBook(Book book) throws LibraryException {
         String sql = "INSERT INTO books (isbn, title, author, year, available) VALUES (?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, book.getIsbn());
-            pstmt.setString(2, book.getTitle());
-            pstmt.setString(3, book.getAuthor());
-            pstmt.setInt(4, book.getYear());
-            pstmt.setBoolean(5, true);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new LibraryException("Ошибка добавления книги: " + e.getMessage());
+        OperationTrace trace = trace("addBook", book.getIsbn());
+        try {
+            writes.execute("Ошибка добавления книги: ", c -> {
+                PreparedStatement pstmt = c.prepare(sql);
+                pstmt.setLong(1, book.getIsbn().value());
+                pstmt.setString(2, book.getTitle());
+                pstmt.setString(3, book.getAuthor());
+                pstmt.setInt(4, book.getYear());
+                pstmt.setBoolean(5, true);
+                return pstmt.executeUpdate();
+            }, rows -> {
+                bookCache.put(book.withAvailable(true));
+                publish(LibraryEvent.bookAdded(book.withAvailable(true)));
+            });
+        } finally {
+            trace.close();
         }
     }
 
     // Удалить книгу
-    public void deleteBook(String isbn) throws LibraryException {
+    public void deleteBook(Isbn isbn) throws LibraryException {
         String sql = "DELETE FROM books WHERE isbn = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, isbn);
-            int rows = pstmt.executeUpdate();
-            if (rows == 0) throw new LibraryException("Книга не найдена");
-        } catch (SQLException e) {
-            throw new LibraryException("Ошибка удаления книги: " + e.getMessage());
+        OperationTrace trace = trace("deleteBook", isbn);
+        try {
+            writes.execute("Ошибка удаления книги: ", c -> {
+                PreparedStatement pstmt = c.prepare(sql);
+                pstmt.setLong(1, isbn.value());
+                int rows = pstmt.executeUpdate();
+                if (rows == 0) throw new LibraryException("Книга не найдена");
+                return rows;
+            }, rows -> {
+                bookCache.invalidate(isbn);
+                publish(LibraryEvent.bookRemoved(isbn));
+            });
+        } finally {
+            trace.close();
         }
     }
 
     // Зарегистрировать читателя
     public void registerReader(Reader reader) throws LibraryException {
         String sql = "INSERT INTO readers (id, name) VALUES (?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, reader.getId());
-            pstmt.setString(2, reader.getName());
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new LibraryException("Ошибка регистрации читателя: " + e.getMessage());
+        OperationTrace trace = trace("registerReader", reader.getId());
+        try {
+            writes.execute("Ошибка регистрации читателя: ", c -> {
+                PreparedStatement pstmt = c.prepare(sql);
+                pstmt.setString(1, reader.getId());
+                pstmt.setString(2, reader.getName());
+                return pstmt.executeUpdate();
+            }, rows -> publish(LibraryEvent.readerRegistered(reader)));
+        } finally {
+            trace.close();
         }
     }
 
     // Удалить читателя
     public void deleteReader(String id) throws LibraryException {
         String sql = "DELETE FROM readers WHERE id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, id);
-            int rows = pstmt.executeUpdate();
-            if (rows == 0) throw new LibraryException("Читатель не найден");
-        } catch (SQLException e) {
-            throw new LibraryException("Ошибка удаления читателя: " + e.getMessage());
+        OperationTrace trace = trace("deleteReader", id);
+        try {
+            writes.execute("Ошибка удаления читателя: ", c -> {
+                PreparedStatement pstmt = c.prepare(sql);
+                pstmt.setString(1, id);
+                int rows = pstmt.executeUpdate();
+                if (rows == 0) throw new LibraryException("Читатель не найден");
+                return rows;
+            }, rows -> publish(LibraryEvent.readerRemoved(id)));
+        } finally {
+            trace.close();
         }
     }
 
-    // Выдать книгу
-    public void lendBook(String isbn, String readerId) throws LibraryException {
-        Book book = findByIsbn(isbn);
-        if (book == null) throw new LibraryException("Книга не найдена");
-        if (!book.isAvailable()) throw new LibraryException("Книга уже выдана");
+    // Выдать книгу. Статус меняется условным UPDATE: успех определяется числом
+    // изменённых строк, поэтому проверка и запись атомарны.
+    public void lendBook(Isbn isbn, String readerId) throws LibraryException {
+        OperationTrace trace = trace("lendBook", isbn, readerId);
+        try {
+            writes.transaction("Ошибка выдачи книги: ", lendTask(isbn, readerId), v -> lent(isbn, readerId));
+        } finally {
+            trace.close();
+        }
+    }
 
-        Reader reader = getReader(readerId);
-        if (reader == null) throw new LibraryException("Читатель не найден");
+    // Выдать книгу без ожидания: результат завершается после фиксации выдачи
+    // (в режиме группового коммита — вместе с другими операциями группы)
+    public CompletableFuture<Void> lendBookAsync(Isbn isbn, String readerId) {
+        OperationTrace trace = trace("lendBookAsync", isbn, readerId);
+        CompletableFuture<Void> result = writes.transactionAsync("Ошибка выдачи книги: ", lendTask(isbn, readerId),
+                v -> lent(isbn, readerId));
+        return finishAsync(trace, result);
+    }
 
-        String sqlUpdateBook = "UPDATE books SET available = FALSE WHERE isbn = ?";
-        String sqlInsertLoan = "INSERT INTO loans (book_isbn, reader_id, issue_date, due_date) VALUES (?, ?, ?, ?)";
+    private WriteQueue.WriteTask<Void> lendTask(Isbn isbn, String readerId) {
+        String sqlUpdateBook = "UPDATE books SET available = FALSE WHERE isbn = ? AND available = TRUE";
+        String sqlInsertLoan = "INSERT INTO loans (book_isbn, reader_id, issue_date, due_date) " +
+                "SELECT ?, id, ?, ? FROM readers WHERE id = ?";
 
         LocalDate now = LocalDate.now();
         LocalDate due = now.plusDays(14);
 
+        return c -> {
+            PreparedStatement pstmtBook = c.prepare(sqlUpdateBook);
+            pstmtBook.setLong(1, isbn.value());
+            if (pstmtBook.executeUpdate() == 0) {
+                if (findByIsbn(c, isbn) == null) throw new LibraryException("Книга не найдена");
+                throw new LibraryException("Книга уже выдана");
+            }
+
+            // Выдача вставляется только для существующего читателя
+            PreparedStatement pstmtLoan = c.prepare(sqlInsertLoan);
+            pstmtLoan.setLong(1, isbn.value());
+            pstmtLoan.setString(2, now.toString());
+            pstmtLoan.setString(3, due.toString());
+            pstmtLoan.setString(4, readerId);
+            if (pstmtLoan.executeUpdate() == 0) throw new LibraryException("Читатель не найден");
+            return null;
+        };
+    }
+
+    // Вернуть книгу
+    public void returnBook(Isbn isbn, String readerId) throws LibraryException {
+        OperationTrace trace = trace("returnBook", isbn, readerId);
         try {
-            conn.setAutoCommit(false);
-            try (PreparedStatement pstmtBook = conn.prepareStatement(sqlUpdateBook);
-                 PreparedStatement pstmtLoan = conn.prepareStatement(sqlInsertLoan)) {
-                pstmtBook.setString(1, isbn);
-                pstmtBook.executeUpdate();
+            writes.transaction("Ошибка возврата книги: ", returnTask(isbn, readerId, LocalDate.now()),
+                    v -> returned(isbn, readerId));
+        } finally {
+            trace.close();
+        }
+    }
 
-                pstmtLoan.setString(1, isbn);
-                pstmtLoan.setString(2, readerId);
-                pstmtLoan.setString(3, now.toString());
-                pstmtLoan.setString(4, due.toString());
-                pstmtLoan.executeUpdate();
+    // Вернуть книгу без ожидания
+    public CompletableFuture<Void> returnBookAsync(Isbn isbn, String readerId) {
+        OperationTrace trace = trace("returnBookAsync", isbn, readerId);
+        CompletableFuture<Void> result;
+        try {
+            result = writes.transactionAsync("Ошибка возврата книги: ", returnTask(isbn, readerId, LocalDate.now()),
+                    v -> returned(isbn, readerId));
+        } catch (LibraryException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return finishAsync(trace, result);
+    }
 
-                conn.commit();
+    // Возврат переносит выдачу из loans в буфер архива (таблица месяца возврата
+    // создаётся заранее, вне транзакции возврата)
+    private WriteQueue.WriteTask<Void> returnTask(Isbn isbn, String readerId, LocalDate today) throws LibraryException {
+        history.ensurePartition(today);
+        String sqlUpdateBook = "UPDATE books SET available = TRUE WHERE isbn = ? AND available = FALSE";
+        String sqlArchiveLoan = LoanHistory.archiveSql("WHERE book_isbn = ? AND reader_id = ?");
+        String sqlDeleteLoan = "DELETE FROM loans WHERE book_isbn = ? AND reader_id = ?";
+
+        return c -> {
+            PreparedStatement pstmtBook = c.prepare(sqlUpdateBook);
+            pstmtBook.setLong(1, isbn.value());
+            if (pstmtBook.executeUpdate() == 0) {
+                if (findByIsbn(c, isbn) == null) throw new LibraryException("Книга не найдена");
+                throw new LibraryException("Книга и так в библиотеке");
             }
-        } catch (SQLException e) {
-            try {
-                conn.rollback();
-            } catch (SQLException ex) {
-                // ignore
+
+            PreparedStatement pstmtArchive = c.prepare(sqlArchiveLoan);
+            pstmtArchive.setString(1, today.toString());
+            pstmtArchive.setLong(2, isbn.value());
+            pstmtArchive.setString(3, readerId);
+            if (pstmtArchive.executeUpdate() == 0) throw new LibraryException("Книга выдана другому читателю");
+
+            PreparedStatement pstmtLoan = c.prepare(sqlDeleteLoan);
+            pstmtLoan.setLong(1, isbn.value());
+            pstmtLoan.setString(2, readerId);
+            pstmtLoan.executeUpdate();
+            return null;
+        };
+    }
+
+    // Выдача или возврат зафиксированы: обновить кэш и сообщить подписчикам.
+    // Вызывается в потоке записи сразу после фиксации, поэтому изменения одной
+    // книги из разных потоков доходят до кэша и подписчиков в порядке фиксации
+    private void lent(Isbn isbn, String readerId) {
+        bookCache.updateAvailable(isbn, false);
+        publish(LibraryEvent.bookLent(isbn, readerId));
+    }
+
+    private void returned(Isbn isbn, String readerId) {
+        bookCache.updateAvailable(isbn, true);
+        history.archived(1);
+        publish(LibraryEvent.bookReturned(isbn, readerId));
+    }
+
+    // Трасса асинхронной операции отвязывается от вызывающего потока
+    // и закрывается, когда операция завершится
+    private static <T> CompletableFuture<T> finishAsync(OperationTrace trace, CompletableFuture<T> result) {
+        trace.detach();
+        return result.whenComplete((value, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof Exception) trace.fail((Exception) cause);
             }
-            throw new LibraryException("Ошибка выдачи книги: " + e.getMessage());
+            trace.close();
+        });
+    }
+
+    // Выдать читателю стопку книг одной транзакцией. Читатель проверяется один раз,
+    // состояние всех книг читается одним запросом, выдача и записи о выдачах
+    // вставляются по одному запросу на всю стопку. Книги, которые выдать нельзя,
+    // получают причину отказа, остальные выдаются. Результаты — в порядке isbns.
+    public List<LoanResult> lendBooks(String readerId, List<Isbn> isbns) throws LibraryException {
+        String sqlBooks = "SELECT b.isbn, b.available FROM books b " +
+                "WHERE b.isbn IN (SELECT value FROM json_each(?))";
+        String sqlUpdateBooks = "UPDATE books SET available = FALSE WHERE isbn IN (SELECT value FROM json_each(?))";
+        String sqlInsertLoans = "INSERT INTO loans (book_isbn, reader_id, issue_date, due_date) " +
+                "SELECT value, ?, ?, ? FROM json_each(?)";
+
+        LocalDate now = LocalDate.now();
+        LocalDate due = now.plusDays(14);
+
+        OperationTrace trace = trace("lendBooks", readerId, isbns.size());
+        try {
+            if (isbns.isEmpty()) return List.of();
+            List<LoanResult> results = writes.transaction("Ошибка выдачи книг: ", c -> {
+                requireReader(c, readerId);
+                Map<Isbn, Boolean> available = new HashMap<>();
+                PreparedStatement pstmtBooks = c.prepare(sqlBooks);
+                pstmtBooks.setString(1, jsonArray(isbns));
+                try (ResultSet rs = pstmtBooks.executeQuery()) {
+                    while (rs.next()) available.put(Isbn.of(rs.getLong("isbn")), rs.getBoolean("available"));
+                }
+
+                List<LoanResult> items = new ArrayList<>();
+                List<Isbn> lend = new ArrayList<>();
+                for (Isbn isbn : isbns) {
+                    Boolean status = available.get(isbn);
+                    String error = status == null ? "Книга не найдена"
+                            : !status ? "Книга уже выдана"
+                            : null;
+                    if (error == null) {
+                        lend.add(isbn);
+                        available.put(isbn, false); // повтор ISBN в стопке — уже выдана
+                    }
+                    items.add(new LoanResult(isbn, error));
+                }
+                if (lend.isEmpty()) return items;
+
+                String lendJson = jsonArray(lend);
+                PreparedStatement pstmtUpdate = c.prepare(sqlUpdateBooks);
+                pstmtUpdate.setString(1, lendJson);
+                pstmtUpdate.executeUpdate();
+
+                PreparedStatement pstmtLoans = c.prepare(sqlInsertLoans);
+                pstmtLoans.setString(1, readerId);
+                pstmtLoans.setString(2, now.toString());
+                pstmtLoans.setString(3, due.toString());
+                pstmtLoans.setString(4, lendJson);
+                pstmtLoans.executeUpdate();
+                return items;
+            }, items -> {
+                for (LoanResult item : items) {
+                    if (item.isSuccess()) lent(item.getIsbn(), readerId);
+                }
+            });
+            return results;
         } finally {
-            try {
-                conn.setAutoCommit(true);
-            } catch (SQLException e) {
-                // ignore
-            }
+            trace.close();
         }
     }
 
-    // Вернуть книгу
-    public void returnBook(String isbn, String readerId) throws LibraryException {
-        Book book = findByIsbn(isbn);
-        if (book == null) throw new LibraryException("Книга не найдена");
-        if (book.isAvailable()) throw new LibraryException("Книга и так в библиотеке");
+    // Принять от читателя стопку книг одной транзакцией (по тем же правилам, что lendBooks)
+    public List<LoanResult> returnBooks(String readerId, List<Isbn> isbns) throws LibraryException {
+        String sqlBooks = "SELECT b.isbn, b.available, l.id AS loan_id FROM books b " +
+                "LEFT JOIN loans l ON l.book_isbn = b.isbn AND l.reader_id = ? " +
+                "WHERE b.isbn IN (SELECT value FROM json_each(?))";
+        String sqlDeleteLoans = "DELETE FROM loans WHERE reader_id = ? AND book_isbn IN (SELECT value FROM json_each(?))";
+        String sqlUpdateBooks = "UPDATE books SET available = TRUE WHERE isbn IN (SELECT value FROM json_each(?))";
 
-        String sqlUpdateBook = "UPDATE books SET available = TRUE WHERE isbn = ?";
-        String sqlDeleteLoan = "DELETE FROM loans WHERE book_isbn = ? AND reader_id = ?";
+        LocalDate today = LocalDate.now();
 
+        OperationTrace trace = trace("returnBooks", readerId, isbns.size());
         try {
-            conn.setAutoCommit(false);
-            try (PreparedStatement pstmtBook = conn.prepareStatement(sqlUpdateBook);
-                 PreparedStatement pstmtLoan = conn.prepareStatement(sqlDeleteLoan)) {
-                pstmtBook.setString(1, isbn);
-                pstmtBook.executeUpdate();
+            if (isbns.isEmpty()) return List.of();
+            history.ensurePartition(today);
+            String sqlArchiveLoans = LoanHistory.archiveSql("WHERE reader_id = ? AND book_isbn IN (SELECT value FROM json_each(?))");
+            List<LoanResult> results = writes.transaction("Ошибка возврата книг: ", c -> {
+                requireReader(c, readerId);
+                Map<Isbn, String> status = new HashMap<>();
+                PreparedStatement pstmtBooks = c.prepare(sqlBooks);
+                pstmtBooks.setString(1, readerId);
+                pstmtBooks.setString(2, jsonArray(isbns));
+                try (ResultSet rs = pstmtBooks.executeQuery()) {
+                    while (rs.next()) {
+                        String error = rs.getBoolean("available") ? "Книга и так в библиотеке"
+                                : rs.getObject("loan_id") == null ? "Книга выдана другому читателю"
+                                : null;
+                        status.put(Isbn.of(rs.getLong("isbn")), error);
+                    }
+                }
 
-                pstmtLoan.setString(1, isbn);
-                pstmtLoan.setString(2, readerId);
-                pstmtLoan.executeUpdate();
+                List<LoanResult> items = new ArrayList<>();
+                List<Isbn> accept = new ArrayList<>();
+                for (Isbn isbn : isbns) {
+                    String error = !status.containsKey(isbn) ? "Книга не найдена" : status.get(isbn);
+                    if (error == null) {
+                        accept.add(isbn);
+                        status.put(isbn, "Книга и так в библиотеке"); // повтор ISBN в стопке
+                    }
+                    items.add(new LoanResult(isbn, error));
+                }
+                if (accept.isEmpty()) return items;
 
-                conn.commit();
-            }
-        } catch (SQLException e) {
-            try {
-                conn.rollback();
-            } catch (SQLException ex) {
-                // ignore
-            }
-            throw new LibraryException("Ошибка возврата книги: " + e.getMessage());
+                String acceptJson = jsonArray(accept);
+                PreparedStatement pstmtArchive = c.prepare(sqlArchiveLoans);
+                pstmtArchive.setString(1, today.toString());
+                pstmtArchive.setString(2, readerId);
+                pstmtArchive.setString(3, acceptJson);
+                pstmtArchive.executeUpdate();
+
+                PreparedStatement pstmtLoans = c.prepare(sqlDeleteLoans);
+                pstmtLoans.setString(1, readerId);
+                pstmtLoans.setString(2, acceptJson);
+                pstmtLoans.executeUpdate();
+
+                PreparedStatement pstmtUpdate = c.prepare(sqlUpdateBooks);
+                pstmtUpdate.setString(1, acceptJson);
+                pstmtUpdate.executeUpdate();
+                return items;
+            }, items -> {
+                for (LoanResult item : items) {
+                    if (item.isSuccess()) returned(item.getIsbn(), readerId);
+                }
+            });
+            return results;
         } finally {
-            try {
-                conn.setAutoCommit(true);
-            } catch (SQLException e) {
-                // ignore
-            }
+            trace.close();
+        }
+    }
+
+    private static void requireReader(PooledConnection c, String readerId) throws SQLException, LibraryException {
+        String sql = "SELECT 1 FROM readers WHERE id = ?";
+        PreparedStatement pstmt = c.prepare(sql);
+        pstmt.setString(1, readerId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) throw new LibraryException("Читатель не найден");
+        }
+    }
+
+    // Список ISBN одним параметром запроса: JSON-массив для json_each
+    private static String jsonArray(List<Isbn> isbns) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Isbn isbn : isbns) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append(isbn.value());
         }
+        return sb.append(']').toString();
     }
 
     // Получить все книги
-    public Map<String, Book> getBooks() {
-        Map<String, Book> books = new HashMap<>();
-        String sql = "SELECT * FROM books";
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                Book book = new Book(
-                        rs.getString("isbn"),
-                        rs.getString("title"),
-                        rs.getString("author"),
-                        rs.getInt("year")
-                );
-                book.setAvailable(rs.getBoolean("available"));
-                books.put(book.getIsbn(), book);
-            }
-        } catch (SQLException e) {
-            System.out.println("Ошибка загрузки книг: " + e.getMessage());
+    public Map<Isbn, Book> getBooks() {
+        Map<Isbn, Book> books = new HashMap<>();
+        OperationTrace trace = trace("getBooks");
+        try (Stream<Book> stream = streamBooks(BookFilter.all())) {
+            stream.forEach(book -> books.put(book.getIsbn(), book));
+        } finally {
+            trace.close();
         }
         return Collections.unmodifiableMap(books);
     }
 
-    // Получить всех читателей с их выдачами
+    // Получить всех читателей с их выдачами (один запрос с соединением таблиц)
     public Map<String, Reader> getReaders() {
         Map<String, Reader> readers = new HashMap<>();
-        String sqlReaders = "SELECT * FROM readers";
-        String sqlLoans = "SELECT * FROM loans WHERE reader_id = ?";
-
-        try (Statement stmtReaders = conn.createStatement();
-             ResultSet rsReaders = stmtReaders.executeQuery(sqlReaders)) {
-
-            while (rsReaders.next()) {
-                String id = rsReaders.getString("id");
-                String name = rsReaders.getString("name");
-                Reader reader = new Reader(id, name);
-
-                try (PreparedStatement pstmtLoans = conn.prepareStatement(sqlLoans)) {
-                    pstmtLoans.setString(1, id);
-                    try (ResultSet rsLoans = pstmtLoans.executeQuery()) {
-                        while (rsLoans.next()) {
-                            Book book = findByIsbn(rsLoans.getString("book_isbn"));
-                            if (book != null) {
-                                LocalDate issue = LocalDate.parse(rsLoans.getString("issue_date"));
-                                Loan loan = new Loan(book, issue);
-                                reader.getLoans().add(loan);
-                            }
-                        }
-                    }
+        OperationTrace trace = trace("getReaders");
+        try (Stream<Reader> stream = streamReaders()) {
+            stream.forEach(reader -> readers.put(reader.getId(), reader));
+        } finally {
+            trace.close();
+        }
+        return Collections.unmodifiableMap(readers);
+    }
+
+    // Книги каталога в порядке ISBN, читаемые из БД по мере обхода потока.
+    // Поток держит соединение чтения, пока не будет дочитан или закрыт,
+    // поэтому его нужно закрывать (try-with-resources), если обход прерывается.
+    public Stream<Book> streamBooks() {
+        return streamBooks(BookFilter.all());
+    }
+
+    public Stream<Book> streamBooks(BookFilter filter) {
+        return streamBooks(filter, STREAM_FETCH_SIZE);
+    }
+
+    // fetchSize — сколько строк драйвер читает за одно обращение к БД
+    public Stream<Book> streamBooks(BookFilter filter, int fetchSize) {
+        return streamBooks(filter, fetchSize, false);
+    }
+
+    private Stream<Book> streamBooks(BookFilter filter, int fetchSize, boolean failOnError) {
+        String sql = "SELECT b.* FROM books b " + filter.whereClause() + " ORDER BY b.isbn";
+        return openCursor("streamBooks", filter, "Ошибка загрузки книг: ", sql, fetchSize, failOnError,
+                filter::bind, rs -> rs.next() ? readBook(rs) : null);
+    }
+
+    // Компактный снимок всего каталога (в несколько раз меньше getBooks())
+    public CompactCatalog compactCatalog() {
+        return CompactCatalog.from(streamBooks());
+    }
+
+    // Выгрузить каталог в файл снимка для MappedCatalog и SharedCatalog; прежний снимок
+    // заменяется атомарно. Возвращает число книг в снимке.
+    // Ошибка чтения каталога бросается до замены файла: оборванный на середине
+    // каталог не должен заменить целый снимок у всех читателей SharedCatalog.
+    public int publishCatalog(Path file) throws IOException {
+        OperationTrace trace = trace("publishCatalog", file);
+        try {
+            return MappedCatalog.write(file, streamBooks(BookFilter.all(), STREAM_FETCH_SIZE, true));
+        } catch (UncheckedIOException e) {
+            trace.fail(e.getCause());
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            trace.fail(e);
+            throw e;
+        } finally {
+            trace.close();
+        }
+    }
+
+    // Читатели с их выдачами в порядке id; строки соединения группируются по читателю
+    public Stream<Reader> streamReaders() {
+        String sql = "SELECT r.id, r.name, l.issue_date, l.due_date, " +
+                "b.isbn, b.title, b.author, b.year, b.available " +
+                "FROM readers r " +
+                "LEFT JOIN loans l ON l.reader_id = r.id " +
+                "LEFT JOIN books b ON b.isbn = l.book_isbn " +
+                "ORDER BY r.id, l.id";
+        ResultCursor.RowReader<Reader> groups = new ResultCursor.RowReader<>() {
+            private boolean started;
+            private boolean hasRow;
+
+            @Override
+            public Reader next(ResultSet rs) throws SQLException {
+                if (!started) {
+                    started = true;
+                    hasRow = rs.next();
                 }
-                readers.put(id, reader);
+                if (!hasRow) return null;
+                Reader reader = new Reader(rs.getString("id"), rs.getString("name"));
+                do {
+                    // у читателя нет выдач или книга удалена
+                    if (rs.getString("isbn") != null) reader.getLoans().add(readLoan(rs, readBook(rs)));
+                    hasRow = rs.next();
+                } while (hasRow && rs.getString("id").equals(reader.getId()));
+                return reader;
             }
+        };
+        return openCursor("streamReaders", null, "Ошибка загрузки читателей: ", sql, STREAM_FETCH_SIZE, false,
+                pstmt -> { }, groups);
+    }
+
+    private interface StatementBinder {
+        void bind(PreparedStatement pstmt) throws SQLException;
+    }
+
+    // Выполнить запрос и вернуть поток по его результату; при ошибке — пустой поток
+    // (с failOnError — UncheckedIOException, и при открытии, и при чтении)
+    private <T> Stream<T> openCursor(String operation, Object parameter, String errorMessage, String sql,
+                                     int fetchSize, boolean failOnError, StatementBinder binder,
+                                     ResultCursor.RowReader<T> reader) {
+        OperationTrace trace = parameter == null ? trace(operation) : trace(operation, parameter);
+        PooledConnection c = null;
+        try {
+            c = pool.reader();
+            PreparedStatement pstmt = c.prepare(sql);
+            binder.bind(pstmt);
+            pstmt.setFetchSize(fetchSize);
+            ResultSet rs = pstmt.executeQuery();
+            trace.detach();
+            return new ResultCursor<>(c, rs, reader, trace, errorMessage, failOnError).stream();
         } catch (SQLException e) {
-            System.out.println("Ошибка загрузки читателей: " + e.getMessage());
+            trace.fail(e);
+            if (c != null) c.close();
+            trace.close();
+            if (failOnError) throw new UncheckedIOException(new IOException(errorMessage + e.getMessage(), e));
+            System.out.println(errorMessage + e.getMessage());
+            return Stream.empty();
         }
-        return Collections.unmodifiableMap(readers);
     }
 
-    // Поиск книги по ISBN
-    public Book findByIsbn(String isbn) {
+    // Поиск книги по ISBN (сначала в кэше)
+    public Book findByIsbn(Isbn isbn) {
+        OperationTrace trace = trace("findByIsbn", isbn);
+        try {
+            Book cached = bookCache.get(isbn);
+            if (cached != null) {
+                trace.cacheHit();
+                return cached;
+            }
+            trace.cacheMiss();
+
+            long version = bookCache.version();
+            try (PooledConnection c = pool.reader()) {
+                Book book = findByIsbn(c, isbn);
+                if (book != null) {
+                    trace.addRows(1);
+                    bookCache.putIfCurrent(book, version);
+                }
+                return book;
+            } catch (SQLException e) {
+                trace.fail(e);
+                System.out.println("Ошибка поиска книги: " + e.getMessage());
+            }
+            return null;
+        } finally {
+            trace.close();
+        }
+    }
+
+    private Book findByIsbn(PooledConnection c, Isbn isbn) throws SQLException {
         String sql = "SELECT * FROM books WHERE isbn = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, isbn);
+        PreparedStatement pstmt = c.prepare(sql);
+        pstmt.setLong(1, isbn.value());
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? readBook(rs) : null;
+        }
+    }
+
+    // Число книг в каталоге
+    public int countBooks() {
+        return countBooks("");
+    }
+
+    // Число книг, подходящих под запрос (пустой запрос — весь каталог)
+    public int countBooks(String query) {
+        SearchQuery searchQuery = SearchQuery.parse(query);
+        String sql = searchQuery.isEmpty()
+                ? "SELECT COUNT(*) FROM books"
+                : "SELECT COUNT(*) FROM books_fts WHERE books_fts MATCH ?";
+        OperationTrace trace = trace("countBooks", query);
+        try (PooledConnection c = pool.reader()) {
+            PreparedStatement pstmt = c.prepare(sql);
+            if (!searchQuery.isEmpty()) pstmt.setString(1, searchQuery.toMatchExpression());
+            QueryCancel.start(pstmt);
             try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    Book book = new Book(
-                            rs.getString("isbn"),
-                            rs.getString("title"),
-                            rs.getString("author"),
-                            rs.getInt("year")
-                    );
-                    book.setAvailable(rs.getBoolean("available"));
-                    return book;
-                }
+                return rs.next() ? rs.getInt(1) : 0;
+            } finally {
+                QueryCancel.finish();
             }
         } catch (SQLException e) {
-            System.out.println("Ошибка поиска книги: " + e.getMessage());
+            trace.fail(e);
+            if (!QueryCancel.currentCancelled()) System.out.println("Ошибка подсчёта книг: " + e.getMessage());
+        } finally {
+            trace.close();
         }
-        return null;
+        return 0;
     }
 
-    // Получить читателя по ID
-    private Reader getReader(String id) {
-        String sql = "SELECT * FROM readers WHERE id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, id);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return new Reader(rs.getString("id"), rs.getString("name"));
+    // Страница каталога по ключу: книги с ISBN больше afterIsbn в порядке ISBN (null — с начала)
+    public List<Book> getBooksAfter(Isbn afterIsbn, int limit) {
+        List<Book> result = new ArrayList<>();
+        String sql = "SELECT * FROM books WHERE isbn > ? ORDER BY isbn LIMIT ?";
+        OperationTrace trace = trace("getBooksAfter", afterIsbn, limit);
+        try (PooledConnection c = pool.reader()) {
+            PreparedStatement pstmt = c.prepare(sql);
+            pstmt.setLong(1, afterIsbn == null ? 0 : afterIsbn.value());
+            pstmt.setInt(2, limit);
+            readBooks(pstmt, result);
+            trace.addRows(result.size());
+        } catch (SQLException e) {
+            trace.fail(e);
+            if (!QueryCancel.currentCancelled()) System.out.println("Ошибка загрузки книг: " + e.getMessage());
+        } finally {
+            trace.close();
+        }
+        return result;
+    }
+
+    // Число строк «читатель — выдача» (читатель без выдач даёт одну строку)
+    public int countReaderLoanRows() {
+        String sql = "SELECT COUNT(*) FROM readers r LEFT JOIN loans l ON l.reader_id = r.id";
+        OperationTrace trace = trace("countReaderLoanRows");
+        try (PooledConnection c = pool.reader();
+             ResultSet rs = c.prepare(sql).executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            trace.fail(e);
+            System.out.println("Ошибка подсчёта читателей: " + e.getMessage());
+        } finally {
+            trace.close();
+        }
+        return 0;
+    }
+
+    // Страница строк «читатель — выдача» после строки after (null — с начала)
+    public List<ReaderLoanRow> getReaderLoanRowsAfter(ReaderLoanRow after, int limit) {
+        String sql = READER_LOAN_ROWS +
+                "WHERE (r.id, COALESCE(l.id, 0)) > (?, ?) " +
+                "ORDER BY r.id, loan_id LIMIT ?";
+        List<ReaderLoanRow> result = new ArrayList<>();
+        OperationTrace trace = trace("getReaderLoanRowsAfter", after == null ? null : after.getReaderId(), limit);
+        try (PooledConnection c = pool.reader()) {
+            PreparedStatement pstmt = c.prepare(sql);
+            pstmt.setString(1, after == null ? "" : after.getReaderId());
+            pstmt.setLong(2, after == null ? 0 : after.getLoanId());
+            pstmt.setInt(3, limit);
+            readReaderLoanRows(pstmt, result);
+            trace.addRows(result.size());
+        } catch (SQLException e) {
+            trace.fail(e);
+            System.out.println("Ошибка загрузки читателей: " + e.getMessage());
+        } finally {
+            trace.close();
+        }
+        return result;
+    }
+
+    // Страница строк «читатель — выдача» по смещению (для перехода в середину списка)
+    public List<ReaderLoanRow> getReaderLoanRows(int offset, int limit) {
+        String sql = READER_LOAN_ROWS + "ORDER BY r.id, loan_id LIMIT ? OFFSET ?";
+        List<ReaderLoanRow> result = new ArrayList<>();
+        OperationTrace trace = trace("getReaderLoanRows", offset, limit);
+        try (PooledConnection c = pool.reader()) {
+            PreparedStatement pstmt = c.prepare(sql);
+            pstmt.setInt(1, limit);
+            pstmt.setInt(2, offset);
+            readReaderLoanRows(pstmt, result);
+            trace.addRows(result.size());
+        } catch (SQLException e) {
+            trace.fail(e);
+            System.out.println("Ошибка загрузки читателей: " + e.getMessage());
+        } finally {
+            trace.close();
+        }
+        return result;
+    }
+
+    private static final String READER_LOAN_ROWS =
+            "SELECT r.id, r.name, COALESCE(l.id, 0) AS loan_id, l.issue_date, l.due_date, " +
+            "b.isbn, b.title, b.author, b.year, b.available " +
+            "FROM readers r " +
+            "LEFT JOIN loans l ON l.reader_id = r.id " +
+            "LEFT JOIN books b ON b.isbn = l.book_isbn ";
+
+    private static void readReaderLoanRows(PreparedStatement pstmt, List<ReaderLoanRow> result) throws SQLException {
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Loan loan = null;
+                if (rs.getString("isbn") != null) {
+                    loan = readLoan(rs, readBook(rs));
                 }
+                result.add(new ReaderLoanRow(rs.getString("id"), rs.getString("name"), rs.getLong("loan_id"), loan));
             }
+        }
+    }
+
+    // Просроченные на дату asOf выдачи, начиная с самых давних (по индексу срока возврата)
+    public List<ReaderLoanRow> findOverdue(LocalDate asOf, int limit) {
+        return findOverdue(asOf, null, limit);
+    }
+
+    // Следующая страница просроченных выдач после строки after
+    public List<ReaderLoanRow> findOverdue(LocalDate asOf, ReaderLoanRow after, int limit) {
+        OperationTrace trace = trace("findOverdue", asOf, limit);
+        try {
+            return findDue(null, asOf, after, limit);
+        } finally {
+            trace.close();
+        }
+    }
+
+    // Выдачи со сроком возврата в полуинтервале [dueFrom, dueBefore) в порядке (срок, id);
+    // dueFrom == null — без нижней границы
+    List<ReaderLoanRow> findDue(LocalDate dueFrom, LocalDate dueBefore, ReaderLoanRow after, int limit) {
+        String sql = "SELECT r.id, r.name, l.id AS loan_id, l.issue_date, l.due_date, " +
+                "b.isbn, b.title, b.author, b.year, b.available " +
+                "FROM loans l " +
+                "JOIN readers r ON r.id = l.reader_id " +
+                "JOIN books b ON b.isbn = l.book_isbn " +
+                "WHERE l.due_date >= ? AND l.due_date < ? AND (l.due_date, l.id) > (?, ?) " +
+                "ORDER BY l.due_date, l.id LIMIT ?";
+        List<ReaderLoanRow> result = new ArrayList<>();
+        OperationTrace trace = trace("findDue", dueFrom, dueBefore, limit);
+        try (PooledConnection c = pool.reader()) {
+            PreparedStatement pstmt = c.prepare(sql);
+            pstmt.setString(1, dueFrom == null ? "" : dueFrom.toString());
+            pstmt.setString(2, dueBefore.toString());
+            pstmt.setString(3, after == null ? "" : after.getLoan().getDueDate().toString());
+            pstmt.setLong(4, after == null ? 0 : after.getLoanId());
+            pstmt.setInt(5, limit);
+            readReaderLoanRows(pstmt, result);
+            trace.addRows(result.size());
         } catch (SQLException e) {
-            System.out.println("Ошибка поиска читателя: " + e.getMessage());
+            trace.fail(e);
+            System.out.println("Ошибка поиска просрочек: " + e.getMessage());
+        } finally {
+            trace.close();
         }
-        return null;
+        return result;
+    }
+
+    // Страница каталога по смещению в порядке ISBN
+    public List<Book> getBooks(int offset, int limit) {
+        return searchBooks("", offset, limit);
     }
 
     // Поиск по автору или названию
     public List<Book> searchBooks(String query) {
+        return searchBooks(query, 0, -1);
+    }
+
+    // Поиск по автору или названию с ранжированием и постраничной выдачей (limit < 0 — без ограничения)
+    public List<Book> searchBooks(String query, int offset, int limit) {
         List<Book> result = new ArrayList<>();
-        if (query == null || query.trim().isEmpty()) {
-            return new ArrayList<>(getBooks().values());
-        }
-        String lowerQuery = query.toLowerCase();
-        for (Book book : getBooks().values()) {
-            if (book.getTitle().toLowerCase().contains(lowerQuery) ||
-                    book.getAuthor().toLowerCase().contains(lowerQuery)) {
-                result.add(book);
-            }
+        SearchQuery searchQuery = SearchQuery.parse(query);
+        // Совпадение в названии весит вдвое больше, чем в имени автора
+        String sql = searchQuery.isEmpty()
+                ? "SELECT * FROM books ORDER BY isbn LIMIT ? OFFSET ?"
+                : "SELECT b.* FROM books_fts f JOIN books b ON b.rowid = f.rowid " +
+                  "WHERE books_fts MATCH ? " +
+                  "ORDER BY bm25(books_fts, 2.0, 1.0) " +
+                  "LIMIT ? OFFSET ?";
+        OperationTrace trace = trace("searchBooks", query, offset, limit);
+        try (PooledConnection c = pool.reader()) {
+            PreparedStatement pstmt = c.prepare(sql);
+            int index = 1;
+            if (!searchQuery.isEmpty()) pstmt.setString(index++, searchQuery.toMatchExpression());
+            pstmt.setInt(index++, limit);
+            pstmt.setInt(index, offset);
+            readBooks(pstmt, result);
+            trace.addRows(result.size());
+        } catch (SQLException e) {
+            trace.fail(e);
+            if (!QueryCancel.currentCancelled()) System.out.println("Ошибка поиска книг: " + e.getMessage());
+        } finally {
+            trace.close();
         }
         return result;
     }
 
+    // Запрос можно отменить из другого потока (QueryCancel), пока он выполняется и читается
+    private void readBooks(PreparedStatement pstmt, List<Book> result) throws SQLException {
+        QueryCancel.start(pstmt);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                result.add(readBook(rs));
+            }
+        } finally {
+            QueryCancel.finish();
+        }
+    }
+
+    private static Loan readLoan(ResultSet rs, Book book) throws SQLException {
+        return new Loan(book,
+                LocalDate.parse(rs.getString("issue_date")),
+                LocalDate.parse(rs.getString("due_date")));
+    }
+
+    private static Book readBook(ResultSet rs) throws SQLException {
+        return new Book(
+                Isbn.of(rs.getLong("isbn")),
+                rs.getString("title"),
+                rs.getString("author"),
+                rs.getInt("year"),
+                rs.getBoolean("available")
+        );
+    }
+
+    // Метрики операций (по умолчанию DefaultLibraryMetrics)
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
+    private OperationTrace trace(String operation, Object... parameters) {
+        return OperationTrace.start(metrics, operation, parameters);
+    }
+
+    // Счётчики попаданий, промахов и вытеснений кэша книг
+    public BookCache getBookCache() {
+        return bookCache;
+    }
+
+    // Архив возвращённых выдач постранично, в порядке (дата возврата, выдача);
+    // after — последняя запись предыдущей страницы (null — с начала)
+    public List<LoanRecord> findLoanHistory(HistoryFilter filter, LoanRecord after, int limit) {
+        OperationTrace trace = trace("findLoanHistory", filter, limit);
+        try {
+            List<LoanRecord> result = history.find(filter, after, limit);
+            trace.addRows(result.size());
+            return result;
+        } catch (SQLException e) {
+            trace.fail(e);
+            System.out.println("Ошибка чтения архива выдач: " + e.getMessage());
+        } finally {
+            trace.close();
+        }
+        return new ArrayList<>();
+    }
+
+    public long countLoanHistory(HistoryFilter filter) {
+        OperationTrace trace = trace("countLoanHistory", filter);
+        try {
+            return history.count(filter);
+        } catch (SQLException e) {
+            trace.fail(e);
+            System.out.println("Ошибка чтения архива выдач: " + e.getMessage());
+        } finally {
+            trace.close();
+        }
+        return 0;
+    }
+
+    // Выдачи для CirculationStats одним снимком БД: на руках — с номером больше
+    // afterLoanId, из архива — возвращённые не раньше returnedFrom (null — весь архив)
+    void scanCirculation(long afterLoanId, LocalDate returnedFrom, CirculationStats.Rows rows) throws LibraryException {
+        String sql = "SELECT l.id, l.book_isbn, b.author, " + LoanHistory.epochDay("l.issue_date") + ", " +
+                LoanHistory.epochDay("l.due_date") + " " +
+                "FROM loans l LEFT JOIN books b ON b.isbn = l.book_isbn " +
+                "WHERE l.id > ?";
+        OperationTrace trace = trace("scanCirculation", afterLoanId, returnedFrom);
+        try (PooledConnection c = pool.reader()) {
+            Connection conn = c.connection();
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = c.prepare(sql);
+                pstmt.setLong(1, afterLoanId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.loan(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getInt(4), rs.getInt(5), CirculationStats.OPEN);
+                    }
+                }
+                history.scan(c, returnedFrom, rows);
+            } finally {
+                // Завершить транзакцию чтения: соединение возвращается в пул
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            trace.fail(e);
+            throw new LibraryException("Ошибка чтения выдач: " + e.getMessage());
+        } finally {
+            trace.close();
+        }
+    }
+
+    // Архив выдач (список месяцев, за которые есть записи)
+    public LoanHistory getLoanHistory() {
+        return history;
+    }
+
+    // Подписаться на изменения: события приходят после фиксации каждого изменения,
+    // сделанного через этот экземпляр (выдача стопки — событие на каждую книгу),
+    // в потоке записи и в порядке фиксации. Подписчик не должен ждать операций
+    // записи этой библиотеки: пока он работает, очередь записи стоит.
+    public void addListener(LibraryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Ошибка одного подписчика не мешает остальным и не отменяет изменение
+    private void publish(LibraryEvent event) {
+        for (LibraryListener listener : listeners) {
+            try {
+                listener.libraryChanged(event);
+            } catch (RuntimeException e) {
+                System.out.println("Ошибка обработки события " + event + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Групповой коммит: до maxBatch операций записи фиксируются одной транзакцией,
+    // очередь ждёт новые операции не дольше maxDelay. Больше группа и задержка —
+    // меньше фиксаций и выше пропускная способность, но дольше ждёт каждый вызов.
+    // setGroupCommit(1, 0, ...) возвращает фиксацию каждой операции отдельно.
+    public void setGroupCommit(int maxBatch, long maxDelay, TimeUnit unit) {
+        writes.setGroupCommit(maxBatch, maxDelay, unit);
+    }
+
+    // Число фиксаций транзакций записи и выполненных операций записи
+    public long getCommitCount() {
+        return writes.getCommitCount();
+    }
+
+    public long getWriteCount() {
+        return writes.getWriteCount();
+    }
+
+    // SQL, выполненные этим экземпляром, если он создан с recordSql (для проверки планов запросов)
+    Set<String> issuedSql() {
+        return pool.getIssuedSql();
+    }
+
+    // Массовая загрузка: пакеты по commitSize строк, каждый в своей транзакции
+    public BulkImporter bulkImporter(int commitSize) {
+        return new BulkImporter(writes, commitSize, this::publish);
+    }
+
+    // Потоковая выгрузка таблиц
+    public BulkExporter bulkExporter() {
+        return new BulkExporter(pool);
+    }
+
     // Закрыть соединение при выходе
     public void close() {
-        if (conn != null) {
+        if (writes != null) {
             try {
-                conn.close();
-            } catch (SQLException e) {
-                System.out.println("Ошибка закрытия БД: " + e.getMessage());
+                if (history != null) history.flush();
+            } catch (LibraryException e) {
+                System.out.println(e.getMessage());
             }
+            writes.close();
+        }
+        if (pool != null) {
+            pool.close();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+// Изменение данных библиотеки; публикуется после фиксации изменения.
+// Поля, не относящиеся к типу события, равны null.
+public class LibraryEvent {
+    public enum Type {
+        BOOK_ADDED,
+        BOOK_REMOVED,
+        BOOK_LENT,
+        BOOK_RETURNED,
+        READER_REGISTERED,
+        READER_REMOVED,
+        // Массовая загрузка: изменилось много строк таблицы table
+        IMPORTED
+    }
+
+    private final Type type;
+    private final Isbn isbn;
+    private final Book book;
+    private final String readerId;
+    private final Reader reader;
+    private final BulkTable table;
+
+    private LibraryEvent(Type type, Isbn isbn, Book book, String readerId, Reader reader, BulkTable table) {
+        this.type = type;
+        this.isbn = isbn;
+        this.book = book;
+        this.readerId = readerId;
+        this.reader = reader;
+        this.table = table;
+    }
+
+    public static LibraryEvent bookAdded(Book book) {
+        return new LibraryEvent(Type.BOOK_ADDED, book.getIsbn(), book, null, null, null);
+    }
+
+    public static LibraryEvent bookRemoved(Isbn isbn) {
+        return new LibraryEvent(Type.BOOK_REMOVED, isbn, null, null, null, null);
+    }
+
+    public static LibraryEvent bookLent(Isbn isbn, String readerId) {
+        return new LibraryEvent(Type.BOOK_LENT, isbn, null, readerId, null, null);
+    }
+
+    public static LibraryEvent bookReturned(Isbn isbn, String readerId) {
+        return new LibraryEvent(Type.BOOK_RETURNED, isbn, null, readerId, null, null);
+    }
+
+    public static LibraryEvent readerRegistered(Reader reader) {
+        return new LibraryEvent(Type.READER_REGISTERED, null, null, reader.getId(), reader, null);
+    }
+
+    public static LibraryEvent readerRemoved(String readerId) {
+        return new LibraryEvent(Type.READER_REMOVED, null, null, readerId, null, null);
+    }
+
+    public static LibraryEvent imported(BulkTable table) {
+        return new LibraryEvent(Type.IMPORTED, null, null, null, null, table);
+    }
+
+    public Type getType() { return type; }
+    public Isbn getIsbn() { return isbn; }
+    public Book getBook() { return book; }
+    public String getReaderId() { return readerId; }
+    public Reader getReader() { return reader; }
+    public BulkTable getTable() { return table; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(type.name());
+        if (isbn != null) sb.append(" isbn=").append(isbn);
+        if (readerId != null) sb.append(" reader=").append(readerId);
+        if (table != null) sb.append(" table=").append(table.getTableName());
+        return sb.toString();
+    }
+}
@@ -1,23 +1,52 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.BorderLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 public class LibraryGUI extends JFrame {
-    private Library library = new Library();
+    private static final int SEARCH_DEBOUNCE_MS = 150;
+
+    // Страницы каталога, сохраняемые при выходе для быстрого первого экрана
+    private static final Path CATALOG_SNAPSHOT = Path.of("library.pages");
+
+    // Метрики операций видны через JMX (JConsole, VisualVM) в домене "library"
+    private final DefaultLibraryMetrics metrics = new DefaultLibraryMetrics();
+
+    // Хранилище открывается (Library — с миграцией схемы) в фоне, окно показывается
+    // сразу. Фоновые задачи, которым оно нужно, ждут его открытия. Окну хватает
+    // операций StorageEngine; поиск по тексту есть только у Library.
+    // Кнопки и поле поиска включаются после открытия; если оно не удалось, так и остаются выключенными.
+    private final Function<LibraryMetrics, ? extends StorageEngine> open;
+    private final CompletableFuture<StorageEngine> opening = new CompletableFuture<>();
+
+    // Этапы запуска: мс от старта JVM (отмечаются из EDT и фоновых потоков)
+    private final Map<String, Long> startup = Collections.synchronizedMap(new LinkedHashMap<>());
 
     // Компоненты интерфейса
-    private DefaultTableModel catalogModel;
+    private BookTableModel catalogModel;
     private JTable catalogTable;
-    private DefaultTableModel readersModel;
+    private ReaderLoanTableModel readersModel;
     private JTable readersTable;
 
     private JTextField searchField;
+    private Timer searchDebounce;
     private JTextField isbnField, readerIdField;
 
     private JTextField addBookIsbn, addBookTitle, addBookAuthor, addBookYear;
@@ -26,23 +55,130 @@ public class LibraryGUI extends JFrame {
 
     private JTextField deleteBookIsbn, deleteReaderId;
 
+    // Строка состояния и фоновое выполнение запросов к БД
+    private JLabel statusLabel;
+    private JProgressBar progressBar;
+    private BackgroundTasks tasks;
+    private final List<JComponent> actions = new ArrayList<>();
+
+    // Изменения (в том числе из других окон с тем же хранилищем) применяются к таблицам в EDT
+    private final LibraryListener changes = event -> SwingUtilities.invokeLater(() -> {
+        catalogModel.apply(event);
+        readersModel.apply(event);
+    });
+
     public LibraryGUI() {
+        this(Library::new);
+    }
+
+    // open создаёт хранилище (в фоновом потоке) с метриками окна
+    public LibraryGUI(Function<LibraryMetrics, ? extends StorageEngine> open) {
+        this.open = open;
+        metrics.registerMBeans("LibraryGUI");
         setupUI();
-        refreshCatalog();
-        refreshReaders();
+        showCatalogSnapshot();
+        openStorage();
         addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                startupPhase("окно");
+            }
+
             @Override
             public void windowClosing(WindowEvent e) {
-                library.close();
+                saveCatalogSnapshot();
+                tasks.shutdown();
+                StorageEngine storage = opening.isCompletedExceptionally() ? null : opening.getNow(null);
+                if (storage != null) {
+                    storage.removeListener(changes);
+                    storage.close();
+                }
+                metrics.unregisterMBeans();
             }
         });
     }
 
+    // Открыть хранилище в фоне; после открытия таблицы перечитываются и подписываются на изменения
+    private void openStorage() {
+        tasks.run(null, "Открытие базы данных…", () -> {
+            try {
+                StorageEngine storage = open.apply(metrics);
+                startupPhase("БД");
+                opening.complete(storage);
+                return storage;
+            } catch (RuntimeException e) {
+                opening.completeExceptionally(e);
+                throw e;
+            }
+        }, storage -> {
+            storage.addListener(changes);
+            actions.forEach(action -> action.setEnabled(true));
+            if (!(storage instanceof Library)) {
+                searchField.setEnabled(false);
+                searchField.setToolTipText("Поиск по тексту в этом хранилище недоступен");
+            }
+            catalogModel.afterNextRefresh(() -> {
+                startupPhase("каталог");
+                reportStartup();
+            });
+            refreshCatalog();
+            refreshReaders();
+        }, error -> {
+            statusLabel.setText("База данных не открыта");
+            showError(error);
+        });
+    }
+
+    // Хранилище для фоновых задач; до его открытия вызывающий поток ждёт
+    private StorageEngine storage() {
+        try {
+            return opening.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("База данных не открыта: " + e.getCause().getMessage(), e);
+        }
+    }
+
+    // Показать каталог из снимка прошлого запуска (если он есть) до открытия БД
+    private void showCatalogSnapshot() {
+        CatalogSnapshot snapshot = CatalogSnapshot.load(CATALOG_SNAPSHOT);
+        if (snapshot != null && !snapshot.isEmpty()) {
+            catalogModel.showSnapshot(snapshot);
+            startupPhase("снимок");
+        }
+    }
+
+    private void saveCatalogSnapshot() {
+        CatalogSnapshot snapshot = catalogModel.snapshot();
+        if (snapshot == null) return;
+        try {
+            snapshot.save(CATALOG_SNAPSHOT);
+        } catch (IOException e) {
+            System.out.println("Ошибка сохранения снимка каталога: " + e.getMessage());
+        }
+    }
+
+    private void startupPhase(String phase) {
+        startup.putIfAbsent(phase, ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    // Время этапов запуска в строке состояния и в выводе
+    private void reportStartup() {
+        StringJoiner report = new StringJoiner(", ", "Запуск (мс от старта JVM): ", "");
+        synchronized (startup) {
+            startup.forEach((phase, millis) -> report.add(phase + " " + millis));
+        }
+        statusLabel.setText(report.toString());
+        System.out.println(report);
+    }
+
     private void setupUI() {
         setTitle("Система управления библиотекой");
         setSize(900, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
+        statusLabel = new JLabel("Готово");
+        progressBar = new JProgressBar();
+        tasks = new BackgroundTasks(4, progressBar, statusLabel);
         JTabbedPane tabbedPane = new JTabbedPane();
         JPanel catalogPanel = createCatalogPanel();
         tabbedPane.addTab("Каталог книг", catalogPanel);
@@ -55,15 +191,20 @@ public class LibraryGUI extends JFrame {
 
         add(tabbedPane, BorderLayout.CENTER);
 
+        JPanel statusPanel = new JPanel(new BorderLayout(10, 0));
+        statusPanel.add(statusLabel, BorderLayout.CENTER);
+        statusPanel.add(progressBar, BorderLayout.EAST);
+        add(statusPanel, BorderLayout.SOUTH);
+        actions.forEach(action -> action.setEnabled(false));
+
         setLocationRelativeTo(null);
     }
 
     private JPanel createCatalogPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
-        // Таблица каталога
-        String[] columns = {"ISBN", "Название", "Автор", "Год", "Статус"};
-        catalogModel = new DefaultTableModel(columns, 0);
+        // Таблица каталога (строки подгружаются из БД при прокрутке)
+        catalogModel = new BookTableModel(this::storage, tasks);
         catalogTable = new JTable(catalogModel);
         JScrollPane scroll = new JScrollPane(catalogTable);
 
@@ -74,8 +215,27 @@ public class LibraryGUI extends JFrame {
         JButton searchButton = new JButton("Найти");
         searchPanel.add(searchField);
         searchPanel.add(searchButton);
+        actions.add(searchField);
+        actions.add(searchButton);
 
         searchButton.addActionListener(e -> performSearch());
+        searchField.addActionListener(e -> performSearch());
+
+        // Поиск по мере ввода: запрос к БД уходит после паузы в наборе; уточнение
+        // уже найденного сразу показывается фильтрацией в памяти, а порядок по рангу
+        // для него приходит с этим запросом
+        searchDebounce = new Timer(SEARCH_DEBOUNCE_MS, e -> performSearch());
+        searchDebounce.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { searchTyped(); }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) { searchTyped(); }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) { searchTyped(); }
+        });
 
         panel.add(searchPanel, BorderLayout.NORTH);
         panel.add(scroll, BorderLayout.CENTER);
@@ -86,13 +246,13 @@ public class LibraryGUI extends JFrame {
     private JPanel createReadersPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
-        String[] columns = {"ID читателя", "ФИО", "Взятая книга", "Дата выдачи", "Вернуть до", "Статус"};
-        readersModel = new DefaultTableModel(columns, 0);
+        readersModel = new ReaderLoanTableModel(this::storage, tasks);
         readersTable = new JTable(readersModel);
         JScrollPane scroll = new JScrollPane(readersTable);
 
         JButton refreshButton = new JButton("Обновить список");
         refreshButton.addActionListener(e -> refreshReaders());
+        actions.add(refreshButton);
 
         panel.add(refreshButton, BorderLayout.NORTH);
         panel.add(scroll, BorderLayout.CENTER);
@@ -107,7 +267,7 @@ public class LibraryGUI extends JFrame {
         gbc.anchor = GridBagConstraints.WEST;
 
         gbc.gridx = 0; gbc.gridy = 0;
-        panel.add(new JLabel("ISBN книги:"), gbc);
+        panel.add(new JLabel("ISBN книги (несколько — через запятую):"), gbc);
         gbc.gridx = 1;
         isbnField = new JTextField(20);
         panel.add(isbnField, gbc);
@@ -127,6 +287,8 @@ public class LibraryGUI extends JFrame {
 
         lendButton.addActionListener(e -> lendBook());
         returnButton.addActionListener(e -> returnBook());
+        actions.add(lendButton);
+        actions.add(returnButton);
 
         panel.add(lendButton, gbc);
         gbc.gridy = 3;
@@ -174,6 +336,7 @@ public class LibraryGUI extends JFrame {
         gbc.anchor = GridBagConstraints.CENTER;
         JButton addBookButton = new JButton("Добавить книгу");
         addBookButton.addActionListener(e -> addBook());
+        actions.add(addBookButton);
         panel.add(addBookButton, gbc);
 
         // Добавление читателя
@@ -199,6 +362,7 @@ public class LibraryGUI extends JFrame {
         gbc.anchor = GridBagConstraints.CENTER;
         JButton addReaderButton = new JButton("Добавить читателя");
         addReaderButton.addActionListener(e -> addReader());
+        actions.add(addReaderButton);
         panel.add(addReaderButton, gbc);
 
         // Удаление книги
@@ -215,6 +379,7 @@ public class LibraryGUI extends JFrame {
         gbc.anchor = GridBagConstraints.CENTER;
         JButton deleteBookButton = new JButton("Удалить книгу");
         deleteBookButton.addActionListener(e -> deleteBook());
+        actions.add(deleteBookButton);
         panel.add(deleteBookButton, gbc);
 
         // Удаление читателя
@@ -231,123 +396,118 @@ public class LibraryGUI extends JFrame {
         gbc.anchor = GridBagConstraints.CENTER;
         JButton deleteReaderButton = new JButton("Удалить читателя");
         deleteReaderButton.addActionListener(e -> deleteReader());
+        actions.add(deleteReaderButton);
         panel.add(deleteReaderButton, gbc);
 
         return panel;
     }
 
-    private void performSearch() {
+    private void searchTyped() {
         String query = searchField.getText().trim();
-        catalogModel.setRowCount(0);
-
-        if (query.isEmpty()) {
-            refreshCatalog();
-            return;
-        }
-
-        List<Book> results = library.searchBooks(query);
-        for (Book book : results) {
-            addBookToTable(book);
+        if (catalogModel.isShowing(query)) {
+            searchDebounce.stop();
+        } else if (catalogModel.showRecentResults(query)) {
+            searchDebounce.stop();
+        } else {
+            searchDebounce.restart();
         }
     }
 
-    private void refreshCatalog() {
-        catalogModel.setRowCount(0);
-        for (Book book : library.getBooks().values()) {
-            addBookToTable(book);
-        }
+    private void performSearch() {
+        searchDebounce.stop();
+        catalogModel.setQuery(searchField.getText().trim());
     }
 
-    private void addBookToTable(Book book) {
-        catalogModel.addRow(new Object[]{
-                book.getIsbn(),
-                book.getTitle(),
-                book.getAuthor(),
-                book.getYear(),
-                book.isAvailable() ? "Доступна" : "Выдана"
-        });
+    private void refreshCatalog() {
+        catalogModel.refresh();
     }
 
     private void refreshReaders() {
-        readersModel.setRowCount(0);
-        for (Reader reader : library.getReaders().values()) {
-            if (reader.getLoans().isEmpty()) {
-                readersModel.addRow(new Object[]{
-                        reader.getId(), reader.getName(), "Нет книг", "-", "-", "-"
-                });
-            } else {
-                for (Loan loan : reader.getLoans()) {
-                    String status = loan.isOverdue() ? "ПРОСРОЧЕНО!" : "В сроке";
-                    readersModel.addRow(new Object[]{
-                            reader.getId(),
-                            reader.getName(),
-                            loan.getBook().getTitle(),
-                            loan.getIssueDate(),
-                            loan.getDueDate(),
-                            status
-                    });
-                }
-            }
-        }
+        readersModel.refresh();
     }
 
     private void lendBook() {
-        String isbn = isbnField.getText().trim();
+        String isbnText = isbnField.getText().trim();
         String readerId = readerIdField.getText().trim();
-        if (isbn.isEmpty() || readerId.isEmpty()) {
+        if (isbnText.isEmpty() || readerId.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Заполните оба поля!");
             return;
         }
-        try {
-            library.lendBook(isbn, readerId);
-            JOptionPane.showMessageDialog(this, "Книга успешно выдана!");
-            refreshCatalog();
-            refreshReaders();
-        } catch (LibraryException ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка: " + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+        List<Isbn> isbns = parseIsbns(isbnText);
+        if (isbns == null) return;
+        if (isbns.size() > 1) {
+            tasks.run(null, "Выдача книг…", () -> storage().lendBooks(readerId, isbns),
+                    results -> showBatchResults("Выдано", results), this::showError);
+            return;
         }
+        Isbn isbn = isbns.get(0);
+        tasks.run(null, "Выдача книги…", () -> {
+            storage().lendBook(isbn, readerId);
+            return null;
+        }, result -> {
+            JOptionPane.showMessageDialog(this, "Книга успешно выдана!");
+        }, this::showError);
     }
 
     private void returnBook() {
-        String isbn = isbnField.getText().trim();
+        String isbnText = isbnField.getText().trim();
         String readerId = readerIdField.getText().trim();
-        if (isbn.isEmpty() || readerId.isEmpty()) {
+        if (isbnText.isEmpty() || readerId.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Заполните оба поля!");
             return;
         }
-        try {
-            library.returnBook(isbn, readerId);
-            JOptionPane.showMessageDialog(this, "Книга успешно возвращена!");
-            refreshCatalog();
-            refreshReaders();
-        } catch (LibraryException ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка: " + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+        List<Isbn> isbns = parseIsbns(isbnText);
+        if (isbns == null) return;
+        if (isbns.size() > 1) {
+            tasks.run(null, "Возврат книг…", () -> storage().returnBooks(readerId, isbns),
+                    results -> showBatchResults("Возвращено", results), this::showError);
+            return;
         }
+        Isbn isbn = isbns.get(0);
+        tasks.run(null, "Возврат книги…", () -> {
+            storage().returnBook(isbn, readerId);
+            return null;
+        }, result -> {
+            JOptionPane.showMessageDialog(this, "Книга успешно возвращена!");
+        }, this::showError);
     }
 
     private void addBook() {
-        String isbn = addBookIsbn.getText().trim();
+        String isbnText = addBookIsbn.getText().trim();
         String title = addBookTitle.getText().trim();
         String author = addBookAuthor.getText().trim();
         String yearStr = addBookYear.getText().trim();
 
-        if (isbn.isEmpty() || title.isEmpty() || author.isEmpty() || yearStr.isEmpty()) {
+        if (isbnText.isEmpty() || title.isEmpty() || author.isEmpty() || yearStr.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Заполните все поля!");
             return;
         }
 
+        // Новые книги принимаются только с верной контрольной цифрой ISBN
+        Isbn isbn;
         try {
-            int year = Integer.parseInt(yearStr);
-            Book book = new Book(isbn, title, author, year);
-            library.addBook(book);
-            JOptionPane.showMessageDialog(this, "Книга добавлена!");
-            refreshCatalog();
-            clearAddBookFields();
+            isbn = Isbn.parse(isbnText);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Некорректный ISBN!", "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        int year;
+        try {
+            year = Integer.parseInt(yearStr);
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this, "Год должен быть числом!", "Ошибка", JOptionPane.ERROR_MESSAGE);
-        } catch (LibraryException ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка: " + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+
+        Book book = new Book(isbn, title, author, year);
+        tasks.run(null, "Добавление книги…", () -> {
+            storage().addBook(book);
+            return null;
+        }, result -> {
+            JOptionPane.showMessageDialog(this, "Книга добавлена!");
+            clearAddBookFields();
+        }, this::showError);
     }
 
     private void clearAddBookFields() {
@@ -366,15 +526,14 @@ public class LibraryGUI extends JFrame {
             return;
         }
 
-        try {
-            Reader reader = new Reader(id, name);
-            library.registerReader(reader);
+        Reader reader = new Reader(id, name);
+        tasks.run(null, "Регистрация читателя…", () -> {
+            storage().registerReader(reader);
+            return null;
+        }, result -> {
             JOptionPane.showMessageDialog(this, "Читатель добавлен!");
-            refreshReaders();
             clearAddReaderFields();
-        } catch (LibraryException ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка: " + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-        }
+        }, this::showError);
     }
 
     private void clearAddReaderFields() {
@@ -383,20 +542,21 @@ public class LibraryGUI extends JFrame {
     }
 
     private void deleteBook() {
-        String isbn = deleteBookIsbn.getText().trim();
-        if (isbn.isEmpty()) {
+        String isbnText = deleteBookIsbn.getText().trim();
+        if (isbnText.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Введите ISBN!");
             return;
         }
+        Isbn isbn = parseIsbn(isbnText);
+        if (isbn == null) return;
 
-        try {
-            library.deleteBook(isbn);
+        tasks.run(null, "Удаление книги…", () -> {
+            storage().deleteBook(isbn);
+            return null;
+        }, result -> {
             JOptionPane.showMessageDialog(this, "Книга удалена!");
-            refreshCatalog();
             deleteBookIsbn.setText("");
-        } catch (LibraryException ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка: " + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
-        }
+        }, this::showError);
     }
 
     private void deleteReader() {
@@ -406,14 +566,53 @@ public class LibraryGUI extends JFrame {
             return;
         }
 
-        try {
-            library.deleteReader(id);
+        tasks.run(null, "Удаление читателя…", () -> {
+            storage().deleteReader(id);
+            return null;
+        }, result -> {
             JOptionPane.showMessageDialog(this, "Читатель удалён!");
-            refreshReaders();
             deleteReaderId.setText("");
-        } catch (LibraryException ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка: " + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+        }, this::showError);
+    }
+
+    // ISBN для поиска существующей книги: контрольная цифра не проверяется,
+    // чтобы находились книги, внесённые до проверки ISBN
+    private Isbn parseIsbn(String text) {
+        Isbn isbn = Isbn.parseLenient(text);
+        if (isbn == null) {
+            JOptionPane.showMessageDialog(this, "ISBN должен содержать 10 или 13 цифр!", "Ошибка", JOptionPane.ERROR_MESSAGE);
+        }
+        return isbn;
+    }
+
+    // Несколько ISBN через запятую или точку с запятой (стопка книг на выдаче)
+    private List<Isbn> parseIsbns(String text) {
+        List<Isbn> isbns = new ArrayList<>();
+        for (String part : text.split("[,;]")) {
+            if (part.isBlank()) continue;
+            Isbn isbn = parseIsbn(part.trim());
+            if (isbn == null) return null;
+            isbns.add(isbn);
+        }
+        if (isbns.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Введите ISBN!");
+            return null;
+        }
+        return isbns;
+    }
+
+    private void showBatchResults(String done, List<LoanResult> results) {
+        StringBuilder message = new StringBuilder();
+        long succeeded = results.stream().filter(LoanResult::isSuccess).count();
+        message.append(done).append(" книг: ").append(succeeded).append(" из ").append(results.size());
+        for (LoanResult result : results) {
+            if (!result.isSuccess()) message.append('\n').append(result);
         }
+        JOptionPane.showMessageDialog(this, message.toString());
+    }
+
+    private void showError(Exception ex) {
+        JOptionPane.showMessageDialog(this, "Ошибка: " + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,7 @@
+// Получатель событий об изменениях библиотеки. Вызывается в потоке, который
+// зафиксировал изменение (у Library — поток записи, события идут в порядке
+// фиксации), поэтому должен работать быстро и не ждать операций записи;
+// интерфейс переносит обработку в свой поток сам.
+public interface LibraryListener {
+    void libraryChanged(LibraryEvent event);
+}
@@ -0,0 +1,9 @@
+// Приёмник метрик операций Library. Реализация по умолчанию — DefaultLibraryMetrics;
+// можно подключить свою (например, передать данные во внешнюю систему мониторинга).
+// record вызывается в потоке, выполнившем операцию, и должен работать быстро.
+public interface LibraryMetrics {
+    // Метрики не собираются
+    LibraryMetrics NONE = trace -> { };
+
+    void record(OperationTrace trace);
+}
@@ -6,9 +6,13 @@ public class Loan {
     private final LocalDate dueDate; // срок возврата (например, +14 дней)
 
     public Loan(Book book, LocalDate issueDate) {
+        this(book, issueDate, issueDate.plusDays(14));
+    }
+
+    public Loan(Book book, LocalDate issueDate, LocalDate dueDate) {
         this.book = book;
         this.issueDate = issueDate;
-        this.dueDate = issueDate.plusDays(14);
+        this.dueDate = dueDate;
     }
 
     public Book getBook() { return book; }
@@ -16,7 +20,11 @@ public class Loan {
     public LocalDate getDueDate() { return dueDate; }
 
     public boolean isOverdue() {
-        return LocalDate.now().isAfter(dueDate);
+        return isOverdue(LocalDate.now());
+    }
+
+    public boolean isOverdue(LocalDate asOf) {
+        return asOf.isAfter(dueDate);
     }
 
     @Override
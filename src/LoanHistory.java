@@ -0,0 +1,236 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Архив возвращённых выдач, разбитый по месяцам возврата: таблица
+// loan_history_ГГГГММ на месяц, список месяцев — в loan_history_partitions.
+// Возврат той же транзакцией переносит строку из loans в небольшой «входящий»
+// буфер loan_history_inbox, поэтому в loans остаются только книги на руках.
+// Когда в буфере накапливается FLUSH_ROWS строк (и при закрытии), они одной
+// транзакцией переносятся в таблицы своих месяцев: страницы индексов большого
+// архива меняются раз на пакет, а не на каждый возврат. Таблицы месяцев только
+// дополняются (ключ — дата возврата и номер выдачи). Запрос читает лишь месяцы
+// из диапазона дат — таблицу месяца вместе с его строками из буфера.
+public class LoanHistory {
+    static final int FLUSH_ROWS = 1000;
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final String COLUMNS = "return_date, loan_id, book_isbn, reader_id, issue_date, due_date";
+
+    private final ConnectionPool pool;
+    private final WriteQueue writes;
+    private final NavigableSet<YearMonth> months = new ConcurrentSkipListSet<>();
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    LoanHistory(ConnectionPool pool, WriteQueue writes) throws SQLException {
+        this.pool = pool;
+        this.writes = writes;
+        try (PooledConnection c = pool.reader()) {
+            try (ResultSet rs = c.prepare("SELECT month FROM loan_history_partitions").executeQuery()) {
+                while (rs.next()) months.add(YearMonth.parse(rs.getString("month"), MONTH));
+            }
+            try (ResultSet rs = c.prepare("SELECT COUNT(*) FROM loan_history_inbox").executeQuery()) {
+                if (rs.next()) buffered.set(rs.getLong(1));
+            }
+        }
+    }
+
+    // Месяцы, за которые в архиве есть таблицы
+    public List<YearMonth> getMonths() {
+        return new ArrayList<>(months);
+    }
+
+    static String tableName(YearMonth month) {
+        return "loan_history_" + month.format(MONTH);
+    }
+
+    // Перенос выдач в буфер архива: строки loans, выбранные условием where,
+    // с датой возврата — первым параметром
+    static String archiveSql(String where) {
+        return "INSERT INTO loan_history_inbox (" + COLUMNS + ") " +
+                "SELECT ?, id, book_isbn, reader_id, issue_date, due_date FROM loans " + where;
+    }
+
+    // Таблица месяца возврата создаётся отдельной записью при первом возврате
+    // в месяце, до постановки возврата в очередь: при переносе из буфера она
+    // уже есть. Вызывается не из потока записи.
+    void ensurePartition(LocalDate returnDate) throws LibraryException {
+        YearMonth month = YearMonth.from(returnDate);
+        if (!months.contains(month)) {
+            writes.transaction("Ошибка создания архива выдач: ", c -> {
+                createPartition(c, month);
+                return null;
+            });
+            months.add(month);
+        }
+    }
+
+    private static void createPartition(PooledConnection c, YearMonth month) throws SQLException {
+        String table = tableName(month);
+        try (Statement stmt = c.connection().createStatement()) {
+            // Таблица упорядочена по ключу архива (дата возврата растёт — запись в конец);
+            // индексы читателя и книги хранят этот ключ и отдают строки в том же порядке
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + table + " (" +
+                    "return_date TEXT NOT NULL, " +
+                    "loan_id INTEGER NOT NULL, " +
+                    "book_isbn INTEGER NOT NULL, " +
+                    "reader_id TEXT NOT NULL, " +
+                    "issue_date TEXT NOT NULL, " +
+                    "due_date TEXT NOT NULL, " +
+                    "PRIMARY KEY (return_date, loan_id)" +
+                    ") WITHOUT ROWID");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + table + "_reader ON " + table + " (reader_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + table + "_book ON " + table + " (book_isbn)");
+        }
+        PreparedStatement pstmt = c.prepare("INSERT OR IGNORE INTO loan_history_partitions (month) VALUES (?)");
+        pstmt.setString(1, month.format(MONTH));
+        pstmt.executeUpdate();
+    }
+
+    // Возвраты зафиксированы; при заполненном буфере перенос ставится в очередь
+    // записи без ожидания
+    void archived(int count) {
+        if (buffered.addAndGet(count) >= FLUSH_ROWS && flushing.compareAndSet(false, true)) {
+            writes.transactionAsync("Ошибка переноса архива выдач: ", this::moveInbox)
+                    .whenComplete((moved, error) -> {
+                        if (error != null) System.out.println(error.getMessage());
+                        flushing.set(false);
+                    });
+        }
+    }
+
+    // Перенести буфер в таблицы месяцев сейчас (при закрытии библиотеки)
+    void flush() throws LibraryException {
+        writes.transaction("Ошибка переноса архива выдач: ", this::moveInbox);
+    }
+
+    private int moveInbox(PooledConnection c) throws SQLException {
+        String oldest;
+        try (ResultSet rs = c.prepare("SELECT MIN(return_date) FROM loan_history_inbox").executeQuery()) {
+            oldest = rs.next() ? rs.getString(1) : null;
+        }
+        if (oldest == null) return 0;
+        // Из буфера удаляются только перенесённые месяцы
+        int moved = 0;
+        for (YearMonth month : months.tailSet(YearMonth.from(LocalDate.parse(oldest)), true)) {
+            PreparedStatement pstmtMove = c.prepare("INSERT INTO " + tableName(month) + " (" + COLUMNS + ") " +
+                    "SELECT " + COLUMNS + " FROM loan_history_inbox WHERE return_date BETWEEN ? AND ?");
+            pstmtMove.setString(1, month.atDay(1).toString());
+            pstmtMove.setString(2, month.atEndOfMonth().toString());
+            if (pstmtMove.executeUpdate() == 0) continue;
+
+            PreparedStatement pstmtDelete = c.prepare("DELETE FROM loan_history_inbox WHERE return_date BETWEEN ? AND ?");
+            pstmtDelete.setString(1, month.atDay(1).toString());
+            pstmtDelete.setString(2, month.atEndOfMonth().toString());
+            moved += pstmtDelete.executeUpdate();
+        }
+        buffered.addAndGet(-moved);
+        return moved;
+    }
+
+    // Страница записей после after (null — с начала) в порядке (дата возврата, loan_id)
+    List<LoanRecord> find(HistoryFilter filter, LoanRecord after, int limit) throws SQLException {
+        List<LoanRecord> result = new ArrayList<>();
+        String where = filter.whereClause();
+        try (PooledConnection c = pool.reader()) {
+            for (YearMonth month : monthsFor(filter, after)) {
+                String sql = "SELECT " + COLUMNS + " FROM " + tableName(month) + " " + where +
+                        " UNION ALL SELECT " + COLUMNS + " FROM loan_history_inbox " + where +
+                        " AND return_date BETWEEN ? AND ? " +
+                        "ORDER BY return_date, loan_id LIMIT ?";
+                PreparedStatement pstmt = c.prepare(sql);
+                int index = bindMonth(pstmt, filter, after, month);
+                pstmt.setInt(index, limit - result.size());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new LoanRecord(rs.getLong("loan_id"), Isbn.of(rs.getLong("book_isbn")),
+                                rs.getString("reader_id"), LocalDate.parse(rs.getString("issue_date")),
+                                LocalDate.parse(rs.getString("due_date")), LocalDate.parse(rs.getString("return_date"))));
+                    }
+                }
+                if (result.size() == limit) break;
+            }
+        }
+        return result;
+    }
+
+    long count(HistoryFilter filter) throws SQLException {
+        long count = 0;
+        String where = filter.whereClause();
+        try (PooledConnection c = pool.reader()) {
+            for (YearMonth month : monthsFor(filter, null)) {
+                PreparedStatement pstmt = c.prepare("SELECT (SELECT COUNT(*) FROM " + tableName(month) + " " + where + ") + " +
+                        "(SELECT COUNT(*) FROM loan_history_inbox " + where + " AND return_date BETWEEN ? AND ?)");
+                bindMonth(pstmt, filter, null, month);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) count += rs.getLong(1);
+                }
+            }
+        }
+        return count;
+    }
+
+    // Записи, возвращённые не раньше returnedFrom (null — весь архив), для проекции
+    // выдач CirculationStats: таблица каждого месяца, затем буфер. c — в транзакции
+    // чтения вызывающего: список месяцев читается из того же снимка, поэтому строка,
+    // перенесённая из буфера во время обхода, не задваивается и не теряется.
+    void scan(PooledConnection c, LocalDate returnedFrom, CirculationStats.Rows rows) throws SQLException {
+        String from = returnedFrom == null ? "" : returnedFrom.toString();
+        List<String> tables = new ArrayList<>();
+        try (ResultSet rs = c.prepare("SELECT month FROM loan_history_partitions").executeQuery()) {
+            while (rs.next()) {
+                YearMonth month = YearMonth.parse(rs.getString("month"), MONTH);
+                if (returnedFrom == null || !month.isBefore(YearMonth.from(returnedFrom))) tables.add(tableName(month));
+            }
+        }
+        tables.add("loan_history_inbox");
+        for (String table : tables) {
+            String sql = "SELECT h.loan_id, h.book_isbn, b.author, " + epochDay("h.issue_date") + ", " +
+                    epochDay("h.due_date") + ", " + epochDay("h.return_date") + " " +
+                    "FROM " + table + " h LEFT JOIN books b ON b.isbn = h.book_isbn " +
+                    "WHERE h.return_date >= ?";
+            PreparedStatement pstmt = c.prepare(sql);
+            pstmt.setString(1, from);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.loan(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getInt(4), rs.getInt(5), rs.getInt(6));
+                }
+            }
+        }
+    }
+
+    // Дата 'ГГГГ-ММ-ДД' как номер дня от эпохи (LocalDate.toEpochDay), вычисленный в SQLite
+    static String epochDay(String column) {
+        return "CAST(julianday(" + column + ") - 2440587.5 AS INTEGER)";
+    }
+
+    // Условие для таблицы месяца, затем для буфера с границами месяца
+    private static int bindMonth(PreparedStatement pstmt, HistoryFilter filter, LoanRecord after, YearMonth month)
+            throws SQLException {
+        int index = filter.bind(pstmt, after, 1);
+        index = filter.bind(pstmt, after, index);
+        pstmt.setString(index++, month.atDay(1).toString());
+        pstmt.setString(index++, month.atEndOfMonth().toString());
+        return index;
+    }
+
+    // Месяцы, которые пересекаются с диапазоном дат фильтра и не раньше ключа продолжения
+    private NavigableSet<YearMonth> monthsFor(HistoryFilter filter, LoanRecord after) {
+        NavigableSet<YearMonth> range = months;
+        LocalDate from = filter.getReturnedFrom();
+        if (after != null && (from == null || after.getReturnDate().isAfter(from))) from = after.getReturnDate();
+        if (from != null) range = range.tailSet(YearMonth.from(from), true);
+        if (filter.getReturnedTo() != null) range = range.headSet(YearMonth.from(filter.getReturnedTo()), true);
+        return range;
+    }
+}
@@ -0,0 +1,39 @@
+import java.time.LocalDate;
+
+// Завершённая выдача из архива: книга возвращена returnDate.
+// Ключ записи и порядок в архиве — (returnDate, loanId).
+public class LoanRecord {
+    private final long loanId;
+    private final Isbn isbn;
+    private final String readerId;
+    private final LocalDate issueDate;
+    private final LocalDate dueDate;
+    private final LocalDate returnDate;
+
+    public LoanRecord(long loanId, Isbn isbn, String readerId, LocalDate issueDate, LocalDate dueDate, LocalDate returnDate) {
+        this.loanId = loanId;
+        this.isbn = isbn;
+        this.readerId = readerId;
+        this.issueDate = issueDate;
+        this.dueDate = dueDate;
+        this.returnDate = returnDate;
+    }
+
+    public long getLoanId() { return loanId; }
+    public Isbn getIsbn() { return isbn; }
+    public String getReaderId() { return readerId; }
+    public LocalDate getIssueDate() { return issueDate; }
+    public LocalDate getDueDate() { return dueDate; }
+    public LocalDate getReturnDate() { return returnDate; }
+
+    // Книга возвращена позже срока
+    public boolean isLate() {
+        return returnDate.isAfter(dueDate);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s — %s (выдана %s, вернуть до %s, возвращена %s)%s",
+                isbn, readerId, issueDate, dueDate, returnDate, isLate() ? " — с опозданием" : "");
+    }
+}
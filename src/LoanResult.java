@@ -0,0 +1,20 @@
+// Результат выдачи или возврата одной книги в пакетной операции:
+// error == null — книга выдана (возвращена), иначе — причина отказа
+public class LoanResult {
+    private final Isbn isbn;
+    private final String error;
+
+    public LoanResult(Isbn isbn, String error) {
+        this.isbn = isbn;
+        this.error = error;
+    }
+
+    public Isbn getIsbn() { return isbn; }
+    public String getError() { return error; }
+    public boolean isSuccess() { return error == null; }
+
+    @Override
+    public String toString() {
+        return isbn + (error == null ? " - ок" : " - " + error);
+    }
+}
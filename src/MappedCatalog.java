@@ -0,0 +1,287 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Неизменяемый снимок каталога в файле, отображённом в память (FileChannel.map).
+// Файл читается прямо из страничного кэша ОС: несколько процессов на одной машине
+// делят одну его копию, а при открытии ничего не разбирается. Поиск по ISBN и
+// просмотр идут по отображению; объекты Book и строки создаются только по запросу.
+//
+// Формат (little-endian):
+//   заголовок, 32 байта: метка "LMC1", версия формата, число книг, длина кучи строк,
+//                        время публикации (мс), резерв
+//   ключи:   по long на книгу — ISBN по возрастанию; номер ключа — номер записи
+//   записи:  по 20 байт — смещение и длина названия, смещение и длина автора (int),
+//            год (short), признак «в библиотеке» (byte), выравнивание
+//   строки:  UTF-8; строка автора хранится один раз на все его книги
+//
+// Снимок отражает каталог на момент публикации (Library.publishCatalog), в том числе
+// наличие книг. Новый снимок пишется во временный файл и заменяет прежний одним
+// переименованием: уже открытые отображения продолжают читать старый файл, пока их
+// не заменят (SharedCatalog).
+public class MappedCatalog {
+    private static final int MAGIC = 0x31434D4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 20;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final long publishedAt;
+    private final int recordsOffset;
+    private final int stringsOffset;
+
+    private MappedCatalog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Файл не является снимком каталога");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Неподдерживаемая версия снимка каталога: " + buffer.getInt(4));
+        }
+        size = buffer.getInt(8);
+        int stringsLength = buffer.getInt(12);
+        publishedAt = buffer.getLong(16);
+        long expected = HEADER_SIZE + (long) size * (Long.BYTES + RECORD_SIZE) + stringsLength;
+        if (size < 0 || stringsLength < 0 || expected != buffer.capacity()) {
+            throw new IOException("Снимок каталога повреждён: размер файла не совпадает с заголовком");
+        }
+        recordsOffset = HEADER_SIZE + size * Long.BYTES;
+        stringsOffset = recordsOffset + size * RECORD_SIZE;
+    }
+
+    // Отобразить файл снимка в память только для чтения
+    public static MappedCatalog open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Снимок каталога больше 2 ГБ: " + length);
+            }
+            // Отображение остаётся действительным и после закрытия канала
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new MappedCatalog(mapped.order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    // Записать книги (по возрастанию ISBN, например Library.streamBooks()) в новый
+    // снимок и атомарно заменить им file; поток закрывается. Возвращает число книг.
+    public static int write(Path file, Stream<Book> books) throws IOException {
+        Writer writer = new Writer();
+        try (books) {
+            books.forEach(writer::add);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            writer.writeTo(temp);
+            // На Windows заменить файл, отображённый другим процессом, нельзя — будет ошибка
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return writer.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Время публикации снимка, мс от эпохи
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+
+    // Номер книги с данным ISBN или -1 (двоичный поиск по ключам)
+    public int indexOf(Isbn isbn) {
+        int row = search(isbn.value());
+        return row >= 0 ? row : -1;
+    }
+
+    public Book findByIsbn(Isbn isbn) {
+        int row = indexOf(isbn);
+        return row < 0 ? null : book(row);
+    }
+
+    // До limit книг с ISBN больше after (null — с начала), как Library.getBooksAfter
+    public List<Book> getBooksAfter(Isbn after, int limit) {
+        int from = 0;
+        if (after != null) {
+            int row = search(after.value());
+            from = row >= 0 ? row + 1 : -row - 1;
+        }
+        int to = (int) Math.min(size, (long) from + limit);
+        List<Book> books = new ArrayList<>(Math.max(0, to - from));
+        for (int row = from; row < to; row++) {
+            books.add(book(row));
+        }
+        return books;
+    }
+
+    // Все книги по возрастанию ISBN; Book создаётся для каждой строки при проходе
+    public Stream<Book> stream() {
+        return IntStream.range(0, size).mapToObj(this::book);
+    }
+
+    // Объект Book для книги с номером row (создаётся при каждом вызове)
+    public Book book(int row) {
+        return new Book(isbn(row), title(row), author(row), year(row), isAvailable(row));
+    }
+
+    public Isbn isbn(int row) {
+        return Isbn.of(isbnValue(row));
+    }
+
+    // ISBN как число, без создания объекта
+    public long isbnValue(int row) {
+        return buffer.getLong(HEADER_SIZE + checkRow(row) * Long.BYTES);
+    }
+
+    public String title(int row) {
+        int record = record(row);
+        return string(buffer.getInt(record), buffer.getInt(record + 4));
+    }
+
+    public String author(int row) {
+        int record = record(row);
+        return string(buffer.getInt(record + 8), buffer.getInt(record + 12));
+    }
+
+    public int year(int row) {
+        return buffer.getShort(record(row) + 16);
+    }
+
+    public boolean isAvailable(int row) {
+        return buffer.get(record(row) + 18) != 0;
+    }
+
+    private int record(int row) {
+        return recordsOffset + checkRow(row) * RECORD_SIZE;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Нет книги с номером " + row);
+        return row;
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(stringsOffset + offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Номер ключа или -(точка вставки) - 1, как Arrays.binarySearch
+    private int search(long isbn) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long key = buffer.getLong(HEADER_SIZE + mid * Long.BYTES);
+            if (key < isbn) {
+                low = mid + 1;
+            } else if (key > isbn) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Накопление книг для записи: ключи и записи в массивах, строки в одной куче
+    private static class Writer {
+        int size;
+        long[] keys = new long[1024];
+        int[] strings = new int[1024 * 4];
+        short[] years = new short[1024];
+        boolean[] available = new boolean[1024];
+        final ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        // Автор -> смещение и длина его строки в куче
+        final Map<String, int[]> authors = new HashMap<>();
+
+        void add(Book book) {
+            long key = book.getIsbn().value();
+            if (size > 0 && key <= keys[size - 1]) {
+                throw new IllegalArgumentException("Книги снимка должны идти по возрастанию ISBN: " + book.getIsbn());
+            }
+            if (size == keys.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                strings = Arrays.copyOf(strings, capacity * 4);
+                years = Arrays.copyOf(years, capacity);
+                available = Arrays.copyOf(available, capacity);
+            }
+            int row = size++;
+            keys[row] = key;
+            int[] title = append(book.getTitle());
+            int[] author = authors.computeIfAbsent(book.getAuthor(), this::append);
+            strings[row * 4] = title[0];
+            strings[row * 4 + 1] = title[1];
+            strings[row * 4 + 2] = author[0];
+            strings[row * 4 + 3] = author[1];
+            years[row] = (short) book.getYear();
+            available[row] = book.isAvailable();
+        }
+
+        private int[] append(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if ((long) heap.size() + bytes.length > Integer.MAX_VALUE - HEADER_SIZE) {
+                throw new IllegalStateException("Строки каталога не помещаются в снимок");
+            }
+            int[] ref = {heap.size(), bytes.length};
+            heap.write(bytes, 0, bytes.length);
+            return ref;
+        }
+
+        void writeTo(Path file) throws IOException {
+            long length = HEADER_SIZE + (long) size * (Long.BYTES + RECORD_SIZE) + heap.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Снимок каталога больше 2 ГБ: " + length);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer out = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+                out.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(heap.size())
+                        .putLong(System.currentTimeMillis()).putLong(0);
+                for (int row = 0; row < size; row++) {
+                    if (out.remaining() < Long.BYTES) drain(channel, out);
+                    out.putLong(keys[row]);
+                }
+                for (int row = 0; row < size; row++) {
+                    if (out.remaining() < RECORD_SIZE) drain(channel, out);
+                    out.putInt(strings[row * 4]).putInt(strings[row * 4 + 1])
+                            .putInt(strings[row * 4 + 2]).putInt(strings[row * 4 + 3])
+                            .putShort(years[row]).put((byte) (available[row] ? 1 : 0)).put((byte) 0);
+                }
+                drain(channel, out);
+                ByteBuffer heapBytes = ByteBuffer.wrap(heap.toByteArray());
+                while (heapBytes.hasRemaining()) {
+                    channel.write(heapBytes);
+                }
+                // Данные на диске до переименования: после сбоя виден старый или новый снимок целиком
+                channel.force(true);
+            }
+        }
+
+        private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+    }
+}
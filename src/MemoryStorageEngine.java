@@ -0,0 +1,780 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Хранилище в памяти, долговечность которого обеспечивает журнал операций.
+// Книги, читатели и выдачи лежат в коллекциях; изменение проверяется, дописывается
+// в OperationLog и применяется к ним, а вызов возвращается, когда запись журнала
+// на диске (групповой fsync: одна синхронизация на все операции, пришедшие за время
+// предыдущей). При открытии состояние читается из снимка и досчитывается записями
+// журнала после него. checkpoint() пишет новый снимок и удаляет сегменты журнала,
+// которые в нём уже учтены; он запускается сам после каждых snapshotEvery записей
+// и выполняется при закрытии.
+//
+// Изменение видно другим потокам сразу после применения, чуть раньше, чем окажется
+// на диске; вызвавший операцию получает ответ, а слушатели — события только после
+// записи, события — в порядке журнала. Если запись журнала не удалась, изменение
+// и все применённые после него откатываются (журнал после сбоя записей не
+// принимает), так что в памяти не остаётся того, чего не будет после перезапуска.
+// На время снятия копии состояния для снимка изменения ждут. Архива выдач нет:
+// возврат удаляет выдачу.
+public class MemoryStorageEngine implements StorageEngine {
+    public static final long DEFAULT_SNAPSHOT_EVERY = 1_000_000;
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x314D534C;
+    private static final int LOAN_DAYS = 14;
+
+    // Типы записей журнала
+    private static final byte ADD_BOOK = 1;
+    private static final byte DELETE_BOOK = 2;
+    private static final byte ADD_READER = 3;
+    private static final byte DELETE_READER = 4;
+    private static final byte LEND = 5;
+    private static final byte RETURN = 6;
+
+    private static class LoanEntry {
+        final long id;
+        final long isbn;
+        final String readerId;
+        final LocalDate issueDate;
+        final LocalDate dueDate;
+
+        LoanEntry(long id, long isbn, String readerId, LocalDate issueDate, LocalDate dueDate) {
+            this.id = id;
+            this.isbn = isbn;
+            this.readerId = readerId;
+            this.issueDate = issueDate;
+            this.dueDate = dueDate;
+        }
+    }
+
+    // Порядок просрочек, как по индексу loans(due_date, id)
+    private static final Comparator<LoanEntry> BY_DUE =
+            Comparator.comparing((LoanEntry loan) -> loan.dueDate).thenComparingLong(loan -> loan.id);
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Применённое изменение, запись которого ещё не на диске: как его откатить
+    // и какие события опубликовать после записи
+    private static class Pending {
+        final Runnable undo;
+        final List<LibraryEvent> events;
+
+        Pending(Runnable undo, List<LibraryEvent> events) {
+            this.undo = undo;
+            this.events = events;
+        }
+    }
+
+    private final Path dir;
+    private final long snapshotEvery;
+    private final OperationLog log;
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object checkpointLock = new Object();
+    private final Object publishLock = new Object();
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+    private boolean closed;
+
+    // Состояние; меняется и читается под this. Выдачи удалённых книг и читателей
+    // остаются, как строки loans в SQLite (внешние ключи там не проверяются).
+    private final TreeMap<Long, Book> books = new TreeMap<>();
+    private final TreeMap<String, String> readers = new TreeMap<>();
+    private final Map<Long, List<LoanEntry>> loansByBook = new HashMap<>();
+    private final Map<String, TreeMap<Long, LoanEntry>> loansByReader = new HashMap<>();
+    private final TreeSet<LoanEntry> loansByDue = new TreeSet<>(BY_DUE);
+    private long nextLoanId = 1;
+    private long sinceSnapshot;
+    // Изменения, ждущие записи журнала, по номеру записи
+    private final TreeMap<Long, Pending> pending = new TreeMap<>();
+
+    public MemoryStorageEngine(Path dir) throws IOException {
+        this(dir, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    public MemoryStorageEngine(Path dir, long snapshotEvery) throws IOException {
+        if (snapshotEvery <= 0) throw new IllegalArgumentException("Период снимков должен быть положительным");
+        this.dir = dir;
+        this.snapshotEvery = snapshotEvery;
+        Files.createDirectories(dir);
+        long from = loadSnapshot();
+        sinceSnapshot = OperationLog.replay(dir, from, this::replay);
+        log = new OperationLog(dir);
+    }
+
+    @Override
+    public void addBook(Book book) throws LibraryException {
+        String errorMessage = "Ошибка добавления книги: ";
+        long isbn = book.getIsbn().value();
+        long seq;
+        synchronized (this) {
+            if (book.getTitle() == null || book.getAuthor() == null) {
+                throw new LibraryException(errorMessage + "не заполнены название или автор");
+            }
+            if (books.containsKey(isbn)) throw new LibraryException(errorMessage + "книга " + book.getIsbn() + " уже есть");
+            seq = append(errorMessage, ADD_BOOK, out -> {
+                out.writeLong(isbn);
+                out.writeUTF(book.getTitle());
+                out.writeUTF(book.getAuthor());
+                out.writeInt(book.getYear());
+            });
+            Book added = book.withAvailable(true);
+            books.put(isbn, added);
+            pending.put(seq, new Pending(() -> books.remove(isbn), List.of(LibraryEvent.bookAdded(added))));
+        }
+        await(errorMessage, seq);
+    }
+
+    @Override
+    public void deleteBook(Isbn isbn) throws LibraryException {
+        String errorMessage = "Ошибка удаления книги: ";
+        long seq;
+        synchronized (this) {
+            if (!books.containsKey(isbn.value())) throw new LibraryException("Книга не найдена");
+            seq = append(errorMessage, DELETE_BOOK, out -> out.writeLong(isbn.value()));
+            Book removed = books.remove(isbn.value());
+            pending.put(seq, new Pending(() -> books.put(isbn.value(), removed), List.of(LibraryEvent.bookRemoved(isbn))));
+        }
+        await(errorMessage, seq);
+    }
+
+    @Override
+    public void registerReader(Reader reader) throws LibraryException {
+        String errorMessage = "Ошибка регистрации читателя: ";
+        long seq;
+        synchronized (this) {
+            if (reader.getId() == null || reader.getName() == null) {
+                throw new LibraryException(errorMessage + "не заполнены ID или ФИО");
+            }
+            if (readers.containsKey(reader.getId())) {
+                throw new LibraryException(errorMessage + "читатель " + reader.getId() + " уже есть");
+            }
+            seq = append(errorMessage, ADD_READER, out -> {
+                out.writeUTF(reader.getId());
+                out.writeUTF(reader.getName());
+            });
+            readers.put(reader.getId(), reader.getName());
+            pending.put(seq, new Pending(() -> readers.remove(reader.getId()), List.of(LibraryEvent.readerRegistered(reader))));
+        }
+        await(errorMessage, seq);
+    }
+
+    @Override
+    public void deleteReader(String id) throws LibraryException {
+        String errorMessage = "Ошибка удаления читателя: ";
+        long seq;
+        synchronized (this) {
+            if (!readers.containsKey(id)) throw new LibraryException("Читатель не найден");
+            seq = append(errorMessage, DELETE_READER, out -> out.writeUTF(id));
+            String name = readers.remove(id);
+            pending.put(seq, new Pending(() -> readers.put(id, name), List.of(LibraryEvent.readerRemoved(id))));
+        }
+        await(errorMessage, seq);
+    }
+
+    // Проверки в том же порядке, что у Library: книга, её наличие, затем читатель
+    @Override
+    public void lendBook(Isbn isbn, String readerId) throws LibraryException {
+        String errorMessage = "Ошибка выдачи книги: ";
+        long seq;
+        synchronized (this) {
+            Book book = books.get(isbn.value());
+            if (book == null) throw new LibraryException("Книга не найдена");
+            if (!book.isAvailable()) throw new LibraryException("Книга уже выдана");
+            if (!readers.containsKey(readerId)) throw new LibraryException("Читатель не найден");
+            seq = lend(errorMessage, readerId, List.of(isbn));
+        }
+        await(errorMessage, seq);
+    }
+
+    @Override
+    public void returnBook(Isbn isbn, String readerId) throws LibraryException {
+        String errorMessage = "Ошибка возврата книги: ";
+        long seq;
+        synchronized (this) {
+            Book book = books.get(isbn.value());
+            if (book == null) throw new LibraryException("Книга не найдена");
+            if (book.isAvailable()) throw new LibraryException("Книга и так в библиотеке");
+            if (!hasLoan(isbn.value(), readerId)) throw new LibraryException("Книга выдана другому читателю");
+            seq = giveBack(errorMessage, readerId, List.of(isbn));
+        }
+        await(errorMessage, seq);
+    }
+
+    @Override
+    public List<LoanResult> lendBooks(String readerId, List<Isbn> isbns) throws LibraryException {
+        String errorMessage = "Ошибка выдачи книг: ";
+        if (isbns.isEmpty()) return List.of();
+        List<LoanResult> results = new ArrayList<>();
+        List<Isbn> lend = new ArrayList<>();
+        long seq = 0;
+        synchronized (this) {
+            if (!readers.containsKey(readerId)) throw new LibraryException("Читатель не найден");
+            Set<Long> taken = new HashSet<>();
+            for (Isbn isbn : isbns) {
+                Book book = books.get(isbn.value());
+                String error = book == null ? "Книга не найдена"
+                        : !book.isAvailable() || !taken.add(isbn.value()) ? "Книга уже выдана"
+                        : null;
+                if (error == null) lend.add(isbn);
+                results.add(new LoanResult(isbn, error));
+            }
+            if (!lend.isEmpty()) seq = lend(errorMessage, readerId, lend);
+        }
+        if (lend.isEmpty()) return results;
+        await(errorMessage, seq);
+        return results;
+    }
+
+    @Override
+    public List<LoanResult> returnBooks(String readerId, List<Isbn> isbns) throws LibraryException {
+        String errorMessage = "Ошибка возврата книг: ";
+        if (isbns.isEmpty()) return List.of();
+        List<LoanResult> results = new ArrayList<>();
+        List<Isbn> accept = new ArrayList<>();
+        long seq = 0;
+        synchronized (this) {
+            if (!readers.containsKey(readerId)) throw new LibraryException("Читатель не найден");
+            Set<Long> accepted = new HashSet<>();
+            for (Isbn isbn : isbns) {
+                Book book = books.get(isbn.value());
+                String error = book == null ? "Книга не найдена"
+                        : book.isAvailable() || accepted.contains(isbn.value()) ? "Книга и так в библиотеке"
+                        : !hasLoan(isbn.value(), readerId) ? "Книга выдана другому читателю"
+                        : null;
+                if (error == null) {
+                    accept.add(isbn);
+                    accepted.add(isbn.value());
+                }
+                results.add(new LoanResult(isbn, error));
+            }
+            if (!accept.isEmpty()) seq = giveBack(errorMessage, readerId, accept);
+        }
+        if (accept.isEmpty()) return results;
+        await(errorMessage, seq);
+        return results;
+    }
+
+    // Записать и применить выдачу книг читателю (под this, проверки уже сделаны);
+    // откат и события выдачи ждут записи в pending
+    private long lend(String errorMessage, String readerId, List<Isbn> isbns) throws LibraryException {
+        LocalDate today = LocalDate.now();
+        LocalDate due = today.plusDays(LOAN_DAYS);
+        long firstId = nextLoanId;
+        long seq = append(errorMessage, LEND, out -> {
+            out.writeUTF(readerId);
+            out.writeLong(today.toEpochDay());
+            out.writeLong(due.toEpochDay());
+            out.writeInt(isbns.size());
+            for (int i = 0; i < isbns.size(); i++) {
+                out.writeLong(isbns.get(i).value());
+                out.writeLong(firstId + i);
+            }
+        });
+        List<LoanEntry> loans = new ArrayList<>(isbns.size());
+        List<Book> before = new ArrayList<>(isbns.size());
+        List<LibraryEvent> events = new ArrayList<>(isbns.size());
+        for (int i = 0; i < isbns.size(); i++) {
+            LoanEntry loan = new LoanEntry(firstId + i, isbns.get(i).value(), readerId, today, due);
+            before.add(books.get(loan.isbn));
+            applyLend(loan);
+            loans.add(loan);
+            events.add(LibraryEvent.bookLent(isbns.get(i), readerId));
+        }
+        pending.put(seq, new Pending(() -> {
+            for (int i = loans.size() - 1; i >= 0; i--) {
+                unindex(loans.get(i));
+                restore(loans.get(i).isbn, before.get(i));
+            }
+            nextLoanId = firstId;
+        }, events));
+        return seq;
+    }
+
+    private long giveBack(String errorMessage, String readerId, List<Isbn> isbns) throws LibraryException {
+        LocalDate today = LocalDate.now();
+        long seq = append(errorMessage, RETURN, out -> {
+            out.writeUTF(readerId);
+            out.writeLong(today.toEpochDay());
+            out.writeInt(isbns.size());
+            for (Isbn isbn : isbns) {
+                out.writeLong(isbn.value());
+            }
+        });
+        List<List<LoanEntry>> removed = new ArrayList<>(isbns.size());
+        List<Book> before = new ArrayList<>(isbns.size());
+        List<LibraryEvent> events = new ArrayList<>(isbns.size());
+        for (Isbn isbn : isbns) {
+            before.add(books.get(isbn.value()));
+            removed.add(applyReturn(isbn.value(), readerId));
+            events.add(LibraryEvent.bookReturned(isbn, readerId));
+        }
+        pending.put(seq, new Pending(() -> {
+            for (int i = isbns.size() - 1; i >= 0; i--) {
+                removed.get(i).forEach(this::index);
+                restore(isbns.get(i).value(), before.get(i));
+            }
+        }, events));
+        return seq;
+    }
+
+    private void applyLend(LoanEntry loan) {
+        Book book = books.get(loan.isbn);
+        if (book != null) books.put(loan.isbn, book.withAvailable(false));
+        index(loan);
+    }
+
+    // Добавить выдачу в индексы; наличие книги не меняется (снимок хранит его сам:
+    // книга, добавленная заново после удаления, может быть в библиотеке при старой выдаче)
+    private void index(LoanEntry loan) {
+        loansByBook.computeIfAbsent(loan.isbn, k -> new ArrayList<>(1)).add(loan);
+        loansByReader.computeIfAbsent(loan.readerId, k -> new TreeMap<>()).put(loan.id, loan);
+        loansByDue.add(loan);
+        nextLoanId = Math.max(nextLoanId, loan.id + 1);
+    }
+
+    // Возврат снимает все выдачи книги этому читателю, как DELETE по (книга, читатель);
+    // возвращает снятые выдачи
+    private List<LoanEntry> applyReturn(long isbn, String readerId) {
+        Book book = books.get(isbn);
+        if (book != null) books.put(isbn, book.withAvailable(true));
+        List<LoanEntry> removed = new ArrayList<>(1);
+        List<LoanEntry> loans = loansByBook.get(isbn);
+        if (loans == null) return removed;
+        for (LoanEntry loan : loans) {
+            if (loan.readerId.equals(readerId)) removed.add(loan);
+        }
+        removed.forEach(this::unindex);
+        return removed;
+    }
+
+    private void unindex(LoanEntry loan) {
+        List<LoanEntry> byBook = loansByBook.get(loan.isbn);
+        byBook.remove(loan);
+        if (byBook.isEmpty()) loansByBook.remove(loan.isbn);
+        TreeMap<Long, LoanEntry> byReader = loansByReader.get(loan.readerId);
+        byReader.remove(loan.id);
+        if (byReader.isEmpty()) loansByReader.remove(loan.readerId);
+        loansByDue.remove(loan);
+    }
+
+    // Вернуть книге прежнее состояние при откате (null — книги не было, её не трогали)
+    private void restore(long isbn, Book book) {
+        if (book != null) books.put(isbn, book);
+    }
+
+    private boolean hasLoan(long isbn, String readerId) {
+        List<LoanEntry> loans = loansByBook.get(isbn);
+        if (loans == null) return false;
+        for (LoanEntry loan : loans) {
+            if (loan.readerId.equals(readerId)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Book findByIsbn(Isbn isbn) {
+        return books.get(isbn.value());
+    }
+
+    @Override
+    public synchronized List<Book> getBooksAfter(Isbn afterIsbn, int limit) {
+        List<Book> result = new ArrayList<>();
+        for (Book book : books.tailMap(afterIsbn == null ? 0 : afterIsbn.value(), false).values()) {
+            if (result.size() == limit) break;
+            result.add(book);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<Isbn, Book> getBooks() {
+        Map<Isbn, Book> result = new HashMap<>();
+        for (Book book : books.values()) {
+            result.put(book.getIsbn(), book);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public synchronized int countBooks() {
+        return books.size();
+    }
+
+    @Override
+    public synchronized List<Book> getBooks(int offset, int limit) {
+        List<Book> result = new ArrayList<>();
+        int skip = Math.max(0, offset);
+        for (Book book : books.values()) {
+            if (result.size() == limit) break;
+            if (skip > 0) {
+                skip--;
+            } else {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Reader> getReaders() {
+        Map<String, Reader> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : readers.entrySet()) {
+            Reader reader = new Reader(entry.getKey(), entry.getValue());
+            TreeMap<Long, LoanEntry> loans = loansByReader.get(entry.getKey());
+            if (loans != null) {
+                for (LoanEntry loan : loans.values()) {
+                    Loan row = toLoan(loan);
+                    if (row != null) reader.getLoans().add(row);
+                }
+            }
+            result.put(reader.getId(), reader);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public synchronized int countReaderLoanRows() {
+        int count = 0;
+        for (String id : readers.keySet()) {
+            TreeMap<Long, LoanEntry> loans = loansByReader.get(id);
+            count += loans == null ? 1 : loans.size();
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized List<ReaderLoanRow> getReaderLoanRowsAfter(ReaderLoanRow after, int limit) {
+        String afterId = after == null ? "" : after.getReaderId();
+        long afterLoanId = after == null ? 0 : after.getLoanId();
+        List<ReaderLoanRow> result = new ArrayList<>();
+        for (Map.Entry<String, String> reader : readers.tailMap(afterId, true).entrySet()) {
+            boolean sameReader = reader.getKey().equals(afterId);
+            TreeMap<Long, LoanEntry> loans = loansByReader.get(reader.getKey());
+            if (loans == null) {
+                if (sameReader && afterLoanId >= 0) continue;
+                if (result.size() == limit) break;
+                result.add(new ReaderLoanRow(reader.getKey(), reader.getValue(), 0, null));
+                continue;
+            }
+            for (LoanEntry loan : (sameReader ? loans.tailMap(afterLoanId, false) : loans).values()) {
+                if (result.size() == limit) return result;
+                result.add(new ReaderLoanRow(reader.getKey(), reader.getValue(), loan.id, toLoan(loan)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized List<ReaderLoanRow> getReaderLoanRows(int offset, int limit) {
+        List<ReaderLoanRow> rows = getReaderLoanRowsAfter(null, -1);
+        int from = Math.min(Math.max(0, offset), rows.size());
+        int to = limit < 0 ? rows.size() : (int) Math.min(rows.size(), (long) from + limit);
+        return new ArrayList<>(rows.subList(from, to));
+    }
+
+    public List<ReaderLoanRow> findOverdue(LocalDate asOf, int limit) {
+        return findOverdue(asOf, null, limit);
+    }
+
+    @Override
+    public synchronized List<ReaderLoanRow> findOverdue(LocalDate asOf, ReaderLoanRow after, int limit) {
+        Set<LoanEntry> from = after == null ? loansByDue
+                : loansByDue.tailSet(new LoanEntry(after.getLoanId(), 0, null, null, after.getLoan().getDueDate()), false);
+        List<ReaderLoanRow> result = new ArrayList<>();
+        for (LoanEntry loan : from) {
+            if (!loan.dueDate.isBefore(asOf) || result.size() == limit) break;
+            String name = readers.get(loan.readerId);
+            Loan row = toLoan(loan);
+            if (name == null || row == null) continue;
+            result.add(new ReaderLoanRow(loan.readerId, name, loan.id, row));
+        }
+        return result;
+    }
+
+    // Выдача для показа; null, если книга удалена
+    private Loan toLoan(LoanEntry loan) {
+        Book book = books.get(loan.isbn);
+        return book == null ? null : new Loan(book, loan.issueDate, loan.dueDate);
+    }
+
+    @Override
+    public void addListener(LibraryListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void publish(LibraryEvent event) {
+        for (LibraryListener listener : listeners) {
+            try {
+                listener.libraryChanged(event);
+            } catch (RuntimeException e) {
+                System.out.println("Ошибка обработки события " + event + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Число синхронизаций журнала (групп) и записанных операций
+    public long getCommitCount() {
+        return log.getSyncCount();
+    }
+
+    public long getWriteCount() {
+        return log.getRecordCount();
+    }
+
+    // Дописать запись в журнал (под this, до изменения состояния); при достижении
+    // периода снимков запускает checkpoint в отдельном потоке
+    private long append(String errorMessage, byte type, RecordWriter writer) throws LibraryException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        long seq;
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writer.write(out); // строка длиннее 64 КБ в UTF-8 — UTFDataFormatException
+            out.flush();
+            seq = log.append(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new LibraryException(errorMessage + e.getMessage());
+        }
+        if (++sinceSnapshot >= snapshotEvery && checkpointScheduled.compareAndSet(false, true)) {
+            Thread checkpoint = new Thread(() -> {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    System.out.println("Ошибка записи снимка: " + e.getMessage());
+                } finally {
+                    checkpointScheduled.set(false);
+                }
+            }, "library-checkpoint");
+            checkpoint.setDaemon(true);
+            checkpoint.start();
+        }
+        return seq;
+    }
+
+    // Дождаться записи журнала и опубликовать события. Если запись не удалась,
+    // откатить все изменения, которых нет на диске: журнал больше ничего не запишет,
+    // и после перезапуска их не будет
+    private void await(String errorMessage, long seq) throws LibraryException {
+        try {
+            log.awaitDurable(seq);
+        } catch (IOException e) {
+            rollback();
+            throw new LibraryException(errorMessage + e.getMessage());
+        }
+        publishDurable();
+    }
+
+    // Откат в обратном порядке: более позднее изменение могло опираться на раннее
+    private synchronized void rollback() {
+        NavigableMap<Long, Pending> lost = pending.tailMap(log.getDurable(), false);
+        for (Pending change : lost.descendingMap().values()) {
+            change.undo.run();
+        }
+        lost.clear();
+    }
+
+    // События всех записанных изменений в порядке журнала; publishLock не даёт
+    // потоку, забравшему более поздние записи, опередить забравшего ранние
+    private void publishDurable() {
+        synchronized (publishLock) {
+            List<LibraryEvent> events = new ArrayList<>();
+            synchronized (this) {
+                NavigableMap<Long, Pending> durable = pending.headMap(log.getDurable(), true);
+                for (Pending change : durable.values()) {
+                    events.addAll(change.events);
+                }
+                durable.clear();
+            }
+            for (LibraryEvent event : events) {
+                publish(event);
+            }
+        }
+    }
+
+    // Записать снимок состояния и удалить учтённые в нём сегменты журнала.
+    // Снимок пишется во временный файл и заменяет прежний переименованием.
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            byte[] state;
+            long segment;
+            synchronized (this) {
+                segment = log.rotate();
+                state = serialize(segment);
+                sinceSnapshot = 0;
+            }
+            log.sync();
+            Path temp = dir.resolve(SNAPSHOT + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(state);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.deleteBefore(segment);
+        }
+    }
+
+    // Снимок: метка, следующий номер выдачи, первый сегмент журнала после снимка,
+    // затем книги, читатели и выдачи
+    private byte[] serialize(long segment) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 + books.size() * 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(nextLoanId);
+            out.writeLong(segment);
+            out.writeInt(books.size());
+            for (Book book : books.values()) {
+                out.writeLong(book.getIsbn().value());
+                out.writeUTF(book.getTitle());
+                out.writeUTF(book.getAuthor());
+                out.writeInt(book.getYear());
+                out.writeBoolean(book.isAvailable());
+            }
+            out.writeInt(readers.size());
+            for (Map.Entry<String, String> reader : readers.entrySet()) {
+                out.writeUTF(reader.getKey());
+                out.writeUTF(reader.getValue());
+            }
+            out.writeInt(loansByDue.size());
+            for (LoanEntry loan : loansByDue) {
+                out.writeLong(loan.id);
+                out.writeLong(loan.isbn);
+                out.writeUTF(loan.readerId);
+                out.writeLong(loan.issueDate.toEpochDay());
+                out.writeLong(loan.dueDate.toEpochDay());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Прочитать снимок, если он есть; возвращает номер сегмента, с которого читать журнал
+    private long loadSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(SNAPSHOT))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Снимок хранилища в неизвестном формате");
+            nextLoanId = in.readLong();
+            long segment = in.readLong();
+            int bookCount = in.readInt();
+            for (int i = 0; i < bookCount; i++) {
+                Isbn isbn = Isbn.of(in.readLong());
+                String title = in.readUTF();
+                String author = in.readUTF();
+                int year = in.readInt();
+                books.put(isbn.value(), new Book(isbn, title, author, year, in.readBoolean()));
+            }
+            int readerCount = in.readInt();
+            for (int i = 0; i < readerCount; i++) {
+                String id = in.readUTF();
+                readers.put(id, in.readUTF());
+            }
+            int loanCount = in.readInt();
+            for (int i = 0; i < loanCount; i++) {
+                long id = in.readLong();
+                long isbn = in.readLong();
+                String readerId = in.readUTF();
+                LocalDate issueDate = LocalDate.ofEpochDay(in.readLong());
+                LocalDate dueDate = LocalDate.ofEpochDay(in.readLong());
+                index(new LoanEntry(id, isbn, readerId, issueDate, dueDate));
+            }
+            return segment;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    // Повторить запись журнала при открытии (проверки были сделаны при записи)
+    private void replay(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_BOOK: {
+                Isbn isbn = Isbn.of(in.readLong());
+                String title = in.readUTF();
+                String author = in.readUTF();
+                books.put(isbn.value(), new Book(isbn, title, author, in.readInt()));
+                break;
+            }
+            case DELETE_BOOK:
+                books.remove(in.readLong());
+                break;
+            case ADD_READER: {
+                String id = in.readUTF();
+                readers.put(id, in.readUTF());
+                break;
+            }
+            case DELETE_READER:
+                readers.remove(in.readUTF());
+                break;
+            case LEND: {
+                String readerId = in.readUTF();
+                LocalDate issueDate = LocalDate.ofEpochDay(in.readLong());
+                LocalDate dueDate = LocalDate.ofEpochDay(in.readLong());
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long isbn = in.readLong();
+                    applyLend(new LoanEntry(in.readLong(), isbn, readerId, issueDate, dueDate));
+                }
+                break;
+            }
+            case RETURN: {
+                String readerId = in.readUTF();
+                in.readLong(); // дата возврата
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    applyReturn(in.readLong(), readerId);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Неизвестная запись журнала: " + type);
+        }
+    }
+
+    // Записать снимок (следующее открытие не перечитывает журнал) и закрыть журнал
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.out.println("Ошибка записи снимка: " + e.getMessage());
+        }
+        log.close();
+    }
+}
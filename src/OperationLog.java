@@ -0,0 +1,335 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Журнал операций только на дописывание: файлы-сегменты oplog-<номер>.log в каталоге.
+// Запись в сегменте: длина (int), CRC32 (int), данные. Оборванная запись в конце
+// сегмента (сбой во время записи) при чтении отбрасывается; испорченная запись,
+// за которой в сегменте есть ещё данные, — повреждение, и чтение журнала прерывается.
+//
+// append() только ставит запись в очередь и возвращает её номер. Поток журнала
+// забирает всё накопленное, пишет одним проходом и делает один force —
+// групповая синхронизация: операции, пришедшие во время предыдущего force, ждут
+// следующего вместе. awaitDurable(номер) ждёт, пока запись окажется на диске.
+// rotate() начинает новый сегмент: записи до него остаются в прежнем.
+// Если запись или force не удались, журнал больше не принимает записей, а сегмент
+// по возможности обрезается до последней подтверждённой записи.
+public class OperationLog implements AutoCloseable {
+    private static final String PREFIX = "oplog-";
+    private static final String SUFFIX = ".log";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    // Запись в очереди или (frame == null) начало нового сегмента; seq — номер
+    // записи (для начала сегмента — номер последней записи перед ним)
+    private static class Entry {
+        final byte[] frame;
+        final long segment;
+        final long seq;
+
+        Entry(byte[] frame, long segment, long seq) {
+            this.frame = frame;
+            this.segment = segment;
+            this.seq = seq;
+        }
+    }
+
+    public interface RecordHandler {
+        void apply(DataInputStream record) throws IOException;
+    }
+
+    private final Path dir;
+    private final Object lock = new Object();
+    private final Thread flusher;
+    private List<Entry> pending = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private long segment;
+    private long syncs;
+    private IOException failure;
+    private boolean closed;
+
+    // Открыть журнал для записи: новые записи идут в новый сегмент после существующих
+    public OperationLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        segment = segments(dir).isEmpty() ? 1 : segments(dir).lastKey() + 1;
+        FileChannel first = open(segment);
+        flusher = new Thread(() -> run(first), "library-oplog");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Номер текущего сегмента (в него идут новые записи)
+    public long getSegment() {
+        synchronized (lock) {
+            return segment;
+        }
+    }
+
+    // Число выполненных force и записанных записей
+    public long getSyncCount() {
+        synchronized (lock) {
+            return syncs;
+        }
+    }
+
+    public long getRecordCount() {
+        synchronized (lock) {
+            return appended;
+        }
+    }
+
+    // Номер последней записи, которая уже на диске
+    public long getDurable() {
+        synchronized (lock) {
+            return durable;
+        }
+    }
+
+    // Поставить запись в очередь; возвращает её номер для awaitDurable
+    public long append(byte[] record) throws IOException {
+        byte[] frame = new byte[8 + record.length];
+        ByteBuffer.wrap(frame).putInt(record.length).putInt(crc(record)).put(record);
+        synchronized (lock) {
+            if (failure != null) throw new IOException("Журнал операций недоступен: " + failure.getMessage(), failure);
+            if (closed) throw new IOException("Журнал операций закрыт");
+            long seq = ++appended;
+            pending.add(new Entry(frame, 0, seq));
+            lock.notifyAll();
+            return seq;
+        }
+    }
+
+    // Дождаться, пока запись с номером seq и все предыдущие будут на диске.
+    // Прерывание ожидание не обрывает (иначе исход записи был бы неизвестен),
+    // флаг прерывания восстанавливается после ответа.
+    public void awaitDurable(long seq) throws IOException {
+        boolean interrupted = false;
+        try {
+            synchronized (lock) {
+                while (durable < seq && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (durable < seq) throw new IOException("Ошибка записи журнала: " + failure.getMessage(), failure);
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    // Дождаться записи всего, что уже поставлено в очередь
+    public void sync() throws IOException {
+        long seq;
+        synchronized (lock) {
+            seq = appended;
+        }
+        awaitDurable(seq);
+    }
+
+    // Начать новый сегмент; возвращает его номер. Записи, поставленные раньше,
+    // попадут в прежние сегменты.
+    public long rotate() {
+        synchronized (lock) {
+            segment++;
+            pending.add(new Entry(null, segment, appended));
+            lock.notifyAll();
+            return segment;
+        }
+    }
+
+    // Удалить сегменты с номером меньше segment (их записи уже в снимке)
+    public void deleteBefore(long segment) throws IOException {
+        for (Map.Entry<Long, Path> entry : segments(dir).headMap(segment).entrySet()) {
+            Files.deleteIfExists(entry.getValue());
+        }
+    }
+
+    // Прочитать записи сегментов начиная с номера from по порядку; возвращает их число
+    public static long replay(Path dir, long from, RecordHandler handler) throws IOException {
+        long records = 0;
+        if (!Files.isDirectory(dir)) return 0;
+        for (Path file : segments(dir).tailMap(from).values()) {
+            long size = Files.size(file);
+            long offset = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                byte[] record;
+                while ((record = readRecord(in, file, offset, size)) != null) {
+                    handler.apply(new DataInputStream(new ByteArrayInputStream(record)));
+                    offset += 8 + record.length;
+                    records++;
+                }
+            }
+        }
+        return records;
+    }
+
+    // Следующая запись или null в конце сегмента. Отбрасывается только хвост, который
+    // мог оставить сбой во время записи: заголовок или данные, обрезанные концом файла,
+    // последняя запись с неверной CRC, нули до конца файла (место выделено, данные не
+    // записаны). Если после испорченной записи есть ещё данные, следующие за ней
+    // записи молча потерялись бы — это ошибка.
+    private static byte[] readRecord(DataInputStream in, Path file, long offset, long size) throws IOException {
+        long remaining = size - offset - 8;
+        if (remaining < 0) return null;
+        int length = in.readInt();
+        int crc = in.readInt();
+        if (length > 0 && length <= MAX_RECORD_SIZE) {
+            if (length > remaining) return null;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            if (crc(record) == crc) return record;
+            if (length == remaining) return null;
+        } else if (length == 0 && crc == 0 && zeros(in, remaining)) {
+            return null;
+        }
+        throw new IOException("Журнал операций повреждён: " + file.getFileName() + ", запись по смещению " + offset);
+    }
+
+    private static boolean zeros(DataInputStream in, long count) throws IOException {
+        for (long i = 0; i < count; i++) {
+            if (in.readByte() != 0) return false;
+        }
+        return true;
+    }
+
+    private static int crc(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static TreeMap<Long, Path> segments(Path dir) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // чужой файл
+                }
+            }
+        }
+        return segments;
+    }
+
+    private FileChannel open(long number) throws IOException {
+        Path file = dir.resolve(String.format("%s%08d%s", PREFIX, number, SUFFIX));
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Цикл потока журнала: забрать очередь, записать, force, разбудить ждущих
+    private void run(FileChannel first) {
+        FileChannel channel = first;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long durableSize = 0; // длина текущего сегмента, подтверждённая force
+        try {
+            while (true) {
+                List<Entry> batch;
+                long upTo;
+                synchronized (lock) {
+                    while (pending.isEmpty() && !closed) {
+                        lock.wait();
+                    }
+                    if (pending.isEmpty()) break;
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    upTo = appended;
+                }
+                for (Entry entry : batch) {
+                    if (entry.frame == null) {
+                        drain(channel, buffer);
+                        channel.force(false);
+                        // записи прежнего сегмента на диске, даже если новый не откроется
+                        synchronized (lock) {
+                            durable = entry.seq;
+                            lock.notifyAll();
+                        }
+                        channel.close();
+                        channel = open(entry.segment);
+                        durableSize = 0;
+                    } else if (entry.frame.length > buffer.capacity()) {
+                        drain(channel, buffer);
+                        write(channel, ByteBuffer.wrap(entry.frame));
+                    } else {
+                        if (buffer.remaining() < entry.frame.length) drain(channel, buffer);
+                        buffer.put(entry.frame);
+                    }
+                }
+                drain(channel, buffer);
+                channel.force(false);
+                durableSize = channel.size();
+                synchronized (lock) {
+                    durable = upTo;
+                    syncs++;
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            // Вызывающие неподтверждённых записей получат ошибку — их записи не должны
+            // появиться при следующем открытии
+            try {
+                channel.truncate(durableSize);
+                channel.force(false);
+            } catch (IOException truncateError) {
+                // ignore
+            }
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        write(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Записать очередь и остановить поток журнала
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
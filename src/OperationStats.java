@@ -0,0 +1,115 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Накопленные метрики одной операции: вызовы, ошибки, запросы, строки,
+// попадания в кэш и гистограмма задержек
+public class OperationStats implements OperationStatsMBean {
+    private final String operation;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    OperationStats(String operation) {
+        this.operation = operation;
+    }
+
+    void record(OperationTrace trace) {
+        calls.increment();
+        if (trace.isFailed()) errors.increment();
+        statements.add(trace.getStatementCount());
+        rows.add(trace.getRows());
+        if (trace.getCacheHits() > 0) cacheHits.add(trace.getCacheHits());
+        if (trace.getCacheMisses() > 0) cacheMisses.add(trace.getCacheMisses());
+        latency.record(trace.getElapsedNanos());
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    @Override
+    public double getStatementsPerCall() {
+        long n = calls.sum();
+        return n == 0 ? 0 : (double) statements.sum() / n;
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latency.getMean() / 1000;
+    }
+
+    @Override
+    public long getP50Micros() {
+        return latency.getValueAtPercentile(0.50) / 1000;
+    }
+
+    @Override
+    public long getP99Micros() {
+        return latency.getValueAtPercentile(0.99) / 1000;
+    }
+
+    @Override
+    public long getP999Micros() {
+        return latency.getValueAtPercentile(0.999) / 1000;
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return latency.getMax() / 1000;
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        statements.reset();
+        rows.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: вызовов %d, ошибок %d, запросов на вызов %.1f, строк %d, кэш %d/%d, p50 %d мкс, p99 %d мкс, max %d мкс",
+                operation, getCalls(), getErrors(), getStatementsPerCall(), getRows(), getCacheHits(), getCacheMisses(),
+                getP50Micros(), getP99Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,28 @@
+// Метрики одной операции Library, доступные через JMX
+public interface OperationStatsMBean {
+    long getCalls();
+
+    long getErrors();
+
+    long getStatements();
+
+    double getStatementsPerCall();
+
+    long getRows();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+
+    void reset();
+}
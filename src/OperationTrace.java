@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Сведения об одном вызове операции Library: время, выполненные запросы, число
+// прочитанных строк, попадания в кэш и ошибка. Трасса привязана к потоку; очередь
+// записи переносит её в поток записи, поэтому запросы записи тоже учитываются.
+// Вложенный вызов операции относится к внешней трассе.
+public class OperationTrace implements AutoCloseable {
+    private static final int MAX_RECORDED_SQL = 16;
+    private static final ThreadLocal<OperationTrace> CURRENT = new ThreadLocal<>();
+
+    private final LibraryMetrics metrics;
+    private final String operation;
+    private final Object[] parameters;
+    private final long startNanos = System.nanoTime();
+    private final String[] sql = new String[MAX_RECORDED_SQL];
+    private int statements;
+    private long rows;
+    private int cacheHits;
+    private int cacheMisses;
+    private String error;
+    private long elapsedNanos;
+    private int depth;
+
+    private OperationTrace(LibraryMetrics metrics, String operation, Object[] parameters) {
+        this.metrics = metrics;
+        this.operation = operation;
+        this.parameters = parameters;
+    }
+
+    // Начать трассу операции в текущем потоке (или продолжить внешнюю)
+    static OperationTrace start(LibraryMetrics metrics, String operation, Object... parameters) {
+        OperationTrace current = CURRENT.get();
+        if (current != null) {
+            current.depth++;
+            return current;
+        }
+        OperationTrace trace = new OperationTrace(metrics, operation, parameters);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    static OperationTrace current() {
+        return CURRENT.get();
+    }
+
+    // Сделать trace текущей в этом потоке; возвращает предыдущую
+    static OperationTrace attach(OperationTrace trace) {
+        OperationTrace previous = CURRENT.get();
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+        return previous;
+    }
+
+    // Отвязать трассу от потока, не завершая её (для курсоров, которые читают
+    // после возврата из метода и закрываются позже)
+    void detach() {
+        if (depth == 0 && CURRENT.get() == this) CURRENT.remove();
+    }
+
+    // Учесть запрос в текущей трассе (вызывается при каждой подготовке запроса)
+    static void recordStatement(String statement) {
+        OperationTrace trace = CURRENT.get();
+        if (trace != null) {
+            if (trace.statements < MAX_RECORDED_SQL) trace.sql[trace.statements] = statement;
+            trace.statements++;
+        }
+    }
+
+    void addRows(long count) {
+        rows += count;
+    }
+
+    void cacheHit() {
+        cacheHits++;
+    }
+
+    void cacheMiss() {
+        cacheMisses++;
+    }
+
+    void fail(Exception e) {
+        if (error == null) error = e.getMessage() == null ? e.toString() : e.getMessage();
+    }
+
+    @Override
+    public void close() {
+        if (depth > 0) {
+            depth--;
+            return;
+        }
+        elapsedNanos = System.nanoTime() - startNanos;
+        if (CURRENT.get() == this) CURRENT.remove();
+        metrics.record(this);
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public List<Object> getParameters() {
+        return Arrays.asList(parameters);
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public int getStatementCount() {
+        return statements;
+    }
+
+    // Тексты запросов (не больше первых 16)
+    public List<String> getStatements() {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(statements, MAX_RECORDED_SQL); i++) result.add(sql[i]);
+        return result;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    public int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(operation).append(getParameters())
+                .append(String.format(" %.1f мс, запросов %d, строк %d", elapsedNanos / 1e6, statements, rows));
+        if (error != null) sb.append(", ошибка: ").append(error);
+        for (String statement : getStatements()) sb.append("\n    ").append(statement);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,77 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Периодический обход просроченных выдач. Каждый проход читает только выдачи,
+// ставшие просроченными с прошлого прохода (срок в [прошлая дата, сегодня)),
+// страницами по индексу срока возврата, и передаёт их получателю уведомлений.
+// Первый проход выдаёт все просрочки на текущую дату.
+public class OverdueSweeper implements AutoCloseable {
+    private static final int BATCH_SIZE = 500;
+
+    private final Library library;
+    private final Consumer<ReaderLoanRow> notices;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "library-overdue-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> schedule;
+    private volatile LocalDate sweptUntil;
+
+    public OverdueSweeper(Library library, Consumer<ReaderLoanRow> notices) {
+        this(library, notices, Clock.systemDefaultZone());
+    }
+
+    public OverdueSweeper(Library library, Consumer<ReaderLoanRow> notices, Clock clock) {
+        this.library = library;
+        this.notices = notices;
+        this.clock = clock;
+    }
+
+    // Запускать проход с заданным периодом, первый — сразу
+    public synchronized void start(long period, TimeUnit unit) {
+        if (schedule != null) throw new IllegalStateException("Обход уже запущен");
+        schedule = scheduler.scheduleAtFixedRate(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                System.out.println("Ошибка обхода просрочек: " + e.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    // Один проход; возвращает число новых уведомлений
+    public synchronized int sweep() {
+        LocalDate today = LocalDate.now(clock);
+        if (today.equals(sweptUntil)) return 0;
+
+        int sent = 0;
+        ReaderLoanRow last = null;
+        while (true) {
+            List<ReaderLoanRow> batch = library.findDue(sweptUntil, today, last, BATCH_SIZE);
+            for (ReaderLoanRow row : batch) {
+                notices.accept(row);
+            }
+            sent += batch.size();
+            if (batch.size() < BATCH_SIZE) break;
+            last = batch.get(batch.size() - 1);
+        }
+        sweptUntil = today;
+        return sent;
+    }
+
+    // Дата, до которой (не включая) просрочки уже разосланы; null — проходов ещё не было
+    public LocalDate getSweptUntil() { return sweptUntil; }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
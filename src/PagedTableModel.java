@@ -0,0 +1,393 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+// Модель таблицы, которая подгружает строки из БД страницами по мере прокрутки.
+// В памяти держится только окно из MAX_RESIDENT_PAGES последних использованных страниц.
+// Следующая страница читается по ключу последней строки предыдущей (keyset),
+// смещение используется только при переходе в несмежное место списка.
+// Загрузка идёт в фоне: пока страница не пришла, в её строках показывается заглушка.
+// Небольшой результат может быть загружен целиком (loadAll) или показан готовым списком (showRows).
+// Известные изменения применяются дельтами (updateRows, insertRow, removeRow, reloadFrom):
+// меняются только затронутые строки, а сдвинутые страницы перечитываются при показе.
+// Страницы, сохранённые с прошлого запуска (showSavedPages), и предварительные строки
+// (showProvisionalRows) показываются до первого обновления и заменяются его
+// результатом целиком, без заглушек на экране.
+public abstract class PagedTableModel<T> extends AbstractTableModel {
+    protected static final int PAGE_SIZE = 200;
+    private static final int MAX_RESIDENT_PAGES = 10;
+    private static final String LOADING = "…";
+
+    private final String[] columns;
+    private final BackgroundTasks tasks;
+    private final String refreshKey = getClass().getSimpleName() + ".refresh";
+    private int rowCount;
+    private int generation;
+    private boolean refreshing;
+    private boolean recounting;
+    private List<T> allRows;
+    private boolean ownsAllRows;
+    private boolean showingSaved;
+    private Runnable afterRefresh;
+    private final Set<Integer> loading = new HashSet<>();
+    private final Map<Integer, List<T>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+            return size() > MAX_RESIDENT_PAGES;
+        }
+    };
+
+    protected PagedTableModel(String[] columns, BackgroundTasks tasks) {
+        this.columns = columns;
+        this.tasks = tasks;
+    }
+
+    // Общее число строк (вызывается в фоновом потоке)
+    protected abstract int loadCount();
+
+    // Строки, следующие за строкой after; null — с начала (вызывается в фоновом потоке)
+    protected abstract List<T> loadPageAfter(T after, int limit);
+
+    // Строки начиная с позиции offset (вызывается в фоновом потоке)
+    protected abstract List<T> loadPageAt(int offset, int limit);
+
+    protected abstract Object valueAt(T row, int column);
+
+    // Все строки сразу, если их немного; null — листать страницами (вызывается в фоновом потоке)
+    protected List<T> loadAll(int count) {
+        return null;
+    }
+
+    // Вызывается в EDT, когда результат загружен целиком
+    protected void allRowsLoaded(List<T> rows) {
+    }
+
+    // Описание для строки состояния на время пересчёта
+    protected abstract String refreshDescription();
+
+    // Перечитать число строк и сбросить загруженные страницы; незавершённое
+    // предыдущее обновление отменяется
+    public void refresh() {
+        // Сохранённые страницы остаются на экране, пока не придёт первая страница из БД
+        boolean replaceSaved = showingSaved;
+        int refreshGeneration;
+        if (replaceSaved) {
+            loading.clear();
+            refreshGeneration = ++generation;
+        } else {
+            refreshGeneration = reset();
+        }
+        refreshing = true;
+        tasks.run(refreshKey, refreshDescription(), () -> {
+            int count = loadCount();
+            List<T> rows = loadAll(count);
+            List<T> firstPage = replaceSaved && rows == null ? loadPageAfter(null, PAGE_SIZE) : null;
+            return new Loaded<>(count, rows, firstPage);
+        }, loaded -> {
+            if (refreshGeneration != generation) return;
+            refreshing = false;
+            if (replaceSaved) {
+                showingSaved = false;
+                pages.clear();
+                if (loaded.firstPage != null) pages.put(0, loaded.firstPage);
+            }
+            allRows = loaded.rows;
+            rowCount = allRows != null ? allRows.size() : loaded.count;
+            if (allRows != null) allRowsLoaded(allRows);
+            fireTableDataChanged();
+            if (afterRefresh != null) {
+                Runnable action = afterRefresh;
+                afterRefresh = null;
+                action.run();
+            }
+        }, this::loadFailed);
+    }
+
+    // Выполнить действие в EDT один раз, когда будет показан результат очередного обновления
+    public void afterNextRefresh(Runnable action) {
+        afterRefresh = action;
+    }
+
+    // Показать страницы, сохранённые раньше (номер страницы -> строки), пока данные
+    // ещё недоступны; count — общее число строк на момент сохранения
+    protected void showSavedPages(int count, Map<Integer, List<T>> saved) {
+        tasks.cancel(refreshKey);
+        reset();
+        refreshing = false;
+        for (Map.Entry<Integer, List<T>> entry : saved.entrySet()) {
+            pages.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        showingSaved = !pages.isEmpty();
+        rowCount = count;
+        fireTableDataChanged();
+    }
+
+    // Загруженные страницы (номер страницы -> строки) для сохранения до следующего
+    // запуска; пусто, если строки показаны одним списком или ещё обновляются
+    protected Map<Integer, List<T>> residentPages() {
+        Map<Integer, List<T>> resident = new TreeMap<>();
+        if (allRows != null || refreshing || recounting) return resident;
+        for (Map.Entry<Integer, List<T>> entry : pages.entrySet()) {
+            resident.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return resident;
+    }
+
+    // Показать готовый список строк без обращения к БД; незавершённое обновление отменяется
+    protected void showRows(List<T> rows) {
+        tasks.cancel(refreshKey);
+        reset();
+        refreshing = false;
+        allRows = rows;
+        rowCount = rows.size();
+        fireTableDataChanged();
+    }
+
+    // Показать строки до результата следующего обновления: refresh() не сбрасывает
+    // их на заглушки, а заменяет целиком, когда придёт ответ
+    protected void showProvisionalRows(List<T> rows) {
+        showRows(rows);
+        showingSaved = true;
+    }
+
+    // Показаны сохранённые страницы или предварительные строки
+    protected boolean isProvisional() {
+        return showingSaved;
+    }
+
+    private int reset() {
+        pages.clear();
+        loading.clear();
+        allRows = null;
+        ownsAllRows = false;
+        showingSaved = false;
+        recounting = false;
+        return ++generation;
+    }
+
+    // Заменить загруженные строки, для которых match истинно; порядок и число строк
+    // не меняются. Незагруженные строки придут из БД уже новыми.
+    protected void updateRows(Predicate<T> match, UnaryOperator<T> update) {
+        if (allRows != null) {
+            for (int i = 0; i < allRows.size(); i++) {
+                if (match.test(allRows.get(i))) {
+                    ownRows().set(i, update.apply(allRows.get(i)));
+                    fireTableRowsUpdated(i, i);
+                }
+            }
+            return;
+        }
+        for (Map.Entry<Integer, List<T>> entry : pages.entrySet()) {
+            List<T> page = entry.getValue();
+            for (int i = 0; i < page.size(); i++) {
+                if (match.test(page.get(i))) {
+                    page.set(i, update.apply(page.get(i)));
+                    int row = entry.getKey() * PAGE_SIZE + i;
+                    fireTableRowsUpdated(row, row);
+                }
+            }
+        }
+    }
+
+    // Вставить строку на её место в порядке order (строки модели упорядочены по order)
+    protected void insertRow(T row, Comparator<? super T> order) {
+        if (refreshing) {
+            refresh();
+        } else if (allRows != null) {
+            int index = Collections.binarySearch(allRows, row, order);
+            if (index >= 0) return;
+            index = -index - 1;
+            ownRows().add(index, row);
+            rowCount++;
+            fireTableRowsInserted(index, index);
+        } else {
+            if (recounting) {
+                reloadFrom(row, order);
+                return;
+            }
+            int index = locate(row, order, false);
+            dropPagesFrom(row, order);
+            rowCount++;
+            if (index >= 0) {
+                fireTableRowsInserted(index, index);
+            } else {
+                fireTableDataChanged();
+            }
+        }
+    }
+
+    // Удалить строку с тем же ключом, что row (order сравнивает её с ней как 0)
+    protected void removeRow(T row, Comparator<? super T> order) {
+        if (refreshing) {
+            refresh();
+        } else if (allRows != null) {
+            for (int i = 0; i < allRows.size(); i++) {
+                if (order.compare(allRows.get(i), row) == 0) {
+                    ownRows().remove(i);
+                    rowCount--;
+                    fireTableRowsDeleted(i, i);
+                    return;
+                }
+            }
+        } else {
+            if (recounting) {
+                reloadFrom(row, order);
+                return;
+            }
+            int index = locate(row, order, true);
+            dropPagesFrom(row, order);
+            rowCount--;
+            if (index >= 0) {
+                fireTableRowsDeleted(index, index);
+            } else {
+                fireTableDataChanged();
+            }
+        }
+    }
+
+    // Строки начиная с ключа key изменились заранее неизвестным образом: страницы
+    // до ключа остаются, остальные перечитываются при показе, число строк пересчитывается
+    protected void reloadFrom(T key, Comparator<? super T> order) {
+        if (refreshing || allRows != null) {
+            refresh();
+            return;
+        }
+        dropPagesFrom(key, order);
+        recounting = true;
+        int reloadGeneration = generation;
+        tasks.run(refreshKey, null, this::loadCount, count -> {
+            if (reloadGeneration != generation) return;
+            recounting = false;
+            rowCount = count;
+            fireTableDataChanged();
+        }, this::loadFailed);
+    }
+
+    // Номер строки row среди загруженных страниц; -1, если её место не в загруженной
+    // странице. existing — искать саму строку, иначе место для вставки.
+    private int locate(T row, Comparator<? super T> order, boolean existing) {
+        for (Map.Entry<Integer, List<T>> entry : pages.entrySet()) {
+            List<T> page = entry.getValue();
+            int index = Collections.binarySearch(page, row, order);
+            if (existing && index < 0) continue;
+            if (!existing) {
+                if (index >= 0) continue;
+                index = -index - 1;
+                // На границе страницы место может оказаться и в соседней, незагруженной
+                boolean inside = index > 0 && (index < page.size() || page.size() < PAGE_SIZE);
+                if (!inside && !(index == 0 && entry.getKey() == 0)) continue;
+            }
+            return entry.getKey() * PAGE_SIZE + index;
+        }
+        return -1;
+    }
+
+    // Убрать страницы, которые могут содержать ключ или идут после него; их строки
+    // сдвинулись. Загрузки, начатые до изменения, отбрасываются.
+    private void dropPagesFrom(T key, Comparator<? super T> order) {
+        int first = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, List<T>> entry : pages.entrySet()) {
+            List<T> page = entry.getValue();
+            if (page.isEmpty() || order.compare(page.get(page.size() - 1), key) >= 0) {
+                first = Math.min(first, entry.getKey());
+            }
+        }
+        int from = first;
+        pages.keySet().removeIf(index -> index >= from);
+        loading.clear();
+        generation++;
+    }
+
+    // Список всех строк, принадлежащий модели (показанный список мог прийти из кэша)
+    private List<T> ownRows() {
+        if (!ownsAllRows) {
+            allRows = new ArrayList<>(allRows);
+            ownsAllRows = true;
+        }
+        return allRows;
+    }
+
+    // Все строки загружены одним списком (а не листаются страницами)
+    protected boolean isFullyLoaded() {
+        return allRows != null;
+    }
+
+    // Строка, если её страница уже загружена; иначе запрашивает загрузку и возвращает null
+    public T getRow(int rowIndex) {
+        if (allRows != null) {
+            return rowIndex < allRows.size() ? allRows.get(rowIndex) : null;
+        }
+        int pageIndex = rowIndex / PAGE_SIZE;
+        List<T> page = pages.get(pageIndex);
+        if (page == null) {
+            requestPage(pageIndex);
+            return null;
+        }
+        int index = rowIndex % PAGE_SIZE;
+        return index < page.size() ? page.get(index) : null;
+    }
+
+    private void requestPage(int pageIndex) {
+        if (!loading.add(pageIndex)) return;
+
+        List<T> previous = pageIndex == 0 ? null : pages.get(pageIndex - 1);
+        T after = previous != null && previous.size() == PAGE_SIZE ? previous.get(PAGE_SIZE - 1) : null;
+        boolean byKey = pageIndex == 0 || after != null;
+        int pageGeneration = generation;
+
+        tasks.run(null, null,
+                () -> byKey ? loadPageAfter(after, PAGE_SIZE) : loadPageAt(pageIndex * PAGE_SIZE, PAGE_SIZE),
+                page -> {
+                    if (pageGeneration != generation) return;
+                    loading.remove(pageIndex);
+                    pages.put(pageIndex, page);
+                    int first = pageIndex * PAGE_SIZE;
+                    int last = Math.min(first + PAGE_SIZE, rowCount) - 1;
+                    if (first <= last) fireTableRowsUpdated(first, last);
+                },
+                e -> {
+                    loading.remove(pageIndex);
+                    loadFailed(e);
+                });
+    }
+
+    private void loadFailed(Exception e) {
+        System.out.println("Ошибка загрузки таблицы: " + e.getMessage());
+    }
+
+    private static class Loaded<T> {
+        final int count;
+        final List<T> rows;
+        final List<T> firstPage;
+
+        Loaded(int count, List<T> rows, List<T> firstPage) {
+            this.count = count;
+            this.rows = rows;
+            this.firstPage = firstPage;
+        }
+    }
+
+    @Override
+    public int getRowCount() { return rowCount; }
+
+    @Override
+    public int getColumnCount() { return columns.length; }
+
+    @Override
+    public String getColumnName(int column) { return columns[column]; }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        T row = getRow(rowIndex);
+        return row == null ? LOADING : valueAt(row, columnIndex);
+    }
+}
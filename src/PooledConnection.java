@@ -0,0 +1,42 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Соединение из пула вместе с его кэшем запросов. close() возвращает его в пул.
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection conn;
+    private final StatementCache statements;
+    private final boolean writer;
+
+    PooledConnection(ConnectionPool pool, Connection conn, int cacheSize, boolean writer) {
+        this.pool = pool;
+        this.conn = conn;
+        this.statements = new StatementCache(conn, cacheSize);
+        this.writer = writer;
+    }
+
+    public Connection connection() { return conn; }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        pool.recordSql(sql);
+        OperationTrace.recordStatement(sql);
+        return statements.prepare(sql);
+    }
+
+    public boolean isWriter() { return writer; }
+
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    void closePhysical() {
+        statements.clear();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.out.println("Ошибка закрытия соединения: " + e.getMessage());
+        }
+    }
+}
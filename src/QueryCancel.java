@@ -0,0 +1,79 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Отмена запросов на чтение из другого потока. Фоновая задача привязывает к своему
+// потоку QueryCancel (attach); Library на время выполнения запроса и чтения его
+// результата регистрирует в нём Statement (start/finish), и cancel() прерывает
+// запрос через Statement.cancel() (у SQLite — sqlite3_interrupt соединения):
+// вызов завершается ошибкой, соединение сразу возвращается в пул. Запрос снимается
+// с регистрации до возврата соединения, поэтому отмена не задевает чужие запросы;
+// прерванный Statement после этого закрывается (кэш запросов подготовит новый).
+// Запрос, начатый после отмены, сразу завершается ошибкой.
+public class QueryCancel {
+    private static final ThreadLocal<QueryCancel> CURRENT = new ThreadLocal<>();
+
+    private Statement running;
+    private boolean interrupted;
+    private boolean cancelled;
+
+    // Сделать cancel текущей в этом потоке; возвращает предыдущую
+    static QueryCancel attach(QueryCancel cancel) {
+        QueryCancel previous = CURRENT.get();
+        if (cancel == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(cancel);
+        }
+        return previous;
+    }
+
+    // Отменить выполняющийся и все следующие запросы
+    public synchronized void cancel() {
+        cancelled = true;
+        if (running == null) return;
+        interrupted = true;
+        try {
+            running.cancel();
+        } catch (SQLException e) {
+            System.out.println("Ошибка отмены запроса: " + e.getMessage());
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Отменены ли запросы текущего потока (ошибку отменённого запроса не нужно показывать)
+    static boolean currentCancelled() {
+        QueryCancel cancel = CURRENT.get();
+        return cancel != null && cancel.isCancelled();
+    }
+
+    // Запрос потока начинает выполняться; без привязанной отмены ничего не делает
+    static void start(Statement statement) throws SQLException {
+        QueryCancel cancel = CURRENT.get();
+        if (cancel == null) return;
+        synchronized (cancel) {
+            if (cancel.cancelled) throw new SQLException("Запрос отменён");
+            cancel.running = statement;
+        }
+    }
+
+    // Запрос и чтение результата закончены (вызывается до возврата соединения в пул)
+    static void finish() {
+        QueryCancel cancel = CURRENT.get();
+        if (cancel == null) return;
+        Statement statement;
+        synchronized (cancel) {
+            statement = cancel.interrupted ? cancel.running : null;
+            cancel.running = null;
+            cancel.interrupted = false;
+        }
+        if (statement == null) return;
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.out.println("Ошибка закрытия прерванного запроса: " + e.getMessage());
+        }
+    }
+}
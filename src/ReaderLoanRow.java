@@ -0,0 +1,20 @@
+// Строка вкладки «Читатели и выдачи»: читатель и одна его выдача
+// (loan == null, если книг у читателя нет). Ключ строки — (readerId, loanId).
+public class ReaderLoanRow {
+    private final String readerId;
+    private final String readerName;
+    private final long loanId;
+    private final Loan loan;
+
+    public ReaderLoanRow(String readerId, String readerName, long loanId, Loan loan) {
+        this.readerId = readerId;
+        this.readerName = readerName;
+        this.loanId = loanId;
+        this.loan = loan;
+    }
+
+    public String getReaderId() { return readerId; }
+    public String getReaderName() { return readerName; }
+    public long getLoanId() { return loanId; }
+    public Loan getLoan() { return loan; }
+}
@@ -0,0 +1,82 @@
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Читатели и их выдачи постранично, по строке на выдачу
+public class ReaderLoanTableModel extends PagedTableModel<ReaderLoanRow> {
+    private static final String[] COLUMNS = {"ID читателя", "ФИО", "Взятая книга", "Дата выдачи", "Вернуть до", "Статус"};
+
+    // Порядок строк в БД: ORDER BY r.id, loan_id
+    private static final Comparator<ReaderLoanRow> ORDER =
+            Comparator.comparing(ReaderLoanRow::getReaderId).thenComparingLong(ReaderLoanRow::getLoanId);
+
+    // Источник хранилища; до его открытия загрузки ждут
+    private final Supplier<StorageEngine> storage;
+
+    public ReaderLoanTableModel(Supplier<StorageEngine> storage, BackgroundTasks tasks) {
+        super(COLUMNS, tasks);
+        this.storage = storage;
+    }
+
+    // Применить изменение: новый читатель — одна строка без выдач; выдача, возврат
+    // и удаление читателя меняют число его строк, поэтому перечитываются только
+    // строки начиная с этого читателя
+    public void apply(LibraryEvent event) {
+        switch (event.getType()) {
+            case READER_REGISTERED:
+                insertRow(new ReaderLoanRow(event.getReaderId(), event.getReader().getName(), 0, null), ORDER);
+                break;
+            case READER_REMOVED:
+            case BOOK_LENT:
+            case BOOK_RETURNED:
+                reloadFrom(new ReaderLoanRow(event.getReaderId(), null, Long.MIN_VALUE, null), ORDER);
+                break;
+            case BOOK_REMOVED:
+                // Удалённая книга могла быть выдана: её строки показывали бы прежнее название
+                Isbn isbn = event.getIsbn();
+                updateRows(row -> row.getLoan() != null && row.getLoan().getBook().getIsbn().equals(isbn),
+                        row -> new ReaderLoanRow(row.getReaderId(), row.getReaderName(), row.getLoanId(), null));
+                break;
+            case IMPORTED:
+                if (event.getTable() == BulkTable.READERS) refresh();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    protected String refreshDescription() {
+        return "Загрузка читателей…";
+    }
+
+    @Override
+    protected int loadCount() {
+        return storage.get().countReaderLoanRows();
+    }
+
+    @Override
+    protected List<ReaderLoanRow> loadPageAfter(ReaderLoanRow after, int limit) {
+        return storage.get().getReaderLoanRowsAfter(after, limit);
+    }
+
+    @Override
+    protected List<ReaderLoanRow> loadPageAt(int offset, int limit) {
+        return storage.get().getReaderLoanRows(offset, limit);
+    }
+
+    @Override
+    protected Object valueAt(ReaderLoanRow row, int column) {
+        Loan loan = row.getLoan();
+        switch (column) {
+            case 0: return row.getReaderId();
+            case 1: return row.getReaderName();
+            case 2: return loan == null ? "Нет книг" : loan.getBook().getTitle();
+            case 3: return loan == null ? "-" : loan.getIssueDate();
+            case 4: return loan == null ? "-" : loan.getDueDate();
+            default:
+                if (loan == null) return "-";
+                return loan.isOverdue() ? "ПРОСРОЧЕНО!" : "В сроке";
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Построчные форматы обмена данными: CSV с заголовком и JSON Lines
+// (один плоский JSON-объект на строку). В CSV значение в кавычках может
+// содержать переводы строк, и тогда запись занимает несколько строк файла.
+public enum RecordFormat {
+    CSV {
+        @Override
+        public boolean hasHeader() { return true; }
+
+        @Override
+        public Map<String, String> parse(String line, List<String> header) {
+            List<String> values = splitCsv(line);
+            if (values.size() != header.size()) {
+                throw new IllegalArgumentException("ожидалось полей: " + header.size() + ", получено: " + values.size());
+            }
+            Map<String, String> record = new LinkedHashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                record.put(header.get(i), values.get(i));
+            }
+            return record;
+        }
+
+        @Override
+        public boolean quoteOpenAfter(String line, boolean open) {
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == '"') open = !open;
+            }
+            return open;
+        }
+
+        @Override
+        public String header(String[] columns) {
+            return String.join(",", columns);
+        }
+
+        @Override
+        public String format(String[] columns, Object[] values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sb.append(',');
+                String value = values[i] == null ? "" : values[i].toString();
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                        || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+                } else {
+                    sb.append(value);
+                }
+            }
+            return sb.toString();
+        }
+    },
+
+    JSON_LINES {
+        @Override
+        public boolean hasHeader() { return false; }
+
+        @Override
+        public Map<String, String> parse(String line, List<String> header) {
+            return new JsonObjectParser(line).parse();
+        }
+
+        @Override
+        public boolean quoteOpenAfter(String line, boolean open) {
+            return false; // переводы строк в значениях экранированы
+        }
+
+        @Override
+        public String header(String[] columns) {
+            return null;
+        }
+
+        @Override
+        public String format(String[] columns, Object[] values) {
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sb.append(',');
+                appendJsonString(sb, columns[i]);
+                sb.append(':');
+                Object value = values[i];
+                if (value == null) {
+                    sb.append("null");
+                } else if (value instanceof Number || value instanceof Boolean) {
+                    sb.append(value);
+                } else {
+                    appendJsonString(sb, value.toString());
+                }
+            }
+            return sb.append('}').toString();
+        }
+    };
+
+    // Первая строка файла — имена колонок
+    public abstract boolean hasHeader();
+
+    // Разобрать строку в запись «колонка → значение»
+    public abstract Map<String, String> parse(String line, List<String> header);
+
+    // Остаётся ли открытой кавычка после строки (open — была открыта до её начала);
+    // если да, запись продолжается на следующей строке
+    public abstract boolean quoteOpenAfter(String line, boolean open);
+
+    // Строка заголовка или null, если формат его не использует
+    public abstract String header(String[] columns);
+
+    public abstract String format(String[] columns, Object[] values);
+
+    public static RecordFormat forFileName(String fileName) {
+        String lower = fileName.toLowerCase();
+        return lower.endsWith(".jsonl") || lower.endsWith(".ndjson") ? JSON_LINES : CSV;
+    }
+
+    // Значения одной записи CSV; кавычки экранируются удвоением
+    static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("незакрытая кавычка");
+        values.add(current.toString().trim());
+        return values;
+    }
+
+    static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    // Разбор плоского JSON-объекта: строки, числа, true/false/null
+    private static class JsonObjectParser {
+        private final String text;
+        private int pos;
+
+        JsonObjectParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, String> parse() {
+            Map<String, String> record = new LinkedHashMap<>();
+            skipSpaces();
+            expect('{');
+            skipSpaces();
+            if (peek() == '}') {
+                pos++;
+                return record;
+            }
+            while (true) {
+                skipSpaces();
+                String key = readString();
+                skipSpaces();
+                expect(':');
+                skipSpaces();
+                record.put(key, readValue());
+                skipSpaces();
+                char c = next();
+                if (c == '}') break;
+                if (c != ',') throw error("ожидалась ',' или '}'");
+            }
+            skipSpaces();
+            if (pos < text.length()) throw error("лишние символы после объекта");
+            return record;
+        }
+
+        private String readValue() {
+            char c = peek();
+            if (c == '"') return readString();
+            int start = pos;
+            while (pos < text.length() && ",} \t".indexOf(text.charAt(pos)) < 0) pos++;
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty()) throw error("пустое значение");
+            if (literal.equals("null")) return null;
+            if (c == '{' || c == '[') throw error("вложенные значения не поддерживаются");
+            return literal;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = next();
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) throw error("обрезанная \\u-последовательность");
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        private char peek() {
+            if (pos >= text.length()) throw error("неожиданный конец строки");
+            return text.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) throw error("ожидался символ '" + c + "'");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " (позиция " + pos + ")");
+        }
+    }
+}
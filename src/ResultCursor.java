@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Курсор по результату запроса для потоковых методов Library. Держит соединение
+// из пула, пока поток не закрыт или не дочитан до конца; ошибка чтения печатается
+// и завершает поток, как в остальных методах чтения. С failOnError ошибка чтения
+// бросается (UncheckedIOException): потребитель, которому нужен весь результат
+// (публикация снимка), не примет оборванный поток за полный.
+class ResultCursor<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+    // Читает следующий элемент из ResultSet; null — результат закончился
+    interface RowReader<T> {
+        T next(ResultSet rs) throws SQLException;
+    }
+
+    private final PooledConnection connection;
+    private final ResultSet rs;
+    private final RowReader<T> reader;
+    private final OperationTrace trace;
+    private final String errorMessage;
+    private final boolean failOnError;
+    private boolean closed;
+
+    ResultCursor(PooledConnection connection, ResultSet rs, RowReader<T> reader, OperationTrace trace, String errorMessage,
+                 boolean failOnError) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.connection = connection;
+        this.rs = rs;
+        this.reader = reader;
+        this.trace = trace;
+        this.errorMessage = errorMessage;
+        this.failOnError = failOnError;
+    }
+
+    Stream<T> stream() {
+        return StreamSupport.stream(this, false).onClose(this::close);
+    }
+
+    @Override
+    public synchronized boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) return false;
+        T item;
+        try {
+            item = reader.next(rs);
+        } catch (SQLException e) {
+            trace.fail(e);
+            if (failOnError) {
+                close();
+                throw new UncheckedIOException(new IOException(errorMessage + e.getMessage(), e));
+            }
+            System.out.println(errorMessage + e.getMessage());
+            item = null;
+        }
+        if (item == null) {
+            close();
+            return false;
+        }
+        trace.addRows(1);
+        action.accept(item);
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            rs.close();
+        } catch (SQLException e) {
+            // соединение всё равно возвращается в пул
+        }
+        connection.close();
+        trace.close();
+    }
+}
@@ -0,0 +1,237 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+// Версионированные миграции схемы БД. Номер применённой версии хранится
+// в PRAGMA user_version; при открытии применяются все более новые миграции,
+// каждая в своей транзакции. Новые изменения схемы добавляются в конец списка.
+public class SchemaMigrations {
+    interface Migration {
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            SchemaMigrations::createTables,       // 1
+            SchemaMigrations::createSearchIndex,  // 2
+            SchemaMigrations::createLoanIndexes,  // 3
+            SchemaMigrations::integerIsbnKeys,    // 4
+            SchemaMigrations::loanHistory         // 5
+    );
+
+    public static int latestVersion() {
+        return MIGRATIONS.size();
+    }
+
+    // Привести схему к последней версии; возвращает номер версии до миграции
+    public static int migrate(Connection conn) throws SQLException {
+        int current = currentVersion(conn);
+        if (current > latestVersion()) {
+            throw new SQLException("БД создана более новой версией программы (схема " + current + ")");
+        }
+        for (int version = current + 1; version <= latestVersion(); version++) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                MIGRATIONS.get(version - 1).apply(stmt);
+                stmt.execute("PRAGMA user_version = " + version);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new SQLException("Ошибка миграции схемы до версии " + version + ": " + e.getMessage(), e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        return current;
+    }
+
+    public static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // 1. Основные таблицы (в старых БД уже есть — IF NOT EXISTS)
+    private static void createTables(Statement stmt) throws SQLException {
+        String sqlBooks = "CREATE TABLE IF NOT EXISTS books (" +
+                "isbn TEXT PRIMARY KEY, " +
+                "title TEXT NOT NULL, " +
+                "author TEXT NOT NULL, " +
+                "year INTEGER NOT NULL, " +
+                "available BOOLEAN NOT NULL DEFAULT TRUE" +
+                ");";
+
+        String sqlReaders = "CREATE TABLE IF NOT EXISTS readers (" +
+                "id TEXT PRIMARY KEY, " +
+                "name TEXT NOT NULL" +
+                ");";
+
+        String sqlLoans = "CREATE TABLE IF NOT EXISTS loans (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "book_isbn TEXT NOT NULL, " +
+                "reader_id TEXT NOT NULL, " +
+                "issue_date TEXT NOT NULL, " +
+                "due_date TEXT NOT NULL, " +
+                "FOREIGN KEY (book_isbn) REFERENCES books(isbn), " +
+                "FOREIGN KEY (reader_id) REFERENCES readers(id)" +
+                ");";
+
+        stmt.execute(sqlBooks);
+        stmt.execute(sqlReaders);
+        stmt.execute(sqlLoans);
+    }
+
+    // 2. Полнотекстовый индекс по названию и автору (FTS5), синхронизируется триггерами
+    private static void createSearchIndex(Statement stmt) throws SQLException {
+        String sqlFts = "CREATE VIRTUAL TABLE IF NOT EXISTS books_fts USING fts5(" +
+                "title, author, " +
+                "content = 'books', content_rowid = 'rowid', " +
+                "tokenize = 'unicode61 remove_diacritics 0', " +
+                "prefix = '2 3'" +
+                ");";
+
+        String sqlInsertTrigger = "CREATE TRIGGER IF NOT EXISTS books_fts_ai AFTER INSERT ON books BEGIN " +
+                "INSERT INTO books_fts (rowid, title, author) VALUES (new.rowid, new.title, new.author); " +
+                "END;";
+
+        String sqlDeleteTrigger = "CREATE TRIGGER IF NOT EXISTS books_fts_ad AFTER DELETE ON books BEGIN " +
+                "INSERT INTO books_fts (books_fts, rowid, title, author) VALUES ('delete', old.rowid, old.title, old.author); " +
+                "END;";
+
+        String sqlUpdateTrigger = "CREATE TRIGGER IF NOT EXISTS books_fts_au AFTER UPDATE OF title, author ON books BEGIN " +
+                "INSERT INTO books_fts (books_fts, rowid, title, author) VALUES ('delete', old.rowid, old.title, old.author); " +
+                "INSERT INTO books_fts (rowid, title, author) VALUES (new.rowid, new.title, new.author); " +
+                "END;";
+
+        stmt.execute(sqlFts);
+        stmt.execute(sqlInsertTrigger);
+        stmt.execute(sqlDeleteTrigger);
+        stmt.execute(sqlUpdateTrigger);
+        // Заполняем индекс из уже существующих книг
+        stmt.execute("INSERT INTO books_fts (books_fts) VALUES ('rebuild')");
+    }
+
+    // 3. Индексы выдач: по читателю (соединение в списке читателей),
+    // по книге и читателю (возврат) и по сроку возврата (просрочки).
+    // Дополнительные колонки делают индексы покрывающими для этих запросов.
+    private static void createLoanIndexes(Statement stmt) throws SQLException {
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_loans_reader ON loans (reader_id, book_isbn, issue_date)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_loans_book ON loans (book_isbn, reader_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_loans_due ON loans (due_date, reader_id, book_isbn)");
+    }
+
+    // 4. ISBN как целое число (ISBN-13). Книги и выдачи перестраиваются с INTEGER-ключом:
+    // ISBN книги становится её rowid, на него же ссылается полнотекстовый индекс.
+    // Старые текстовые ISBN нормализуются (дефисы убираются, ISBN-10 переводится в
+    // ISBN-13); неверная контрольная цифра допускается, чтобы не потерять книги,
+    // внесённые до проверки ISBN. Книги, совпавшие после нормализации, сливаются
+    // (если одна из них выдана, остаётся выданная). Книги и выдачи с ISBN, которые
+    // нельзя привести к ISBN-13 (раньше ISBN был свободным текстом), переносятся как
+    // есть в books_quarantine и loans_quarantine: из каталога они пропадают, но
+    // не теряются — их можно исправить и внести заново.
+    private static void integerIsbnKeys(Statement stmt) throws SQLException {
+        Connection conn = stmt.getConnection();
+        stmt.execute("CREATE TEMP TABLE isbn_keys (old TEXT PRIMARY KEY, new INTEGER NOT NULL)");
+
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT isbn FROM books UNION SELECT book_isbn FROM loans");
+             PreparedStatement insert = conn.prepareStatement("INSERT OR IGNORE INTO isbn_keys (old, new) VALUES (?, ?)")) {
+            while (rs.next()) {
+                String old = rs.getString(1);
+                Isbn isbn = Isbn.parseLenient(old);
+                if (isbn != null) {
+                    insert.setString(1, old);
+                    insert.setLong(2, isbn.value());
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+
+        stmt.execute("CREATE TABLE IF NOT EXISTS books_quarantine (" +
+                "isbn TEXT PRIMARY KEY, " +
+                "title TEXT NOT NULL, " +
+                "author TEXT NOT NULL, " +
+                "year INTEGER NOT NULL, " +
+                "available BOOLEAN NOT NULL" +
+                ")");
+        stmt.execute("CREATE TABLE IF NOT EXISTS loans_quarantine (" +
+                "id INTEGER PRIMARY KEY, " +
+                "book_isbn TEXT NOT NULL, " +
+                "reader_id TEXT NOT NULL, " +
+                "issue_date TEXT NOT NULL, " +
+                "due_date TEXT NOT NULL" +
+                ")");
+        int books = stmt.executeUpdate("INSERT INTO books_quarantine (isbn, title, author, year, available) " +
+                "SELECT isbn, title, author, year, available FROM books " +
+                "WHERE isbn NOT IN (SELECT old FROM isbn_keys)");
+        int loans = stmt.executeUpdate("INSERT INTO loans_quarantine (id, book_isbn, reader_id, issue_date, due_date) " +
+                "SELECT id, book_isbn, reader_id, issue_date, due_date FROM loans " +
+                "WHERE book_isbn NOT IN (SELECT old FROM isbn_keys)");
+        if (books > 0 || loans > 0) {
+            System.out.println("ISBN не приводятся к ISBN-13 у книг: " + books + ", выдач: " + loans +
+                    " — они перенесены в books_quarantine и loans_quarantine");
+        }
+
+        stmt.execute("CREATE TABLE books_new (" +
+                "isbn INTEGER PRIMARY KEY, " +
+                "title TEXT NOT NULL, " +
+                "author TEXT NOT NULL, " +
+                "year INTEGER NOT NULL, " +
+                "available BOOLEAN NOT NULL DEFAULT TRUE" +
+                ")");
+        stmt.execute("INSERT OR IGNORE INTO books_new (isbn, title, author, year, available) " +
+                "SELECT k.new, b.title, b.author, b.year, b.available " +
+                "FROM books b JOIN isbn_keys k ON k.old = b.isbn ORDER BY b.available");
+        stmt.execute("CREATE TABLE loans_new (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "book_isbn INTEGER NOT NULL, " +
+                "reader_id TEXT NOT NULL, " +
+                "issue_date TEXT NOT NULL, " +
+                "due_date TEXT NOT NULL, " +
+                "FOREIGN KEY (book_isbn) REFERENCES books(isbn), " +
+                "FOREIGN KEY (reader_id) REFERENCES readers(id)" +
+                ")");
+        stmt.execute("INSERT INTO loans_new (id, book_isbn, reader_id, issue_date, due_date) " +
+                "SELECT l.id, k.new, l.reader_id, l.issue_date, l.due_date " +
+                "FROM loans l JOIN isbn_keys k ON k.old = l.book_isbn");
+
+        stmt.execute("DROP TRIGGER books_fts_ai");
+        stmt.execute("DROP TRIGGER books_fts_ad");
+        stmt.execute("DROP TRIGGER books_fts_au");
+        stmt.execute("DROP TABLE books_fts");
+        stmt.execute("DROP TABLE loans");
+        stmt.execute("DROP TABLE books");
+        stmt.execute("ALTER TABLE books_new RENAME TO books");
+        stmt.execute("ALTER TABLE loans_new RENAME TO loans");
+        stmt.execute("DROP TABLE isbn_keys");
+
+        // Индексы и триггеры те же: rowid книги теперь и есть её ISBN
+        createSearchIndex(stmt);
+        createLoanIndexes(stmt);
+    }
+
+    // 5. Архив возвращённых выдач: список месячных таблиц и буфер, куда возврат
+    // переносит выдачу (небольшой, с теми же индексами, что таблицы месяцев).
+    // Таблицы loan_history_ГГГГММ создаются при первом возврате в месяце (LoanHistory).
+    // Прежние возвраты удалялись из loans без следа, переносить нечего.
+    private static void loanHistory(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS loan_history_partitions (" +
+                "month TEXT PRIMARY KEY" +
+                ") WITHOUT ROWID");
+        stmt.execute("CREATE TABLE IF NOT EXISTS loan_history_inbox (" +
+                "return_date TEXT NOT NULL, " +
+                "loan_id INTEGER NOT NULL, " +
+                "book_isbn INTEGER NOT NULL, " +
+                "reader_id TEXT NOT NULL, " +
+                "issue_date TEXT NOT NULL, " +
+                "due_date TEXT NOT NULL, " +
+                "PRIMARY KEY (return_date, loan_id)" +
+                ") WITHOUT ROWID");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_loan_history_inbox_reader ON loan_history_inbox (reader_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_loan_history_inbox_book ON loan_history_inbox (book_isbn)");
+    }
+}
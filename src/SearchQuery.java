@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Поисковый запрос, разобранный на слова. Каждое слово ищется как префикс
+// слова в названии или имени автора, все слова должны совпасть.
+public class SearchQuery {
+    private final List<String> tokens;
+
+    private SearchQuery(List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+    public static SearchQuery parse(String query) {
+        return new SearchQuery(tokenize(query));
+    }
+
+    // Разбивает текст на слова из букв и цифр в нижнем регистре
+    public static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>();
+        if (text == null) return result;
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                current.append(c);
+            } else if (current.length() > 0) {
+                result.add(current.toString().toLowerCase(Locale.ROOT));
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) {
+            result.add(current.toString().toLowerCase(Locale.ROOT));
+        }
+        return result;
+    }
+
+    public List<String> getTokens() { return Collections.unmodifiableList(tokens); }
+
+    public boolean isEmpty() { return tokens.isEmpty(); }
+
+    // Выражение для FTS5 MATCH: "слово1"* "слово2"* (все префиксы через AND)
+    public String toMatchExpression() {
+        StringBuilder sb = new StringBuilder();
+        for (String token : tokens) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('"').append(token).append("\"*");
+        }
+        return sb.toString();
+    }
+
+    // Подходит ли книга под запрос: каждое слово запроса — префикс
+    // какого-нибудь слова названия или автора (как в индексе FTS)
+    public boolean matches(Book book) {
+        List<String> words = tokenize(book.getTitle());
+        words.addAll(tokenize(book.getAuthor()));
+        for (String token : tokens) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(token)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    // Уточняет ли этот запрос более общий: тогда его результаты — подмножество
+    // результатов general, и их можно получить фильтрацией без обращения к БД
+    public boolean refines(SearchQuery general) {
+        for (String generalToken : general.tokens) {
+            boolean covered = false;
+            for (String token : tokens) {
+                if (token.startsWith(generalToken)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SearchQuery && tokens.equals(((SearchQuery) o).tokens);
+    }
+
+    @Override
+    public int hashCode() {
+        return tokens.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" ", tokens);
+    }
+}
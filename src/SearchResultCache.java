@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Полные результаты недавних поисковых запросов (LRU), в порядке ранга из БД.
+// Для запроса, уточняющего один из сохранённых, можно сразу получить его книги
+// фильтрацией сохранённого списка (narrow), но не порядок: ранг bm25 зависит от
+// слов запроса, и у уточнённого запроса он другой. Поэтому суженный список —
+// только предварительный результат до ответа БД и в кэш не попадает.
+// Используется только из EDT.
+public class SearchResultCache {
+    private final Map<SearchQuery, List<Book>> results;
+
+    public SearchResultCache(int capacity) {
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SearchQuery, List<Book>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public void put(SearchQuery query, List<Book> books) {
+        results.put(query, Collections.unmodifiableList(new ArrayList<>(books)));
+    }
+
+    // Сохранённый результат запроса; null — нужен запрос к БД
+    public List<Book> find(SearchQuery query) {
+        return results.get(query);
+    }
+
+    // Книги запроса, отобранные из результата более общего запроса, в порядке его ранга;
+    // null — подходящего сохранённого результата нет
+    public List<Book> narrow(SearchQuery query) {
+        // Из подходящих берём самый узкий (самый короткий список)
+        List<Book> best = null;
+        for (Map.Entry<SearchQuery, List<Book>> entry : results.entrySet()) {
+            if (query.refines(entry.getKey()) && (best == null || entry.getValue().size() < best.size())) {
+                best = entry.getValue();
+            }
+        }
+        if (best == null) return null;
+
+        List<Book> narrowed = new ArrayList<>();
+        for (Book book : best) {
+            if (query.matches(book)) narrowed.add(book);
+        }
+        return narrowed;
+    }
+
+    // Книга выдана или возвращена: заменить её в сохранённых результатах
+    public void updateAvailable(Isbn isbn, boolean available) {
+        for (Map.Entry<SearchQuery, List<Book>> entry : results.entrySet()) {
+            List<Book> books = entry.getValue();
+            for (int i = 0; i < books.size(); i++) {
+                if (books.get(i).getIsbn().equals(isbn)) {
+                    List<Book> updated = new ArrayList<>(books);
+                    updated.set(i, books.get(i).withAvailable(available));
+                    entry.setValue(Collections.unmodifiableList(updated));
+                    break;
+                }
+            }
+        }
+    }
+
+    // Новая книга: результаты запросов, которым она подходит, неполны
+    public void added(Book book) {
+        results.keySet().removeIf(query -> query.matches(book));
+    }
+
+    public void remove(Isbn isbn) {
+        for (Map.Entry<SearchQuery, List<Book>> entry : results.entrySet()) {
+            List<Book> books = entry.getValue();
+            if (books.stream().anyMatch(book -> book.getIsbn().equals(isbn))) {
+                List<Book> updated = new ArrayList<>(books);
+                updated.removeIf(book -> book.getIsbn().equals(isbn));
+                entry.setValue(Collections.unmodifiableList(updated));
+            }
+        }
+    }
+
+    public void clear() {
+        results.clear();
+    }
+}
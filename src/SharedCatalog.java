@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+// Снимок каталога, опубликованный в файл (MappedCatalog), для процессов, которые его
+// только читают. get() возвращает текущее отображение и не чаще раза в секунду
+// проверяет, не заменён ли файл новым снимком; если заменён — отображает новый.
+// Ранее полученный MappedCatalog остаётся рабочим: он читает прежний файл.
+public class SharedCatalog {
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path file;
+    private volatile MappedCatalog current;
+    private Object fileKey;
+    private FileTime modified;
+    private volatile long nextCheck;
+
+    public SharedCatalog(Path file) throws IOException {
+        this.file = file;
+        reload();
+    }
+
+    public MappedCatalog get() {
+        if (System.nanoTime() - nextCheck >= 0) {
+            try {
+                reload();
+            } catch (IOException e) {
+                // Читатели продолжают работать с прежним снимком
+                System.out.println("Ошибка чтения снимка каталога: " + e.getMessage());
+            }
+        }
+        return current;
+    }
+
+    // Отобразить файл заново, если он заменён; true — снимок сменился
+    public synchronized boolean reload() throws IOException {
+        nextCheck = System.nanoTime() + CHECK_INTERVAL_NANOS;
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        // fileKey (номер inode) меняется при переименовании поверх; где его нет — время изменения
+        if (current != null && Objects.equals(attributes.fileKey(), fileKey)
+                && attributes.lastModifiedTime().equals(modified)) {
+            return false;
+        }
+        current = MappedCatalog.open(file);
+        fileKey = attributes.fileKey();
+        modified = attributes.lastModifiedTime();
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+// Хранилище книг, читателей и выдач: операции, которые не зависят от способа хранения.
+// Реализации: Library (SQLite через JDBC) и MemoryStorageEngine (состояние в памяти,
+// долговечность — журнал операций и снимки). Правила и тексты ошибок у реализаций
+// одинаковые; это проверяет StorageConformance (bench/).
+// Поиск по тексту, архив выдач и массовая загрузка есть только у Library.
+public interface StorageEngine {
+    void addBook(Book book) throws LibraryException;
+
+    void deleteBook(Isbn isbn) throws LibraryException;
+
+    void registerReader(Reader reader) throws LibraryException;
+
+    void deleteReader(String id) throws LibraryException;
+
+    void lendBook(Isbn isbn, String readerId) throws LibraryException;
+
+    void returnBook(Isbn isbn, String readerId) throws LibraryException;
+
+    // Стопка книг одной операцией; результаты — в порядке isbns
+    List<LoanResult> lendBooks(String readerId, List<Isbn> isbns) throws LibraryException;
+
+    List<LoanResult> returnBooks(String readerId, List<Isbn> isbns) throws LibraryException;
+
+    Book findByIsbn(Isbn isbn);
+
+    // Книги с ISBN больше afterIsbn в порядке ISBN (null — с начала)
+    List<Book> getBooksAfter(Isbn afterIsbn, int limit);
+
+    Map<Isbn, Book> getBooks();
+
+    // Число книг и страница каталога по смещению в порядке ISBN (limit < 0 — до конца)
+    int countBooks();
+
+    List<Book> getBooks(int offset, int limit);
+
+    // Читатели с выдачами (выдачи удалённых книг не показываются)
+    Map<String, Reader> getReaders();
+
+    // Строки «читатель — выдача» в порядке (читатель, выдача); читатель без выдач — одна строка
+    int countReaderLoanRows();
+
+    List<ReaderLoanRow> getReaderLoanRowsAfter(ReaderLoanRow after, int limit);
+
+    List<ReaderLoanRow> getReaderLoanRows(int offset, int limit);
+
+    // Выдачи со сроком возврата раньше asOf в порядке (срок, выдача) после строки after
+    List<ReaderLoanRow> findOverdue(LocalDate asOf, ReaderLoanRow after, int limit);
+
+    // События приходят после того, как изменение сохранено
+    void addListener(LibraryListener listener);
+
+    void removeListener(LibraryListener listener);
+
+    void close();
+}
@@ -0,0 +1,356 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Очередь изменений: все записи выполняются по порядку в одном потоке
+// на пишущем соединении пула. Вызывающий поток ждёт результата своей операции.
+//
+// В режиме группового коммита поток записи забирает из очереди сразу несколько
+// операций (не больше maxBatch, дожидаясь новых не дольше maxDelay) и выполняет
+// их в одной транзакции: каждая операция — в своей точке сохранения, ошибка
+// откатывает только её. Результаты отдаются вызывающим после COMMIT.
+//
+// Действие после фиксации (committed) выполняется в потоке записи сразу после
+// COMMIT, до завершения результата, — в порядке фиксации операций. Так кэш и
+// подписчики видят изменения одной книги в том же порядке, что и БД.
+public class WriteQueue {
+    // Операция записи; выполняется в потоке очереди
+    public interface WriteTask<T> {
+        T apply(PooledConnection writer) throws SQLException, LibraryException;
+    }
+
+    // Операция в очереди вместе с трассой и ожидающим её результата
+    private static class PendingWrite<T> {
+        final String errorMessage;
+        final WriteTask<T> task;
+        final Consumer<? super T> committed;
+        final boolean transactional;
+        final OperationTrace trace;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Exception error;
+
+        PendingWrite(String errorMessage, WriteTask<T> task, Consumer<? super T> committed, boolean transactional,
+                     OperationTrace trace) {
+            this.errorMessage = errorMessage;
+            this.task = task;
+            this.committed = committed;
+            this.transactional = transactional;
+            this.trace = trace;
+        }
+
+        // Вызывается в потоке записи после фиксации (или ошибки) — по порядку очереди
+        void complete() {
+            if (error == null) {
+                if (committed != null) {
+                    try {
+                        committed.accept(result);
+                    } catch (RuntimeException e) {
+                        // изменение уже зафиксировано: ошибка действия его не отменяет
+                        System.out.println("Ошибка обработки записи: " + e.getMessage());
+                    }
+                }
+                future.complete(result);
+            } else if (error instanceof SQLException) {
+                future.completeExceptionally(new LibraryException(errorMessage + error.getMessage()));
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static final PendingWrite<Void> STOP = new PendingWrite<>(null, null, null, false, null);
+
+    private final ConnectionPool pool;
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // Проверка closed и постановка в очередь — под одной блокировкой с close():
+    // операция, принятая до закрытия, стоит в очереди раньше сигнала остановки
+    private final Object submitLock = new Object();
+    private boolean closed;
+
+    // Настройки группового коммита; maxBatch = 1 — каждая операция фиксируется отдельно
+    private volatile int maxBatch = 1;
+    private volatile long maxDelayNanos;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    public WriteQueue(ConnectionPool pool) {
+        this.pool = pool;
+        writer = new Thread(this::run, "library-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Включить групповой коммит: в одну транзакцию попадает до maxBatch операций,
+    // поток записи ждёт новые операции не дольше maxDelay после первой.
+    // maxDelay = 0 — объединяются только уже стоящие в очереди операции (без
+    // добавочной задержки); maxBatch = 1 выключает режим.
+    public void setGroupCommit(int maxBatch, long maxDelay, TimeUnit unit) {
+        if (maxBatch <= 0) throw new IllegalArgumentException("Размер группы должен быть положительным");
+        if (maxDelay < 0) throw new IllegalArgumentException("Задержка не может быть отрицательной");
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.maxBatch = maxBatch;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public long getMaxDelayMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxDelayNanos);
+    }
+
+    // Число фиксаций (COMMIT или автофиксаций) и выполненных операций записи
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    // Выполнить операцию в режиме автофиксации
+    public <T> T execute(String errorMessage, WriteTask<T> task) throws LibraryException {
+        return execute(errorMessage, task, null);
+    }
+
+    public <T> T execute(String errorMessage, WriteTask<T> task, Consumer<? super T> committed) throws LibraryException {
+        return await(executeAsync(errorMessage, task, committed));
+    }
+
+    // Выполнить операцию в одной транзакции; при любой ошибке изменения откатываются
+    public <T> T transaction(String errorMessage, WriteTask<T> task) throws LibraryException {
+        return transaction(errorMessage, task, null);
+    }
+
+    public <T> T transaction(String errorMessage, WriteTask<T> task, Consumer<? super T> committed)
+            throws LibraryException {
+        return await(transactionAsync(errorMessage, task, committed));
+    }
+
+    // То же без ожидания: результат завершается после фиксации изменений,
+    // ошибка — LibraryException (или RuntimeException задачи)
+    public <T> CompletableFuture<T> executeAsync(String errorMessage, WriteTask<T> task) {
+        return executeAsync(errorMessage, task, null);
+    }
+
+    public <T> CompletableFuture<T> executeAsync(String errorMessage, WriteTask<T> task, Consumer<? super T> committed) {
+        return submit(new PendingWrite<>(errorMessage, task, committed, false, OperationTrace.current()));
+    }
+
+    public <T> CompletableFuture<T> transactionAsync(String errorMessage, WriteTask<T> task) {
+        return transactionAsync(errorMessage, task, null);
+    }
+
+    public <T> CompletableFuture<T> transactionAsync(String errorMessage, WriteTask<T> task,
+                                                     Consumer<? super T> committed) {
+        return submit(new PendingWrite<>(errorMessage, task, committed, true, OperationTrace.current()));
+    }
+
+    private <T> CompletableFuture<T> submit(PendingWrite<T> pending) {
+        synchronized (submitLock) {
+            if (!closed) {
+                queue.add(pending);
+                return pending.future;
+            }
+        }
+        pending.future.completeExceptionally(new LibraryException("Очередь записи закрыта"));
+        return pending.future;
+    }
+
+    // Операция уже в очереди и может быть зафиксирована, поэтому прерывание не
+    // обрывает ожидание: вызывающий получает настоящий исход, флаг прерывания
+    // восстанавливается после
+    private <T> T await(CompletableFuture<T> future) throws LibraryException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            OperationTrace trace = OperationTrace.current();
+            if (trace != null && cause instanceof Exception) trace.fail((Exception) cause);
+            if (cause instanceof LibraryException) throw (LibraryException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new LibraryException("Ошибка записи: " + cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    // Цикл потока записи: взять первую операцию, добрать группу и выполнить её
+    private void run() {
+        List<PendingWrite<?>> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                PendingWrite<?> first = queue.take();
+                if (first == STOP) break;
+                batch.add(first);
+                stopping = collect(batch);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (batch.size() == 1) {
+                runSingle(batch.get(0));
+            } else {
+                runGroup(batch);
+            }
+            writes.addAndGet(batch.size());
+            batch.clear();
+        }
+        // Операции, не попавшие в работу, получают ошибку
+        for (PendingWrite<?> pending : batch) {
+            pending.future.completeExceptionally(new LibraryException("Очередь записи закрыта"));
+        }
+        PendingWrite<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new LibraryException("Очередь записи закрыта"));
+        }
+    }
+
+    // Добрать группу: сначала всё, что уже ждёт, затем новые операции до срока.
+    // Возвращает true, если в очереди встретился сигнал остановки.
+    private boolean collect(List<PendingWrite<?>> batch) throws InterruptedException {
+        int limit = maxBatch;
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < limit) {
+            PendingWrite<?> next = queue.poll();
+            if (next == null) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0) break;
+                next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                if (next == null) break;
+            }
+            if (next == STOP) return true;
+            batch.add(next);
+        }
+        return false;
+    }
+
+    // Одиночная операция: автофиксация или своя транзакция, как без группового коммита
+    private <T> void runSingle(PendingWrite<T> pending) {
+        OperationTrace previous = OperationTrace.attach(pending.trace);
+        try (PooledConnection c = pool.writer()) {
+            if (!pending.transactional) {
+                pending.result = pending.task.apply(c);
+            } else {
+                Connection conn = c.connection();
+                conn.setAutoCommit(false);
+                try {
+                    pending.result = pending.task.apply(c);
+                    conn.commit();
+                } catch (SQLException | LibraryException | RuntimeException e) {
+                    rollback(conn, null);
+                    throw e;
+                } finally {
+                    restoreAutoCommit(conn);
+                }
+            }
+            commits.incrementAndGet();
+        } catch (SQLException | LibraryException | RuntimeException e) {
+            pending.error = e;
+        } finally {
+            OperationTrace.attach(previous);
+        }
+        pending.complete();
+    }
+
+    // Группа операций в одной транзакции; каждая — в своей точке сохранения
+    private void runGroup(List<PendingWrite<?>> batch) {
+        try (PooledConnection c = pool.writer()) {
+            Connection conn = c.connection();
+            conn.setAutoCommit(false);
+            try {
+                for (PendingWrite<?> pending : batch) {
+                    runInSavepoint(c, pending);
+                }
+                conn.commit();
+                commits.incrementAndGet();
+            } catch (SQLException e) {
+                // Не удалось зафиксировать группу: ошибка у всех, кто ещё считался успешным
+                rollback(conn, null);
+                for (PendingWrite<?> pending : batch) {
+                    if (pending.error == null) pending.error = e;
+                }
+            } finally {
+                restoreAutoCommit(conn);
+            }
+        } catch (SQLException e) {
+            for (PendingWrite<?> pending : batch) {
+                if (pending.error == null) pending.error = e;
+            }
+        }
+        for (PendingWrite<?> pending : batch) {
+            pending.complete();
+        }
+    }
+
+    private <T> void runInSavepoint(PooledConnection c, PendingWrite<T> pending) throws SQLException {
+        Connection conn = c.connection();
+        OperationTrace previous = OperationTrace.attach(pending.trace);
+        try {
+            Savepoint savepoint = conn.setSavepoint();
+            try {
+                pending.result = pending.task.apply(c);
+                conn.releaseSavepoint(savepoint);
+            } catch (SQLException | LibraryException | RuntimeException e) {
+                pending.error = e;
+                rollback(conn, savepoint);
+            }
+        } finally {
+            OperationTrace.attach(previous);
+        }
+    }
+
+    private static void rollback(Connection conn, Savepoint savepoint) {
+        try {
+            if (savepoint == null) {
+                conn.rollback();
+            } else {
+                conn.rollback(savepoint);
+                conn.releaseSavepoint(savepoint);
+            }
+        } catch (SQLException ex) {
+            // ignore
+        }
+    }
+
+    private static void restoreAutoCommit(Connection conn) {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            // ignore
+        }
+    }
+
+    // Дождаться уже поставленных операций и остановить поток записи
+    public void close() {
+        synchronized (submitLock) {
+            if (closed) return;
+            closed = true;
+            queue.add(STOP);
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}